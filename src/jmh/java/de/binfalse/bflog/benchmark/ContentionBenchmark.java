@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.binfalse.bflog.LOGGER;
+
+
+/**
+ * Benchmarks of several threads logging to the same file concurrently.
+ * 
+ * @author martin scharm
+ */
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+@State (Scope.Benchmark)
+public class ContentionBenchmark
+{
+	
+	/**
+	 * The per-thread state.
+	 */
+	@State (Scope.Thread)
+	public static class Counter
+	{
+		
+		/** Counts the calls, so messages differ. */
+		public long	counter;
+	}
+	
+	/** Should we log asynchronously? */
+	@Param ({"false", "true"})
+	public boolean	async;
+	
+	/** The log file. */
+	private File		file;
+	
+	
+	/**
+	 * Set up the LOGGER.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Setup (Level.Trial)
+	public void setUp () throws IOException
+	{
+		file = LoggerBenchmark.logToFile ();
+		LOGGER.setAsync (async);
+	}
+	
+	
+	/**
+	 * Close the LOGGER and remove the file.
+	 */
+	@TearDown (Level.Trial)
+	public void tearDown ()
+	{
+		LOGGER.closeLogger ();
+		file.delete ();
+	}
+	
+	
+	/**
+	 * One thread logging.
+	 *
+	 * @param state the per-thread state
+	 */
+	@Benchmark
+	@Threads (1)
+	public void threads1 (Counter state)
+	{
+		LOGGER.info ("request {} took {} ms", "id", state.counter++);
+	}
+	
+	
+	/**
+	 * Four threads logging.
+	 *
+	 * @param state the per-thread state
+	 */
+	@Benchmark
+	@Threads (4)
+	public void threads4 (Counter state)
+	{
+		LOGGER.info ("request {} took {} ms", "id", state.counter++);
+	}
+	
+	
+	/**
+	 * Sixteen threads logging.
+	 *
+	 * @param state the per-thread state
+	 */
+	@Benchmark
+	@Threads (16)
+	public void threads16 (Counter state)
+	{
+		LOGGER.info ("request {} took {} ms", "id", state.counter++);
+	}
+}
@@ -0,0 +1,411 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.binfalse.bflog.ClassLogger;
+import de.binfalse.bflog.LOGGER;
+import de.binfalse.bflog.samplecallbacks.LogCollector;
+
+
+/**
+ * Benchmarks of a single thread calling the LOGGER. Every benchmark
+ * configures the LOGGER in its own state, as the LOGGER is global.
+ * 
+ * @author martin scharm
+ */
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class LoggerBenchmark
+{
+	
+	/** The logger of this class. */
+	private static final ClassLogger	LOG	= LOGGER.forClass (LoggerBenchmark.class);
+	
+	/**
+	 * The LOGGER does not write anywhere, only the level and the caller
+	 * location are configurable.
+	 */
+	@State (Scope.Benchmark)
+	public static class NoSink
+	{
+		
+		/** The caller location mode. */
+		@Param ({"OFF", "CLASS", "FULL"})
+		public String	callerLocation;
+		
+		/** Counts the calls, so messages differ. */
+		public long		counter;
+		
+		
+		/**
+		 * Set up the LOGGER.
+		 */
+		@Setup (Level.Trial)
+		public void setUp ()
+		{
+			LoggerBenchmark.silence ();
+			LOGGER.setMinLevel (LOGGER.INFO);
+			LOGGER.setCallerLocation (callerLocation (callerLocation));
+		}
+	}
+	
+	/**
+	 * The LOGGER writes to a temporary file.
+	 */
+	@State (Scope.Benchmark)
+	public static class FileSink
+	{
+		
+		/** Should we log asynchronously? */
+		@Param ({"false", "true"})
+		public boolean	async;
+		
+		/** Should we map the log file? */
+		@Param ({"false", "true"})
+		public boolean	mapped;
+		
+		/** The log file. */
+		public File			file;
+		
+		/** Counts the calls, so messages differ. */
+		public long			counter;
+		
+		
+		/**
+		 * Set up the LOGGER.
+		 *
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		@Setup (Level.Trial)
+		public void setUp () throws IOException
+		{
+			file = LoggerBenchmark.logToFile ();
+			LOGGER.setLogFileMapped (mapped);
+			LOGGER.setAsync (async);
+		}
+		
+		
+		/**
+		 * Close the LOGGER and remove the file.
+		 */
+		@TearDown (Level.Trial)
+		public void tearDown ()
+		{
+			LOGGER.closeLogger ();
+			LOGGER.setLogFileMapped (false);
+			file.delete ();
+		}
+	}
+	
+	/**
+	 * The LOGGER writes a binary log to a temporary file.
+	 */
+	@State (Scope.Benchmark)
+	public static class BinaryFile
+	{
+		
+		/** The log file. */
+		public File	file;
+		
+		/** Counts the calls, so messages differ. */
+		public long	counter;
+		
+		
+		/**
+		 * Set up the LOGGER.
+		 *
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		@Setup (Level.Trial)
+		public void setUp () throws IOException
+		{
+			LOGGER.setLogFileBinary (true);
+			file = LoggerBenchmark.logToFile ();
+		}
+		
+		
+		/**
+		 * Close the LOGGER and remove the file.
+		 */
+		@TearDown (Level.Trial)
+		public void tearDown ()
+		{
+			LOGGER.closeLogger ();
+			LOGGER.setLogFileBinary (false);
+			file.delete ();
+		}
+	}
+	
+	/**
+	 * The LOGGER logs stack traces, but does not write anywhere.
+	 */
+	@State (Scope.Benchmark)
+	public static class StackTrace
+	{
+		
+		/** The exception to log. */
+		public Exception	exception;
+		
+		
+		/**
+		 * Set up the LOGGER.
+		 */
+		@Setup (Level.Trial)
+		public void setUp ()
+		{
+			LoggerBenchmark.silence ();
+			LOGGER.setMinLevel (LOGGER.INFO);
+			LOGGER.setCallerLocation (LOGGER.CALLER_OFF);
+			LOGGER.setLogStackTrace (true);
+			exception = new IOException ("cannot read file");
+		}
+	}
+	
+	/**
+	 * The LOGGER passes all messages to a {@link LogCollector}.
+	 */
+	@State (Scope.Benchmark)
+	public static class Collector
+	{
+		
+		/** The collector. */
+		public LogCollector	collector;
+		
+		/** Counts the calls, so messages differ. */
+		public long					counter;
+		
+		
+		/**
+		 * Set up the LOGGER.
+		 */
+		@Setup (Level.Trial)
+		public void setUp ()
+		{
+			LoggerBenchmark.silence ();
+			LOGGER.setMinLevel (LOGGER.INFO);
+			LOGGER.setCallerLocation (LOGGER.CALLER_OFF);
+			collector = new LogCollector ();
+			LOGGER.addCallback (collector);
+		}
+		
+		
+		/**
+		 * Remove the collector.
+		 */
+		@TearDown (Level.Trial)
+		public void tearDown ()
+		{
+			LOGGER.rmCallBack (collector);
+		}
+	}
+	
+	
+	/**
+	 * Disable all outputs.
+	 */
+	static void silence ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setLogStackTrace (false);
+	}
+	
+	
+	/**
+	 * Log info messages to a new temporary file.
+	 *
+	 * @return the log file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static File logToFile () throws IOException
+	{
+		silence ();
+		File file = File.createTempFile ("BFLogBenchmark", ".log");
+		file.deleteOnExit ();
+		LOGGER.setLogFile (file);
+		LOGGER.setLogToFile (true);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		LOGGER.setCallerLocation (LOGGER.CALLER_OFF);
+		return file;
+	}
+	
+	
+	/**
+	 * Translate the name of a caller location mode.
+	 *
+	 * @param name the name
+	 * @return the caller location mode
+	 */
+	static int callerLocation (String name)
+	{
+		if ("OFF".equals (name))
+			return LOGGER.CALLER_OFF;
+		if ("CLASS".equals (name))
+			return LOGGER.CALLER_CLASS;
+		return LOGGER.CALLER_FULL;
+	}
+	
+	
+	/**
+	 * A disabled level, should be as cheap as a field read.
+	 *
+	 * @param state the state
+	 */
+	@Benchmark
+	public void disabledLevel (NoSink state)
+	{
+		LOGGER.debug ("request {} took {} ms", "id", state.counter++);
+	}
+	
+	
+	/**
+	 * A disabled level using the varargs API.
+	 *
+	 * @param state the state
+	 */
+	@Benchmark
+	public void disabledLevelVarargs (NoSink state)
+	{
+		LOGGER.debug ("request ", "id", " took ", state.counter++, " ms");
+	}
+	
+	
+	/**
+	 * An enabled level, but no output: the cost of assembling the line.
+	 *
+	 * @param state the state
+	 */
+	@Benchmark
+	public void enabledNoSink (NoSink state)
+	{
+		LOGGER.info ("request {} took {} ms", "id", state.counter++);
+	}
+	
+	
+	/**
+	 * An enabled level using the varargs API.
+	 *
+	 * @param state the state
+	 */
+	@Benchmark
+	public void enabledNoSinkVarargs (NoSink state)
+	{
+		LOGGER.info ("request ", "id", " took ", state.counter++, " ms");
+	}
+	
+	
+	/**
+	 * An enabled level using a class logger, which does not need to look up
+	 * its class.
+	 *
+	 * @param state the state
+	 */
+	@Benchmark
+	public void classLoggerNoSink (NoSink state)
+	{
+		LOG.info ("request {} took {} ms", "id", state.counter++);
+	}
+	
+	
+	/**
+	 * Log to a file.
+	 *
+	 * @param state the state
+	 */
+	@Benchmark
+	public void fileSink (FileSink state)
+	{
+		LOGGER.info ("request {} took {} ms", "id", state.counter++);
+	}
+	
+	
+	/**
+	 * Log to a binary file, the message is not formatted at all.
+	 *
+	 * @param state the state
+	 */
+	@Benchmark
+	public void binaryFileSink (BinaryFile state)
+	{
+		LOGGER.info ("request {} took {} ms", "id", state.counter++);
+	}
+	
+	
+	/**
+	 * Log an exception including its stack trace.
+	 *
+	 * @param state the state
+	 */
+	@Benchmark
+	public void stackTrace (StackTrace state)
+	{
+		LOGGER.error (state.exception, "failed to process request");
+	}
+	
+	
+	/**
+	 * Log to a {@link LogCollector}.
+	 *
+	 * @param state the state
+	 */
+	@Benchmark
+	public void collector (Collector state)
+	{
+		LOGGER.info ("request {} took {} ms", "id", state.counter++);
+	}
+}
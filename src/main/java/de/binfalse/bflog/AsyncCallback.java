@@ -0,0 +1,544 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * The AsyncCallback isolates a slow callback from the logging threads. The
+ * messages are put into a bounded ring buffer, using the same lock-free
+ * protocol as the {@link AsyncDispatcher}, and a worker thread per callback
+ * passes them to the callback in batches. A batch is passed to the callback
+ * if it is full, or if its first message waited for the linger time. A
+ * {@link LogCallback} is adapted to a batch callback with batches of a single
+ * message.
+ * 
+ * A shared watchdog thread checks how long the workers are busy with a
+ * single call. If a callback exceeds the latency budget (see
+ * <code>LOGGER.setCallbackLatencyBudget</code>) a warning is logged and,
+ * optionally, the callback is unregistered. The watchdog runs as long as
+ * there is an async callback that is not closed.
+ * 
+ * @author martin scharm
+ */
+final class AsyncCallback
+	implements LogEventCallback, Runnable
+{
+	
+	/** The default capacity of the buffer. */
+	static final int																DEFAULT_CAPACITY			= 1024;
+	
+	/** The time between two checks of the watchdog. */
+	static final long																WATCHDOG_PERIOD_MILLIS	= 20;
+	
+	/** The max time the worker parks while a batch lingers; flushing and blocked threads check ten times as often. */
+	private static final long												IDLE_PARK_NANOS				= 1000000L;
+	
+	/** The async callbacks checked by the watchdog. */
+	private static final Set<AsyncCallback>					ACTIVE								= ConcurrentHashMap
+		.newKeySet ();
+	
+	/** The watchdog, started with the first async callback. */
+	private static ScheduledExecutorService					watchdog;
+	
+	/** The watchdog thread. */
+	private static volatile Thread									watchdogThread;
+	
+	/** The registered callback, i.e. the wrapped {@link LogCallback} or {@link BatchLogCallback}. */
+	final Object																		target;
+	
+	/** The callback receiving the batches. */
+	private final BatchLogCallback									callback;
+	
+	/** The max number of messages per batch. */
+	private final int																maxBatch;
+	
+	/** The max time the first message of a batch waits for further messages, in nanoseconds. */
+	private final long															lingerNanos;
+	
+	/** The number of slots, always a power of two. */
+	private final int																capacity;
+	
+	/** The mask to map a sequence to a slot. */
+	private final int																mask;
+	
+	/** The sequence number of every slot. */
+	private final AtomicLongArray										sequences;
+	
+	/** The events stored in the slots. */
+	private final LogEvent[]												events;
+	
+	/** The next sequence to be claimed by a producer. */
+	private final AtomicLong												tail									= new AtomicLong ();
+	
+	/** The next sequence to be consumed, only written by the worker. */
+	private long																		head;
+	
+	/** The sequence of the first message that was not yet passed to the callback. */
+	private volatile long														delivered;
+	
+	/** The number of threads waiting for the buffered messages. */
+	private final AtomicInteger											flushing							= new AtomicInteger ();
+	
+	/** Should we block if the buffer is full? Otherwise, messages are dropped. */
+	private final boolean														block;
+	
+	/** The number of dropped messages. */
+	private final AtomicLong												dropped								= new AtomicLong ();
+	
+	/** The worker thread. */
+	private final Thread														worker;
+	
+	/** Is the worker waiting for new messages? */
+	private volatile boolean												workerWaiting;
+	
+	/** The time the worker started the current call, 0 if it is idle. */
+	private volatile long														callStart;
+	
+	/** The call that was already reported as slow. */
+	private long																		reported;
+	
+	/** Was this callback shut down? */
+	private volatile boolean												closed;
+	
+	
+	/**
+	 * Instantiates a new async callback passing every message on its own.
+	 *
+	 * @param callback the wrapped callback
+	 * @param capacity the number of messages that can be buffered
+	 * @param overflowPolicy what to do if the buffer is full, either
+	 *          <code>LOGGER.OVERFLOW_BLOCK</code> or
+	 *          <code>LOGGER.OVERFLOW_DROP</code>
+	 */
+	AsyncCallback (LogCallback callback, int capacity, int overflowPolicy)
+	{
+		this (callback, callback == null ? null : BatchLogCallback.of (callback),
+			capacity, overflowPolicy, 1, 0);
+	}
+	
+	
+	/**
+	 * Instantiates a new async callback passing batches of messages.
+	 *
+	 * @param callback the wrapped callback
+	 * @param capacity the number of messages that can be buffered
+	 * @param overflowPolicy what to do if the buffer is full, either
+	 *          <code>LOGGER.OVERFLOW_BLOCK</code> or
+	 *          <code>LOGGER.OVERFLOW_DROP</code>
+	 * @param maxBatch the max number of messages per batch
+	 * @param lingerMillis the max time the first message of a batch waits for
+	 *          further messages
+	 */
+	AsyncCallback (BatchLogCallback callback, int capacity, int overflowPolicy,
+		int maxBatch, long lingerMillis)
+	{
+		this (callback, callback, capacity, overflowPolicy, maxBatch, lingerMillis);
+	}
+	
+	
+	/**
+	 * Instantiates a new async callback. The capacity will be rounded up to
+	 * the next power of two.
+	 *
+	 * @param target the registered callback
+	 * @param callback the callback receiving the batches
+	 * @param capacity the number of messages that can be buffered
+	 * @param overflowPolicy what to do if the buffer is full
+	 * @param maxBatch the max number of messages per batch
+	 * @param lingerMillis the max time the first message of a batch waits for
+	 *          further messages
+	 */
+	private AsyncCallback (Object target, BatchLogCallback callback,
+		int capacity, int overflowPolicy, int maxBatch, long lingerMillis)
+	{
+		if (target == null)
+			throw new NullPointerException ("callback must not be null");
+		if (maxBatch < 1 || lingerMillis < 0)
+			throw new IllegalArgumentException ("batch size must be positive and linger time must not be negative");
+		if (overflowPolicy != LOGGER.OVERFLOW_BLOCK
+			&& overflowPolicy != LOGGER.OVERFLOW_DROP)
+			throw new IllegalArgumentException ("unsupported overflow policy: "
+				+ overflowPolicy);
+		int size = 2;
+		while (size < capacity && size < (1 << 30))
+			size <<= 1;
+		this.target = target;
+		this.callback = callback;
+		this.maxBatch = maxBatch;
+		this.lingerNanos = lingerMillis * 1000000L;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.block = overflowPolicy == LOGGER.OVERFLOW_BLOCK;
+		sequences = new AtomicLongArray (size);
+		for (int i = 0; i < size; i++)
+			sequences.set (i, i);
+		events = new LogEvent[size];
+		
+		worker = new Thread (this, "BFLog-callback-"
+			+ target.getClass ().getSimpleName ());
+		worker.setDaemon (true);
+	}
+	
+	
+	/**
+	 * Start the worker thread and the watchdog.
+	 */
+	void start ()
+	{
+		worker.start ();
+		ACTIVE.add (this);
+		startWatchdog ();
+	}
+	
+	
+	/**
+	 * Start the watchdog, if it is not running yet.
+	 */
+	private static synchronized void startWatchdog ()
+	{
+		if (ACTIVE.isEmpty ())
+			return;
+		if (watchdog != null)
+			return;
+		watchdog = Executors.newSingleThreadScheduledExecutor (runnable -> {
+			Thread thread = new Thread (runnable, "BFLog-watchdog");
+			thread.setDaemon (true);
+			watchdogThread = thread;
+			return thread;
+		});
+		watchdog.scheduleWithFixedDelay ( () -> {
+			long budget = LOGGER.getCallbackLatencyBudget ();
+			if (budget <= 0)
+				return;
+			for (AsyncCallback cb : ACTIVE)
+				try
+				{
+					cb.check (budget * 1000000L);
+				}
+				catch (Throwable t)
+				{
+					t.printStackTrace ();
+				}
+		}, WATCHDOG_PERIOD_MILLIS, WATCHDOG_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	
+	
+	/**
+	 * Stop the watchdog, if there is no async callback left to check.
+	 */
+	private static synchronized void stopWatchdog ()
+	{
+		if (watchdog == null || !ACTIVE.isEmpty ())
+			return;
+		// periodic checks are cancelled, a check in progress may finish
+		watchdog.shutdown ();
+		watchdog = null;
+		watchdogThread = null;
+	}
+	
+	
+	/**
+	 * Check whether the current call of the callback exceeds the latency
+	 * budget. Every slow call is reported once.
+	 *
+	 * @param budget the budget in nanoseconds
+	 */
+	private void check (long budget)
+	{
+		long started = callStart;
+		if (started == 0 || started == reported
+			|| System.nanoTime () - started <= budget)
+			return;
+		reported = started;
+		boolean detach = LOGGER.isDetachingSlowCallbacks ();
+		if (detach)
+			LOGGER.detachCallback (this);
+		LOGGER.warn ("callback {} exceeded its latency budget of {} ms{}",
+			target, budget / 1000000L, detach ? " and was unregistered" : "");
+	}
+	
+	
+	/**
+	 * Gets the capacity of the ring buffer.
+	 *
+	 * @return the capacity
+	 */
+	int getCapacity ()
+	{
+		return capacity;
+	}
+	
+	
+	/**
+	 * Gets the number of messages that were dropped because the buffer was
+	 * full.
+	 *
+	 * @return the number of dropped messages
+	 */
+	long getDropped ()
+	{
+		return dropped.get ();
+	}
+	
+	
+	/**
+	 * Enqueue an event for the callback. If the buffer is full the event is
+	 * dropped or the caller waits, according to the overflow policy. The
+	 * watchdog and the worker itself never wait.
+	 *
+	 * @param event the event
+	 */
+	public void logged (LogEvent event)
+	{
+		if (closed)
+			return;
+		Thread current = Thread.currentThread ();
+		boolean mayBlock = block && current != worker && current != watchdogThread;
+		int spins = 0;
+		while (!tryPublish (event))
+		{
+			if (!mayBlock || closed)
+			{
+				dropped.incrementAndGet ();
+				LOGGER.metrics.asyncDropped ();
+				return;
+			}
+			// buffer is full, wait for the worker
+			LockSupport.unpark (worker);
+			if (++spins < 100)
+				Thread.yield ();
+			else
+				LockSupport.parkNanos (IDLE_PARK_NANOS / 10);
+		}
+	}
+	
+	
+	/**
+	 * Try to claim a slot and publish the event.
+	 *
+	 * @param event the event
+	 * @return true, if published, false if the buffer is full
+	 */
+	private boolean tryPublish (LogEvent event)
+	{
+		while (true)
+		{
+			long pos = tail.get ();
+			int slot = (int) (pos & mask);
+			long diff = sequences.get (slot) - pos;
+			if (diff == 0)
+			{
+				if (tail.compareAndSet (pos, pos + 1))
+				{
+					events[slot] = event;
+					// volatile write, so it isn't reordered with reading workerWaiting
+					sequences.set (slot, pos + 1);
+					if (workerWaiting)
+						LockSupport.unpark (worker);
+					return true;
+				}
+			}
+			else if (diff < 0)
+				return false;
+		}
+	}
+	
+	
+	/**
+	 * Move buffered messages to a batch, until the batch is full.
+	 *
+	 * @param batch the batch
+	 */
+	private void collect (List<LogEvent> batch)
+	{
+		while (batch.size () < maxBatch)
+		{
+			long pos = head;
+			int slot = (int) (pos & mask);
+			if (sequences.get (slot) != pos + 1)
+				return;
+			batch.add (events[slot]);
+			events[slot] = null;
+			sequences.lazySet (slot, pos + capacity);
+			head = pos + 1;
+		}
+	}
+	
+	
+	/**
+	 * Is there a buffered message?
+	 *
+	 * @return true, if a message is buffered
+	 */
+	private boolean available ()
+	{
+		return sequences.get ((int) (head & mask)) == head + 1;
+	}
+	
+	
+	/**
+	 * Pass a batch to the callback.
+	 *
+	 * @param batch the batch
+	 */
+	private void deliver (List<LogEvent> batch)
+	{
+		callStart = System.nanoTime ();
+		try
+		{
+			callback.logged (batch);
+		}
+		catch (Throwable t)
+		{
+			t.printStackTrace ();
+		}
+		callStart = 0;
+		delivered = head;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run ()
+	{
+		List<LogEvent> batch = new ArrayList<LogEvent> (Math.min (maxBatch, capacity));
+		long batchStart = 0;
+		while (!closed)
+		{
+			boolean empty = batch.isEmpty ();
+			collect (batch);
+			if (batch.isEmpty ())
+				delivered = head;
+			else
+			{
+				if (empty)
+					batchStart = System.nanoTime ();
+				long lingered = System.nanoTime () - batchStart;
+				if (batch.size () >= maxBatch || lingered >= lingerNanos || flushing.get () > 0)
+				{
+					deliver (batch);
+					batch.clear ();
+					continue;
+				}
+			}
+			
+			long wait = batch.isEmpty () ? 0 : Math.min (IDLE_PARK_NANOS,
+				lingerNanos - (System.nanoTime () - batchStart));
+			workerWaiting = true;
+			// re-check after announcing that we're about to park
+			if (!available () && !closed && flushing.get () == 0)
+			{
+				// producers, flush, and close unpark us
+				if (batch.isEmpty ())
+					LockSupport.park (this);
+				else if (wait > 0)
+					LockSupport.parkNanos (this, wait);
+			}
+			workerWaiting = false;
+		}
+	}
+	
+	
+	/**
+	 * Wait until the worker passed all messages that are currently buffered to
+	 * the callback.
+	 *
+	 * @param timeoutMillis the max time to wait
+	 * @return true, if all messages were passed to the callback
+	 */
+	boolean flush (long timeoutMillis)
+	{
+		long last = tail.get ();
+		long deadline = System.nanoTime () + timeoutMillis * 1000000L;
+		flushing.incrementAndGet ();
+		try
+		{
+			while (delivered < last)
+			{
+				if (closed || Thread.currentThread () == worker
+					|| System.nanoTime () - deadline > 0)
+					return false;
+				LockSupport.unpark (worker);
+				LockSupport.parkNanos (IDLE_PARK_NANOS / 10);
+			}
+			return true;
+		}
+		finally
+		{
+			flushing.decrementAndGet ();
+		}
+	}
+	
+	
+	/**
+	 * Shut down the worker. Buffered messages are discarded and a call in
+	 * progress is not interrupted, so call {@link #flush(long)} first to
+	 * deliver the buffered messages.
+	 */
+	void close ()
+	{
+		closed = true;
+		ACTIVE.remove (this);
+		LockSupport.unpark (worker);
+		stopWatchdog ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString ()
+	{
+		return target.toString ();
+	}
+}
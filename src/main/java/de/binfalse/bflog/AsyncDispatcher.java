@@ -0,0 +1,367 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * The AsyncDispatcher decouples the logging threads from the sinks. Log
+ * lines are copied into a preallocated, bounded ring buffer and a single
+ * consumer thread drains them to the sinks of the {@link LOGGER}. Every slot
+ * of the ring owns a reusable buffer, so handing over a line does not
+ * allocate.
+ * 
+ * The ring buffer is lock-free for the producers: every slot carries a
+ * sequence number that tells producers and the consumer whether the slot
+ * is free or contains a published line.
+ * 
+ * The consumer parks without a timeout if the buffer is empty. A producer
+ * publishes a line with a volatile write before it checks whether the
+ * consumer waits, and the consumer announces that it waits before it checks
+ * the buffer a last time, so one of them always sees the other.
+ * 
+ * Producers that are about to publish a line are counted, and shutting
+ * down waits for them before draining the buffer a last time, so no line
+ * is lost when the dispatcher is closed.
+ * 
+ * @author martin scharm
+ */
+final class AsyncDispatcher
+	implements Runnable
+{
+	
+	/** The time a producer parks while the buffer is full. */
+	private static final long	FULL_PARK_NANOS	= 100000L;
+	
+	/** The number of slots, always a power of two. */
+	private final int						capacity;
+	
+	/** The mask to map a sequence to a slot. */
+	private final int						mask;
+	
+	/** The sequence number of every slot. */
+	private final AtomicLongArray	sequences;
+	
+	/** The levels stored in the slots. */
+	private final int[]					levels;
+	
+	/** The lines stored in the slots, the buffers are reused. */
+	private final StringBuilder[]	lines;
+	
+	/** The events for the callbacks stored in the slots. */
+	private final LogEvent[]			events;
+	
+	/** The next sequence to be claimed by a producer. */
+	private final AtomicLong		tail						= new AtomicLong ();
+	
+	/** The next sequence to be consumed, only written by the consumer. */
+	private long								head;
+	
+	/** The number of dropped lines. */
+	private final AtomicLong		dropped					= new AtomicLong ();
+	
+	/** The overflow policy. */
+	private final int						overflowPolicy;
+	
+	/** Lines below this level are dropped if the policy is <code>LOGGER.OVERFLOW_DROP_BELOW_LEVEL</code>. */
+	private final int						overflowLevel;
+	
+	/** The consumer thread. */
+	private final Thread				consumer;
+	
+	/** The number of producers currently offering a line. */
+	private final AtomicInteger	producers				= new AtomicInteger ();
+	
+	/** Is the consumer waiting for new lines? */
+	private volatile boolean		consumerWaiting;
+	
+	/** Was this dispatcher shut down? */
+	private volatile boolean		closed;
+	
+	
+	/**
+	 * Instantiates a new async dispatcher. The capacity will be rounded up to
+	 * the next power of two.
+	 *
+	 * @param capacity the number of lines that can be buffered
+	 * @param overflowPolicy what to do if the buffer is full
+	 * @param overflowLevel the level that is still accepted if the policy is <code>LOGGER.OVERFLOW_DROP_BELOW_LEVEL</code>
+	 */
+	AsyncDispatcher (int capacity, int overflowPolicy, int overflowLevel)
+	{
+		int size = 2;
+		while (size < capacity && size < (1 << 30))
+			size <<= 1;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.overflowPolicy = overflowPolicy;
+		this.overflowLevel = overflowLevel;
+		
+		sequences = new AtomicLongArray (size);
+		for (int i = 0; i < size; i++)
+			sequences.set (i, i);
+		levels = new int[size];
+		lines = new StringBuilder[size];
+		events = new LogEvent[size];
+		for (int i = 0; i < size; i++)
+			lines[i] = new StringBuilder (LineBuffer.INITIAL_CAPACITY);
+		
+		consumer = new Thread (this, "BFLog-async");
+		consumer.setDaemon (true);
+	}
+	
+	
+	/**
+	 * Start the consumer thread.
+	 */
+	void start ()
+	{
+		consumer.start ();
+	}
+	
+	
+	/**
+	 * Gets the capacity of the ring buffer.
+	 *
+	 * @return the capacity
+	 */
+	int getCapacity ()
+	{
+		return capacity;
+	}
+	
+	
+	/**
+	 * Gets the number of lines that were dropped because the buffer was full.
+	 *
+	 * @return the number of dropped lines
+	 */
+	long getDropped ()
+	{
+		return dropped.get ();
+	}
+	
+	
+	/**
+	 * Offer a line to the dispatcher.
+	 *
+	 * @param level the level
+	 * @param line the line to log
+	 * @param event the event for the callbacks, may be <code>null</code>
+	 * @return true, if the line was handled (either enqueued or dropped according to the overflow policy), false if the caller needs to publish it itself
+	 */
+	boolean offer (int level, CharSequence line, LogEvent event)
+	{
+		// the consumer must not wait for itself, e.g. if a callback logs
+		if (Thread.currentThread () == consumer)
+			return false;
+		
+		// announce the producer before checking whether we're closed, so close () waits for it
+		producers.incrementAndGet ();
+		try
+		{
+			int spins = 0;
+			while (true)
+			{
+				if (closed)
+					return false;
+				
+				if (tryPublish (level, line, event))
+					return true;
+				
+				if (overflowPolicy == LOGGER.OVERFLOW_DROP
+					|| (overflowPolicy == LOGGER.OVERFLOW_DROP_BELOW_LEVEL && level < overflowLevel))
+				{
+					dropped.incrementAndGet ();
+					LOGGER.metrics.asyncDropped ();
+					return true;
+				}
+				
+				// buffer is full, wait for the consumer
+				wakeConsumer ();
+				if (++spins < 100)
+					Thread.yield ();
+				else
+					LockSupport.parkNanos (FULL_PARK_NANOS);
+			}
+		}
+		finally
+		{
+			producers.decrementAndGet ();
+		}
+	}
+	
+	
+	/**
+	 * Try to claim a slot and publish the line. The line is copied into the buffer of the slot.
+	 *
+	 * @param level the level
+	 * @param line the line
+	 * @param event the event for the callbacks, may be <code>null</code>
+	 * @return true, if published, false if the buffer is full
+	 */
+	private boolean tryPublish (int level, CharSequence line, LogEvent event)
+	{
+		while (true)
+		{
+			long pos = tail.get ();
+			int slot = (int) (pos & mask);
+			long diff = sequences.get (slot) - pos;
+			if (diff == 0)
+			{
+				if (tail.compareAndSet (pos, pos + 1))
+				{
+					levels[slot] = level;
+					events[slot] = event;
+					StringBuilder sb = lines[slot];
+					sb.setLength (0);
+					sb.append (line);
+					// a volatile write, so it can't be reordered with the read of consumerWaiting
+					sequences.set (slot, pos + 1);
+					if (consumerWaiting)
+						wakeConsumer ();
+					return true;
+				}
+			}
+			else if (diff < 0)
+				return false;
+		}
+	}
+	
+	
+	/**
+	 * Wake the consumer.
+	 */
+	private void wakeConsumer ()
+	{
+		LockSupport.unpark (consumer);
+	}
+	
+	
+	/**
+	 * Dispatch all lines that are currently buffered. Must only be called by a
+	 * single thread at a time.
+	 *
+	 * @return the number of dispatched lines
+	 */
+	private int drain ()
+	{
+		int n = 0;
+		while (true)
+		{
+			long pos = head;
+			int slot = (int) (pos & mask);
+			if (sequences.get (slot) != pos + 1)
+				return n;
+			
+			StringBuilder line = lines[slot];
+			try
+			{
+				LOGGER.dispatch (levels[slot], line, events[slot]);
+			}
+			catch (Throwable t)
+			{
+				t.printStackTrace ();
+			}
+			events[slot] = null;
+			if (line.capacity () > LineBuffer.MAX_RETAINED)
+				lines[slot] = new StringBuilder (LineBuffer.INITIAL_CAPACITY);
+			
+			// release the slot only after dispatching, as we pass its buffer to the sinks
+			sequences.lazySet (slot, pos + capacity);
+			head = pos + 1;
+			n++;
+		}
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run ()
+	{
+		while (!closed)
+		{
+			if (drain () > 0)
+				continue;
+			
+			consumerWaiting = true;
+			// re-check after announcing that we're about to park
+			if (drain () == 0 && !closed)
+				LockSupport.park (this);
+			consumerWaiting = false;
+		}
+		drain ();
+	}
+	
+	
+	/**
+	 * Shut down the dispatcher. Waits for the consumer to dispatch all
+	 * buffered lines.
+	 */
+	void close ()
+	{
+		closed = true;
+		wakeConsumer ();
+		if (Thread.currentThread () == consumer)
+			return;
+		
+		boolean interrupted = false;
+		while (consumer.isAlive ())
+		{
+			try
+			{
+				consumer.join ();
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		// catch lines of producers that raced with the shutdown
+		while (producers.get () > 0)
+			Thread.yield ();
+		drain ();
+		if (interrupted)
+			Thread.currentThread ().interrupt ();
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.List;
+
+/**
+ * The Interface BatchLogCallback to react on batches of log events. Register
+ * it using <code>LOGGER.addBatchCallback</code>: the events are buffered and
+ * passed to the callback by a dedicated thread, either if a batch is full or
+ * if the oldest buffered event waited for the linger time.
+ * 
+ * @author martin scharm
+ */
+public interface BatchLogCallback
+{
+	
+	/**
+	 * Post-handle a batch of logged messages. The list is reused for the next
+	 * batch, so copy it if the events are needed after the call returns.
+	 * 
+	 * @param events
+	 *          the events, in the order they were logged
+	 */
+	public void logged (List<LogEvent> events);
+	
+	
+	/**
+	 * Adapt a {@link LogCallback} that handles one message at a time.
+	 * 
+	 * @param callback
+	 *          the callback
+	 * @return a batch callback passing every event of a batch to the callback
+	 */
+	public static BatchLogCallback of (LogCallback callback)
+	{
+		return events -> {
+			for (LogEvent event : events)
+				callback.logged (event.getLevel (), event.getLine ());
+		};
+	}
+}
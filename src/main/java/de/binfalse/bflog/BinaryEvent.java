@@ -0,0 +1,560 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The BinaryEvent encodes a log event into the compact binary format written
+ * by the {@link BinaryFileSink}. Instead of formatting the message, it stores
+ * the time stamp as a long, the level as a byte, the caller and the message
+ * template as ids of an interned dictionary, and the raw arguments. The
+ * {@link BinaryLogDecoder} renders the events back to text.
+ * 
+ * Every thread reuses its own event, just like the {@link LineBuffer}. The
+ * encoding is (big endian, <code>varint</code> is an unsigned LEB128
+ * number, <code>text</code> is a varint that is 0 for <code>null</code>, 1
+ * for an inline string, or the dictionary id plus 1):
+ * 
+ * <pre>
+ * file   := MAGIC VERSION record*
+ * record := DEFINE varint(id) string
+ *         | EVENT long(time) byte(level) byte(flags) [text(caller class)]
+ *             [zigzag(line)] varint(argc) arg* [throwable]
+ *         | TEXT string
+ * string := varint(length in chars) utf8(chars)
+ * arg    := NULL | STRING text | LONG long | DOUBLE double | FLOAT float
+ *         | CHAR varint | BOOLEAN byte
+ * throwable := text(class) text(message) [exception* END]
+ * exception := byte(caption) text(class) text(message)
+ *             [varint(shown) frame* varint(truncated) varint(common)]
+ * frame  := text(class) text(method) text(file) zigzag(line)
+ * </pre>
+ * 
+ * The exceptions of a stack trace are stored in the order they are visited
+ * by the {@link StackTraceRenderer}, the frames are omitted for circular
+ * references. Version 1 stored only the frames of the thrown exception:
+ * <code>varint(frames) frame*</code>.
+ * 
+ * @author martin scharm
+ */
+final class BinaryEvent
+	implements StackTraceRenderer.Visitor
+{
+	
+	/** The magic bytes at the beginning of a binary log file. */
+	static final byte[]														MAGIC							= {'B', 'F', 'L', 'B'};
+	
+	/** The version of the format. */
+	static final byte															VERSION						= 2;
+	
+	/** Record: define a dictionary entry. */
+	static final byte															DEFINE						= 1;
+	
+	/** Record: a log event. */
+	static final byte															EVENT							= 2;
+	
+	/** Record: a preformatted line. */
+	static final byte															TEXT							= 3;
+	
+	/** Event flag: the caller class is given. */
+	static final int															FLAG_CALLER				= 1;
+	
+	/** Event flag: the caller line is given. */
+	static final int															FLAG_LINE					= 2;
+	
+	/** Event flag: a throwable is appended. */
+	static final int															FLAG_THROWABLE		= 4;
+	
+	/** Event flag: the stack trace of the throwable is appended. */
+	static final int															FLAG_STACK_TRACE	= 8;
+	
+	/** Marks the end of a stack trace. */
+	static final byte															END								= 127;
+	
+	/** Argument: <code>null</code>. */
+	static final byte															ARG_NULL					= 0;
+	
+	/** Argument: a string. */
+	static final byte															ARG_STRING				= 1;
+	
+	/** Argument: an integral number. */
+	static final byte															ARG_LONG					= 2;
+	
+	/** Argument: a double. */
+	static final byte															ARG_DOUBLE				= 3;
+	
+	/** Argument: a float. */
+	static final byte															ARG_FLOAT					= 4;
+	
+	/** Argument: a char. */
+	static final byte															ARG_CHAR					= 5;
+	
+	/** Argument: a boolean. */
+	static final byte															ARG_BOOLEAN				= 6;
+	
+	/** The max number of dictionary entries, further strings are inlined. */
+	static final int															MAX_DICTIONARY		= 1 << 16;
+	
+	/** The ids of the interned strings. */
+	private static final ConcurrentHashMap<String, Integer>	IDS								= new ConcurrentHashMap<String, Integer> ();
+	
+	/** The interned strings, the string with id <code>i</code> is at <code>i - 1</code>. */
+	private static final List<String>											STRINGS						= new ArrayList<String> ();
+	
+	/** The lock guarding the interned strings. */
+	private static final ReentrantLock											STRINGS_LOCK			= new ReentrantLock ();
+	
+	/** The events of the threads. */
+	private static final ThreadLocal<BinaryEvent>					EVENTS						= ThreadLocal
+		.withInitial (BinaryEvent::new);
+	
+	/** The encoded bytes. */
+	byte[]																				bytes							= new byte[LineBuffer.INITIAL_CAPACITY];
+	
+	/** The number of encoded bytes. */
+	int																						count;
+	
+	/** The dictionary ids referenced by the event. */
+	int[]																					refs							= new int[16];
+	
+	/** The number of referenced dictionary ids. */
+	int																						refCount;
+	
+	/** The position of the flags. */
+	private int																		flagsPos;
+	
+	/** Is the event currently in use? */
+	private boolean																inUse;
+	
+	
+	/**
+	 * Intern a string.
+	 *
+	 * @param string the string
+	 * @return the id of the string, or 0 if the dictionary is full
+	 */
+	static int intern (String string)
+	{
+		Integer id = IDS.get (string);
+		if (id != null)
+			return id;
+		STRINGS_LOCK.lock ();
+		try
+		{
+			id = IDS.get (string);
+			if (id != null)
+				return id;
+			if (STRINGS.size () >= MAX_DICTIONARY)
+				return 0;
+			STRINGS.add (string);
+			IDS.put (string, STRINGS.size ());
+			return STRINGS.size ();
+		}
+		finally
+		{
+			STRINGS_LOCK.unlock ();
+		}
+	}
+	
+	
+	/**
+	 * Gets an interned string.
+	 *
+	 * @param id the id of the string
+	 * @return the string
+	 */
+	static String lookup (int id)
+	{
+		STRINGS_LOCK.lock ();
+		try
+		{
+			return STRINGS.get (id - 1);
+		}
+		finally
+		{
+			STRINGS_LOCK.unlock ();
+		}
+	}
+	
+	
+	/**
+	 * Acquire the event of the current thread. If the thread's event is in use
+	 * (i.e. an argument logs while being encoded) a fresh event is returned.
+	 * The event must be released using {@link #release(BinaryEvent)}.
+	 *
+	 * @return the event, empty
+	 */
+	static BinaryEvent acquire ()
+	{
+		BinaryEvent event = EVENTS.get ();
+		if (event.inUse)
+			return new BinaryEvent ();
+		event.inUse = true;
+		event.reset ();
+		return event;
+	}
+	
+	
+	/**
+	 * Release an event acquired using {@link #acquire()}.
+	 *
+	 * @param event the event
+	 */
+	static void release (BinaryEvent event)
+	{
+		event.inUse = false;
+		if (event.bytes.length > LineBuffer.MAX_RETAINED)
+			event.bytes = new byte[LineBuffer.INITIAL_CAPACITY];
+	}
+	
+	
+	/**
+	 * Forget the encoded bytes.
+	 */
+	void reset ()
+	{
+		count = 0;
+		refCount = 0;
+	}
+	
+	
+	/**
+	 * Make sure there is space for some more bytes.
+	 *
+	 * @param n the number of bytes to add
+	 */
+	private void ensure (int n)
+	{
+		if (count + n > bytes.length)
+			bytes = Arrays.copyOf (bytes, Math.max (bytes.length * 2, count + n));
+	}
+	
+	
+	/**
+	 * Append a byte.
+	 *
+	 * @param b the byte
+	 */
+	void writeByte (int b)
+	{
+		ensure (1);
+		bytes[count++] = (byte) b;
+	}
+	
+	
+	/**
+	 * Append a long, big endian.
+	 *
+	 * @param v the value
+	 */
+	void writeLong (long v)
+	{
+		ensure (8);
+		for (int shift = 56; shift >= 0; shift -= 8)
+			bytes[count++] = (byte) (v >>> shift);
+	}
+	
+	
+	/**
+	 * Append an unsigned variable length number.
+	 *
+	 * @param v the value
+	 */
+	void writeVarint (long v)
+	{
+		ensure (10);
+		while ((v & ~0x7FL) != 0)
+		{
+			bytes[count++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		bytes[count++] = (byte) v;
+	}
+	
+	
+	/**
+	 * Append a signed variable length number.
+	 *
+	 * @param v the value
+	 */
+	void writeZigZag (long v)
+	{
+		writeVarint ((v << 1) ^ (v >> 63));
+	}
+	
+	
+	/**
+	 * Append a string: its length in chars followed by the chars encoded in
+	 * UTF-8. Surrogates are encoded one by one, so every char takes one to
+	 * three bytes.
+	 *
+	 * @param s the string
+	 */
+	void writeString (CharSequence s)
+	{
+		int length = s.length ();
+		writeVarint (length);
+		ensure (length * 3);
+		for (int i = 0; i < length; i++)
+		{
+			char c = s.charAt (i);
+			if (c < 0x80)
+				bytes[count++] = (byte) c;
+			else if (c < 0x800)
+			{
+				bytes[count++] = (byte) (0xC0 | (c >> 6));
+				bytes[count++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else
+			{
+				bytes[count++] = (byte) (0xE0 | (c >> 12));
+				bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[count++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Append a text, which is either a dictionary reference or an inline
+	 * string.
+	 *
+	 * @param s the text
+	 * @param intern should we intern the text?
+	 */
+	private void writeText (String s, boolean intern)
+	{
+		if (s == null)
+		{
+			writeVarint (0);
+			return;
+		}
+		int id = intern ? intern (s) : 0;
+		if (id == 0)
+		{
+			writeVarint (1);
+			writeString (s);
+			return;
+		}
+		if (refCount == refs.length)
+			refs = Arrays.copyOf (refs, refCount * 2);
+		refs[refCount++] = id;
+		writeVarint (id + 1);
+	}
+	
+	
+	/**
+	 * Start an event.
+	 *
+	 * @param millis the time stamp
+	 * @param level the level
+	 * @param callerClass the caller class, or <code>null</code>
+	 * @param line the caller line, or {@link Integer#MIN_VALUE} to omit it
+	 * @param args the number of arguments that will follow
+	 * @return the event
+	 */
+	BinaryEvent begin (long millis, int level, String callerClass, int line, int args)
+	{
+		writeByte (EVENT);
+		writeLong (millis);
+		writeByte (level);
+		int flags = 0;
+		if (callerClass != null)
+			flags |= FLAG_CALLER;
+		if (line != Integer.MIN_VALUE)
+			flags |= FLAG_LINE;
+		flagsPos = count;
+		writeByte (flags);
+		if (callerClass != null)
+			writeText (callerClass, true);
+		if (line != Integer.MIN_VALUE)
+			writeZigZag (line);
+		writeVarint (args);
+		return this;
+	}
+	
+	
+	/**
+	 * Append a message template, which is interned.
+	 *
+	 * @param template the template
+	 * @return the event
+	 */
+	BinaryEvent template (String template)
+	{
+		writeByte (ARG_STRING);
+		writeText (template, true);
+		return this;
+	}
+	
+	
+	/**
+	 * Append an argument. Numbers, chars, booleans, and strings are stored as
+	 * they are, other objects are converted into strings.
+	 *
+	 * @param arg the argument
+	 * @return the event
+	 */
+	BinaryEvent arg (Object arg)
+	{
+		if (arg == null)
+			writeByte (ARG_NULL);
+		else if (arg instanceof Long || arg instanceof Integer
+			|| arg instanceof Short || arg instanceof Byte)
+			arg (((Number) arg).longValue ());
+		else if (arg instanceof Double)
+			arg (((Double) arg).doubleValue ());
+		else if (arg instanceof Float)
+		{
+			writeByte (ARG_FLOAT);
+			ensure (4);
+			int bits = Float.floatToRawIntBits ((Float) arg);
+			for (int shift = 24; shift >= 0; shift -= 8)
+				bytes[count++] = (byte) (bits >>> shift);
+		}
+		else if (arg instanceof Character)
+			arg (((Character) arg).charValue ());
+		else if (arg instanceof Boolean)
+		{
+			writeByte (ARG_BOOLEAN);
+			writeByte (((Boolean) arg) ? 1 : 0);
+		}
+		else
+		{
+			writeByte (ARG_STRING);
+			writeText (arg.toString (), false);
+		}
+		return this;
+	}
+	
+	
+	/**
+	 * Append an argument.
+	 *
+	 * @param arg the argument
+	 * @return the event
+	 */
+	BinaryEvent arg (long arg)
+	{
+		writeByte (ARG_LONG);
+		writeLong (arg);
+		return this;
+	}
+	
+	
+	/**
+	 * Append an argument.
+	 *
+	 * @param arg the argument
+	 * @return the event
+	 */
+	BinaryEvent arg (double arg)
+	{
+		writeByte (ARG_DOUBLE);
+		writeLong (Double.doubleToRawLongBits (arg));
+		return this;
+	}
+	
+	
+	/**
+	 * Append an argument.
+	 *
+	 * @param arg the argument
+	 * @return the event
+	 */
+	BinaryEvent arg (char arg)
+	{
+		writeByte (ARG_CHAR);
+		writeVarint (arg);
+		return this;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.StackTraceRenderer.Visitor#visit(int,
+	 * java.lang.String, java.lang.String, java.lang.StackTraceElement[], int,
+	 * int, int)
+	 */
+	public void visit (int caption, String className, String message,
+		StackTraceElement[] trace, int shown, int truncated, int common)
+	{
+		writeByte (caption);
+		writeText (className, true);
+		writeText (message, false);
+		if (caption == StackTraceRenderer.CIRCULAR)
+			return;
+		writeVarint (shown);
+		for (int i = 0; i < shown; i++)
+		{
+			StackTraceElement el = trace[i];
+			writeText (el.getClassName (), true);
+			writeText (el.getMethodName (), true);
+			writeText (el.getFileName (), true);
+			writeZigZag (el.getLineNumber ());
+		}
+		writeVarint (truncated);
+		writeVarint (common);
+	}
+	
+	
+	/**
+	 * Append a thrown exception. Must be called after all arguments.
+	 *
+	 * @param e the exception
+	 * @param stackTrace should we store the stack trace?
+	 * @return the event
+	 */
+	BinaryEvent exception (Throwable e, boolean stackTrace)
+	{
+		bytes[flagsPos] |= FLAG_THROWABLE | (stackTrace ? FLAG_STACK_TRACE : 0);
+		writeText (e.getClass ().getName (), true);
+		writeText (e.getMessage (), false);
+		if (stackTrace)
+		{
+			StackTraceRenderer.visit (e, this);
+			writeByte (END);
+		}
+		return this;
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+/**
+ * The BinaryFileSink writes log events in the binary format described at
+ * {@link BinaryEvent}. Dictionary entries are defined in the file right
+ * before the first event referencing them, so every file can be decoded on
+ * its own.
+ * 
+ * @author martin scharm
+ */
+class BinaryFileSink
+	extends FileSink
+{
+	
+	/** The stream to the file. */
+	private final OutputStream	out;
+	
+	/** The channel of the file, to sync it. */
+	private final FileChannel		channel;
+	
+	/** The dictionary entries defined in this file. */
+	private final BitSet				defined	= new BitSet ();
+	
+	/** Encodes dictionary entries and preformatted lines. */
+	private final BinaryEvent		scratch	= new BinaryEvent ();
+	
+	/** The size of the file. */
+	private long								size;
+	
+	
+	/**
+	 * Instantiates a new binary file sink, appending to the file.
+	 *
+	 * @param file the file
+	 * @throws IOException Signals that an I/O exception has occurred, or the
+	 *           file exists but is not a binary log
+	 */
+	BinaryFileSink (File file) throws IOException
+	{
+		size = file.length ();
+		if (size > 0)
+			try (InputStream in = new FileInputStream (file))
+			{
+				byte[] magic = new byte[BinaryEvent.MAGIC.length];
+				if (in.read (magic) != magic.length || !Arrays.equals (magic, BinaryEvent.MAGIC))
+					throw new IOException ("not a binary log file: " + file.getAbsolutePath ());
+			}
+		FileOutputStream stream = new FileOutputStream (file, true);
+		channel = stream.getChannel ();
+		out = new BufferedOutputStream (stream, 1 << 16);
+		if (size == 0)
+		{
+			out.write (BinaryEvent.MAGIC);
+			out.write (BinaryEvent.VERSION);
+			size = BinaryEvent.MAGIC.length + 1;
+		}
+	}
+	
+	
+	/**
+	 * Write an event.
+	 *
+	 * @param event the event
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void write (BinaryEvent event) throws IOException
+	{
+		for (int i = 0; i < event.refCount; i++)
+		{
+			int id = event.refs[i];
+			if (defined.get (id))
+				continue;
+			scratch.reset ();
+			scratch.writeByte (BinaryEvent.DEFINE);
+			scratch.writeVarint (id);
+			scratch.writeString (BinaryEvent.lookup (id));
+			writeScratch ();
+			defined.set (id);
+		}
+		out.write (event.bytes, 0, event.count);
+		size += event.count;
+	}
+	
+	
+	/**
+	 * Write the bytes encoded in {@link #scratch}.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeScratch () throws IOException
+	{
+		out.write (scratch.bytes, 0, scratch.count);
+		size += scratch.count;
+		if (scratch.bytes.length > LineBuffer.MAX_RETAINED)
+			scratch.bytes = new byte[LineBuffer.INITIAL_CAPACITY];
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#write(java.lang.CharSequence)
+	 */
+	void write (CharSequence line) throws IOException
+	{
+		scratch.reset ();
+		scratch.writeByte (BinaryEvent.TEXT);
+		scratch.writeString (line);
+		writeScratch ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#size()
+	 */
+	long size ()
+	{
+		return size;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#flush()
+	 */
+	void flush () throws IOException
+	{
+		out.flush ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#sync()
+	 */
+	void sync () throws IOException
+	{
+		try
+		{
+			channel.force (false);
+		}
+		catch (ClosedChannelException e)
+		{
+			// closing flushed everything already
+		}
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#close()
+	 */
+	void close () throws IOException
+	{
+		out.close ();
+	}
+}
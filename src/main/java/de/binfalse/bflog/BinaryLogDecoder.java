@@ -0,0 +1,392 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The BinaryLogDecoder renders a binary log file (see
+ * {@link LOGGER#setLogFileBinary(boolean)}) back to the textual layout of
+ * the LOGGER:
+ * 
+ * <pre>
+ * BinaryLogDecoder decoder = new BinaryLogDecoder (new FileInputStream (file), LOGGER.DATE_FORMAT_DEFAULT);
+ * String line;
+ * while ((line = decoder.readLine ()) != null)
+ * 	System.out.println (line);
+ * decoder.close ();
+ * </pre>
+ * 
+ * It can also be used from the command line:
+ * 
+ * <pre>
+ * java -cp BFLog.jar de.binfalse.bflog.BinaryLogDecoder /my/log/file [date format]
+ * </pre>
+ * 
+ * @author martin scharm
+ */
+public class BinaryLogDecoder
+	implements Closeable
+{
+	
+	/** The input. */
+	private final DataInputStream			in;
+	
+	/** The formatter for the time stamps. */
+	private final TimestampFormatter	timestampFormatter;
+	
+	/** The dictionary, the string with id <code>i</code> is at <code>i</code>. */
+	private final List<String>				dictionary	= new ArrayList<String> ();
+	
+	/** The buffer the lines are assembled in. */
+	private final StringBuilder				sb					= new StringBuilder ();
+	
+	/** The version of the format. */
+	private final int									version;
+	
+	
+	/**
+	 * Instantiates a new decoder.
+	 *
+	 * @param in the binary log
+	 * @param dateFormat the format of the time stamps, see
+	 *          {@link LOGGER#setDateFormat(String)}
+	 * @throws IOException Signals that an I/O exception has occurred, or the
+	 *           input is not a binary log
+	 */
+	public BinaryLogDecoder (InputStream in, String dateFormat)
+		throws IOException
+	{
+		this.in = new DataInputStream (new BufferedInputStream (in));
+		this.timestampFormatter = new TimestampFormatter (dateFormat);
+		byte[] magic = new byte[BinaryEvent.MAGIC.length];
+		try
+		{
+			this.in.readFully (magic);
+		}
+		catch (EOFException e)
+		{
+			throw new IOException ("not a binary log");
+		}
+		if (!Arrays.equals (magic, BinaryEvent.MAGIC))
+			throw new IOException ("not a binary log");
+		version = this.in.readByte ();
+		if (version < 1 || version > BinaryEvent.VERSION)
+			throw new IOException ("unsupported version: " + version);
+	}
+	
+	
+	/**
+	 * Read the next log line. A record that was not completely written, e.g.
+	 * because the application crashed, is treated as the end of the log.
+	 *
+	 * @return the next line, or <code>null</code> if there is no further line
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public String readLine () throws IOException
+	{
+		try
+		{
+			while (true)
+			{
+				int type = in.read ();
+				switch (type)
+				{
+					case -1:
+						return null;
+					case BinaryEvent.DEFINE:
+						int id = (int) readVarint ();
+						while (dictionary.size () <= id)
+							dictionary.add (null);
+						dictionary.set (id, readString ());
+						break;
+					case BinaryEvent.TEXT:
+						return readString ();
+					case BinaryEvent.EVENT:
+						return readEvent ();
+					default:
+						throw new IOException ("unknown record: " + type);
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Read and render an event.
+	 *
+	 * @return the rendered event
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private String readEvent () throws IOException
+	{
+		sb.setLength (0);
+		timestampFormatter.format (in.readLong (), sb);
+		sb.append (" ").append (LOGGER.levelString (in.readByte ()));
+		int flags = in.readByte ();
+		if ((flags & BinaryEvent.FLAG_CALLER) != 0)
+			sb.append (" ").append (readText ());
+		if ((flags & BinaryEvent.FLAG_LINE) != 0)
+			sb.append ("@").append (readZigZag ());
+		sb.append (": ");
+		
+		Object[] args = new Object[(int) readVarint ()];
+		for (int i = 0; i < args.length; i++)
+			args[i] = readArg ();
+		MessageFormatter.format (sb, args);
+		
+		if ((flags & BinaryEvent.FLAG_THROWABLE) != 0)
+		{
+			String className = readText ();
+			String message = readText ();
+			MessageFormatter.appendException (sb, className, message);
+			if ((flags & BinaryEvent.FLAG_STACK_TRACE) != 0)
+			{
+				if (version == 1)
+				{
+					StackTraceElement[] trace = readFrames ((int) readVarint ());
+					StackTraceRenderer.append (sb, StackTraceRenderer.TOP, className, message, trace, trace.length, 0, 0);
+				}
+				else
+					readStackTrace ();
+			}
+		}
+		return sb.toString ();
+	}
+	
+	
+	/**
+	 * Read and render the exceptions of a stack trace.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void readStackTrace () throws IOException
+	{
+		int caption;
+		while ((caption = in.readByte ()) != BinaryEvent.END)
+		{
+			if (caption < 0 || caption >= StackTraceRenderer.CAPTIONS.length)
+				throw new IOException ("unknown caption: " + caption);
+			String className = readText ();
+			String message = readText ();
+			if (caption == StackTraceRenderer.CIRCULAR)
+			{
+				StackTraceRenderer.append (sb, caption, className, message, null, 0, 0, 0);
+				continue;
+			}
+			StackTraceElement[] trace = readFrames ((int) readVarint ());
+			int truncated = (int) readVarint ();
+			int common = (int) readVarint ();
+			StackTraceRenderer.append (sb, caption, className, message, trace, trace.length, truncated, common);
+		}
+	}
+	
+	
+	/**
+	 * Read the frames of a stack trace.
+	 *
+	 * @param n the number of frames
+	 * @return the frames
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private StackTraceElement[] readFrames (int n) throws IOException
+	{
+		StackTraceElement[] trace = new StackTraceElement[n];
+		for (int i = 0; i < trace.length; i++)
+			trace[i] = new StackTraceElement (readText (), readText (), readText (), (int) readZigZag ());
+		return trace;
+	}
+	
+	
+	/**
+	 * Read an argument.
+	 *
+	 * @return the argument
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private Object readArg () throws IOException
+	{
+		int type = in.readByte ();
+		switch (type)
+		{
+			case BinaryEvent.ARG_NULL:
+				return null;
+			case BinaryEvent.ARG_STRING:
+				return readText ();
+			case BinaryEvent.ARG_LONG:
+				return in.readLong ();
+			case BinaryEvent.ARG_DOUBLE:
+				return Double.longBitsToDouble (in.readLong ());
+			case BinaryEvent.ARG_FLOAT:
+				return Float.intBitsToFloat (in.readInt ());
+			case BinaryEvent.ARG_CHAR:
+				return (char) readVarint ();
+			case BinaryEvent.ARG_BOOLEAN:
+				return in.readByte () != 0;
+			default:
+				throw new IOException ("unknown argument type: " + type);
+		}
+	}
+	
+	
+	/**
+	 * Read a text, which is either a dictionary reference or an inline string.
+	 *
+	 * @return the text
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private String readText () throws IOException
+	{
+		long v = readVarint ();
+		if (v == 0)
+			return null;
+		if (v == 1)
+			return readString ();
+		int id = (int) (v - 1);
+		if (id >= dictionary.size () || dictionary.get (id) == null)
+			throw new IOException ("undefined dictionary entry: " + id);
+		return dictionary.get (id);
+	}
+	
+	
+	/**
+	 * Read a string.
+	 *
+	 * @return the string
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private String readString () throws IOException
+	{
+		int length = (int) readVarint ();
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+		{
+			int b = in.readUnsignedByte ();
+			if (b < 0x80)
+				chars[i] = (char) b;
+			else if (b < 0xE0)
+				chars[i] = (char) (((b & 0x1F) << 6) | (in.readUnsignedByte () & 0x3F));
+			else
+				chars[i] = (char) (((b & 0x0F) << 12)
+					| ((in.readUnsignedByte () & 0x3F) << 6) | (in.readUnsignedByte () & 0x3F));
+		}
+		return new String (chars);
+	}
+	
+	
+	/**
+	 * Read an unsigned variable length number.
+	 *
+	 * @return the number
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private long readVarint () throws IOException
+	{
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = in.readUnsignedByte ();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		throw new IOException ("malformed number");
+	}
+	
+	
+	/**
+	 * Read a signed variable length number.
+	 *
+	 * @return the number
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private long readZigZag () throws IOException
+	{
+		long v = readVarint ();
+		return (v >>> 1) ^ -(v & 1);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	public void close () throws IOException
+	{
+		in.close ();
+	}
+	
+	
+	/**
+	 * Print a binary log file to std::out.
+	 *
+	 * @param args the file and optionally the date format
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main (String[] args) throws IOException
+	{
+		if (args.length < 1 || args.length > 2)
+		{
+			System.err.println ("USAGE: java " + BinaryLogDecoder.class.getName () + " FILE [DATEFORMAT]");
+			System.exit (1);
+		}
+		String dateFormat = args.length > 1 ? args[1] : LOGGER.DATE_FORMAT_DEFAULT;
+		PrintStream out = System.out;
+		try (BinaryLogDecoder decoder = new BinaryLogDecoder (new FileInputStream (args[0]), dateFormat))
+		{
+			String line;
+			while ((line = decoder.readLine ()) != null)
+				out.println (line);
+		}
+		out.flush ();
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+
+/**
+ * The BufferedFileSink appends lines to a file through a buffer of its own.
+ * Lines are encoded into the buffer, which is written to the file when it is
+ * full or flushed. Besides log files, it writes to any open stream, e.g. the
+ * console for the {@link ConsoleSink}.
+ * 
+ * Unlike a <code>BufferedWriter</code>, the sink does not take any monitors,
+ * so a virtual thread blocking on the file while writing does not pin its
+ * carrier thread. The {@link LogFile} serialises the writes anyway.
+ * 
+ * @author martin scharm
+ */
+class BufferedFileSink
+	extends FileSink
+{
+	
+	/** The size of the buffer: 64 KB. */
+	static final int								BUFFER_SIZE	= 1 << 16;
+	
+	/** The stream of the file. */
+	private final FileOutputStream	out;
+	
+	/** The channel of the file, to sync it. */
+	private final FileChannel				channel;
+	
+	/** The encoder. */
+	private final CharsetEncoder		encoder;
+	
+	/** The buffer of encoded lines. */
+	private final ByteBuffer				bytes				= ByteBuffer.allocate (BUFFER_SIZE);
+	
+	/** Wraps {@link FileSink#chars} for the encoder. */
+	private CharBuffer							charBuffer;
+	
+	/** The number of bytes in the file, excluding the buffer. */
+	private long										written;
+	
+	
+	/**
+	 * Open a log file for appending, using the platform's default charset.
+	 *
+	 * @param file the file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	BufferedFileSink (File file) throws IOException
+	{
+		this (new FileOutputStream (file, true), file.length (),
+			Charset.defaultCharset ());
+	}
+	
+	
+	/**
+	 * Write to an open stream, e.g. to the console.
+	 *
+	 * @param out the stream
+	 * @param size the number of bytes that were already written to the stream
+	 * @param charset the charset
+	 */
+	BufferedFileSink (FileOutputStream out, long size, Charset charset)
+	{
+		this.out = out;
+		channel = out.getChannel ();
+		encoder = charset.newEncoder ()
+			.onMalformedInput (CodingErrorAction.REPLACE)
+			.onUnmappableCharacter (CodingErrorAction.REPLACE);
+		written = size;
+	}
+	
+	
+	/**
+	 * Write the buffer to the file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void drain () throws IOException
+	{
+		out.write (bytes.array (), 0, bytes.position ());
+		written += bytes.position ();
+		bytes.clear ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#write(java.lang.CharSequence)
+	 */
+	void write (CharSequence line) throws IOException
+	{
+		int length = copy (line);
+		if (charBuffer == null || charBuffer.array () != chars)
+			charBuffer = CharBuffer.wrap (chars);
+		charBuffer.limit (length).position (0);
+		
+		encoder.reset ();
+		CoderResult result;
+		while ((result = encoder.encode (charBuffer, bytes, true)).isOverflow ())
+			drain ();
+		if (result.isError ())
+			result.throwException ();
+		while (encoder.flush (bytes).isOverflow ())
+			drain ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#size()
+	 */
+	long size ()
+	{
+		return written + bytes.position ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#flush()
+	 */
+	void flush () throws IOException
+	{
+		if (bytes.position () > 0)
+			drain ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#sync()
+	 */
+	void sync () throws IOException
+	{
+		try
+		{
+			channel.force (false);
+		}
+		catch (ClosedChannelException e)
+		{
+			// closing flushed everything already
+		}
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#close()
+	 */
+	void close () throws IOException
+	{
+		try
+		{
+			flush ();
+		}
+		finally
+		{
+			out.close ();
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The CallbackRegistry keeps the registered callbacks and the levels they
+ * are interested in. It is optimised for read-mostly access: the callbacks
+ * are stored in an immutable snapshot that is replaced on every change, so
+ * dispatching a message neither takes a lock nor fails if callbacks are
+ * added or removed concurrently. If the {@link LogMetrics} measure
+ * latencies, the latencies of every callback are recorded.
+ * 
+ * All callbacks are called with {@link LogEvent}s, a {@link LogCallback} is
+ * registered with an adapter passing the level and the line.
+ * 
+ * @author martin scharm
+ */
+final class CallbackRegistry
+{
+	
+	/**
+	 * An immutable snapshot of the registered callbacks.
+	 */
+	private static final class Snapshot
+	{
+		
+		/** The registered callbacks, as passed by the user. */
+		private final Object[]						targets;
+		
+		/** The callbacks. */
+		private final LogEventCallback[]	callbacks;
+		
+		/** The levels of interest per callback. */
+		private final int[]								levels;
+		
+		/** The latencies per callback. */
+		private final LatencyHistogram[]	latencies;
+		
+		/** The union of all levels of interest. */
+		private final int									union;
+		
+		
+		/**
+		 * Instantiates a new snapshot.
+		 *
+		 * @param targets the registered callbacks
+		 * @param callbacks the callbacks
+		 * @param levels the levels of interest per callback
+		 * @param latencies the latencies per callback
+		 */
+		private Snapshot (Object[] targets, LogEventCallback[] callbacks,
+			int[] levels, LatencyHistogram[] latencies)
+		{
+			this.targets = targets;
+			this.callbacks = callbacks;
+			this.levels = levels;
+			this.latencies = latencies;
+			int all = 0;
+			for (int level : levels)
+				all |= level;
+			this.union = all;
+		}
+	}
+	
+	/** The empty snapshot. */
+	private static final Snapshot	EMPTY			= new Snapshot (new Object[0],
+		new LogEventCallback[0], new int[0], new LatencyHistogram[0]);
+	
+	/** The current snapshot. */
+	private volatile Snapshot			snapshot	= EMPTY;
+	
+	
+	/**
+	 * Register a callback.
+	 *
+	 * @param target the callback as passed by the user, used to unregister it
+	 * @param callback the callback
+	 * @param levels the levels the callback is interested in
+	 */
+	synchronized void add (Object target, LogEventCallback callback, int levels)
+	{
+		if (target == null || callback == null)
+			throw new NullPointerException ("callback must not be null");
+		Snapshot current = snapshot;
+		int n = current.callbacks.length;
+		Object[] targets = Arrays.copyOf (current.targets, n + 1);
+		LogEventCallback[] callbacks = Arrays.copyOf (current.callbacks, n + 1);
+		int[] lvls = Arrays.copyOf (current.levels, n + 1);
+		LatencyHistogram[] latencies = Arrays.copyOf (current.latencies, n + 1);
+		targets[n] = target;
+		callbacks[n] = callback;
+		lvls[n] = levels;
+		latencies[n] = new LatencyHistogram ();
+		snapshot = new Snapshot (targets, callbacks, lvls, latencies);
+	}
+	
+	
+	/**
+	 * Find the first registration of a callback.
+	 *
+	 * @param current the snapshot
+	 * @param target the callback as passed by the user
+	 * @return the index, or -1 if the callback isn't registered
+	 */
+	private static int indexOf (Snapshot current, Object target)
+	{
+		for (int i = 0; i < current.targets.length; i++)
+			if (current.targets[i].equals (target))
+				return i;
+		return -1;
+	}
+	
+	
+	/**
+	 * Unregister the first registration of a callback.
+	 *
+	 * @param target the callback as passed by the user
+	 * @return the callback that was removed, or <code>null</code> if the
+	 *         callback wasn't registered
+	 */
+	synchronized LogEventCallback remove (Object target)
+	{
+		Snapshot current = snapshot;
+		int i = indexOf (current, target);
+		return i < 0 ? null : remove (current, i);
+	}
+	
+	
+	/**
+	 * Unregister a certain callback, e.g. an async callback that wraps a
+	 * callback which is registered more than once.
+	 *
+	 * @param callback the callback as it was registered, compared by identity
+	 * @return true, if the callback was removed
+	 */
+	synchronized boolean removeCallback (LogEventCallback callback)
+	{
+		Snapshot current = snapshot;
+		for (int i = 0; i < current.callbacks.length; i++)
+			if (current.callbacks[i] == callback)
+			{
+				remove (current, i);
+				return true;
+			}
+		return false;
+	}
+	
+	
+	/**
+	 * Unregister the callback at a certain index of the current snapshot.
+	 *
+	 * @param current the current snapshot
+	 * @param i the index
+	 * @return the callback that was removed
+	 */
+	private LogEventCallback remove (Snapshot current, int i)
+	{
+		int n = current.callbacks.length;
+		LogEventCallback removed = current.callbacks[i];
+		if (n == 1)
+		{
+			snapshot = EMPTY;
+			return removed;
+		}
+		Object[] targets = new Object[n - 1];
+		LogEventCallback[] callbacks = new LogEventCallback[n - 1];
+		int[] levels = new int[n - 1];
+		LatencyHistogram[] latencies = new LatencyHistogram[n - 1];
+		System.arraycopy (current.targets, 0, targets, 0, i);
+		System.arraycopy (current.targets, i + 1, targets, i, n - i - 1);
+		System.arraycopy (current.callbacks, 0, callbacks, 0, i);
+		System.arraycopy (current.callbacks, i + 1, callbacks, i, n - i - 1);
+		System.arraycopy (current.levels, 0, levels, 0, i);
+		System.arraycopy (current.levels, i + 1, levels, i, n - i - 1);
+		System.arraycopy (current.latencies, 0, latencies, 0, i);
+		System.arraycopy (current.latencies, i + 1, latencies, i, n - i - 1);
+		snapshot = new Snapshot (targets, callbacks, levels, latencies);
+		return removed;
+	}
+	
+	
+	/**
+	 * Unregister all async callbacks.
+	 *
+	 * @return the async callbacks that were removed
+	 */
+	synchronized List<AsyncCallback> removeAsync ()
+	{
+		Snapshot current = snapshot;
+		int n = current.callbacks.length;
+		List<AsyncCallback> removed = new ArrayList<AsyncCallback> ();
+		Object[] targets = new Object[n];
+		LogEventCallback[] callbacks = new LogEventCallback[n];
+		int[] levels = new int[n];
+		LatencyHistogram[] latencies = new LatencyHistogram[n];
+		int kept = 0;
+		for (int i = 0; i < n; i++)
+			if (current.callbacks[i] instanceof AsyncCallback)
+				removed.add ((AsyncCallback) current.callbacks[i]);
+			else
+			{
+				targets[kept] = current.targets[i];
+				callbacks[kept] = current.callbacks[i];
+				levels[kept] = current.levels[i];
+				latencies[kept] = current.latencies[i];
+				kept++;
+			}
+		if (kept == n)
+			return removed;
+		snapshot = kept == 0 ? EMPTY : new Snapshot (Arrays.copyOf (targets, kept),
+			Arrays.copyOf (callbacks, kept), Arrays.copyOf (levels, kept),
+			Arrays.copyOf (latencies, kept));
+		return removed;
+	}
+	
+	
+	/**
+	 * Is any callback interested in a level?
+	 *
+	 * @param level the level
+	 * @return true, if at least one callback wants to see messages of that
+	 *         level
+	 */
+	boolean isInterested (int level)
+	{
+		return (snapshot.union & level) > 0;
+	}
+	
+	
+	/**
+	 * Pass an event to all callbacks interested in its level.
+	 *
+	 * @param event the event
+	 */
+	void dispatch (LogEvent event)
+	{
+		Snapshot current = snapshot;
+		int level = event.getLevel ();
+		if ((current.union & level) == 0)
+			return;
+		LogEventCallback[] callbacks = current.callbacks;
+		int[] levels = current.levels;
+		boolean measure = LOGGER.metrics.isMeasuringLatency ();
+		for (int i = 0; i < callbacks.length; i++)
+			if ((levels[i] & level) > 0)
+			{
+				if (!measure)
+				{
+					callbacks[i].logged (event);
+					continue;
+				}
+				long start = System.nanoTime ();
+				callbacks[i].logged (event);
+				current.latencies[i].record (System.nanoTime () - start);
+			}
+	}
+	
+	
+	/**
+	 * Gets the latencies of the first registration of a callback.
+	 *
+	 * @param target the callback as passed by the user
+	 * @return the latencies, or <code>null</code> if the callback isn't
+	 *         registered
+	 */
+	LatencyHistogram latency (Object target)
+	{
+		Snapshot current = snapshot;
+		int i = indexOf (current, target);
+		return i < 0 ? null : current.latencies[i];
+	}
+	
+	
+	/**
+	 * Reset the latencies of all callbacks.
+	 */
+	void resetLatencies ()
+	{
+		for (LatencyHistogram histogram : snapshot.latencies)
+			histogram.reset ();
+	}
+	
+	
+	/**
+	 * Wait until the async callbacks passed their buffered messages to the
+	 * callbacks they wrap.
+	 *
+	 * @param timeoutMillis the max time to wait per callback
+	 */
+	void flush (long timeoutMillis)
+	{
+		for (LogEventCallback callback : snapshot.callbacks)
+			if (callback instanceof AsyncCallback)
+				((AsyncCallback) callback).flush (timeoutMillis);
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.lang.StackWalker.Option;
+import java.lang.StackWalker.StackFrame;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+
+/**
+ * The CallerLocator finds the code that called the {@link LOGGER}. Instead
+ * of materialising the whole stack trace it uses a {@link StackWalker} that
+ * stops at the first frame outside of the LOGGER.
+ * 
+ * @author martin scharm
+ */
+final class CallerLocator
+{
+	
+	/** The walker, retaining class references to be able to skip the LOGGER frames cheaply. */
+	private static final StackWalker	WALKER				= StackWalker
+		.getInstance (Option.RETAIN_CLASS_REFERENCE);
+	
+	/** Finds the first frame outside of the LOGGER. */
+	private static final Function<Stream<StackFrame>, StackFrame>	FIND_FRAME	= frames -> frames
+		.filter (CallerLocator::isCaller).findFirst ().orElse (null);
+	
+	/** Finds the class of the first frame outside of the LOGGER. */
+	private static final Function<Stream<StackFrame>, Class<?>>		FIND_CLASS	= frames -> frames
+		.filter (CallerLocator::isCaller).findFirst ()
+		.<Class<?>> map (StackFrame::getDeclaringClass).orElse (null);
+	
+	
+	/**
+	 * Not to be instantiated.
+	 */
+	private CallerLocator ()
+	{
+	}
+	
+	
+	/**
+	 * Checks if the frame belongs to the code calling the LOGGER.
+	 *
+	 * @param frame the frame
+	 * @return true, if the frame is neither part of the LOGGER nor of a
+	 *         {@link ClassLogger}
+	 */
+	private static boolean isCaller (StackFrame frame)
+	{
+		Class<?> c = frame.getDeclaringClass ();
+		return c != LOGGER.class && c != ClassLogger.class
+			&& c != CallerLocator.class;
+	}
+	
+	
+	/**
+	 * Find the class that called the LOGGER. This does not need to resolve
+	 * line numbers and is thus considerably cheaper than {@link #callerFrame()}.
+	 *
+	 * @return the calling class or <code>null</code> if unknown
+	 */
+	static Class<?> callerClass ()
+	{
+		return WALKER.walk (FIND_CLASS);
+	}
+	
+	
+	/**
+	 * Find the stack frame that called the LOGGER.
+	 *
+	 * @return the calling frame or <code>null</code> if unknown
+	 */
+	static StackFrame callerFrame ()
+	{
+		return WALKER.walk (FIND_FRAME);
+	}
+}
@@ -0,0 +1,692 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+
+/**
+ * A ClassLogger logs on behalf of a certain class. It shares the outputs,
+ * the callbacks, and the configuration of the {@link LOGGER}, but it knows
+ * its class in advance and keeps the levels of its class in a field:
+ * 
+ * <pre>
+ * private static final ClassLogger LOG = LOGGER.forClass (SomeClass.class);
+ * [...]
+ * LOG.info ("user {} took {} ms", id, ms);
+ * </pre>
+ * 
+ * Thus, checking the level is a single field read even if levels are defined
+ * for classes or packages (see {@link LOGGER#setLevel(String, int)}), and
+ * the class does not need to be looked up for
+ * <code>LOGGER.CALLER_CLASS</code>. For <code>LOGGER.CALLER_FULL</code> the
+ * line number still needs to be found on the stack.
+ * 
+ * @author martin scharm
+ */
+public final class ClassLogger
+{
+	
+	/** The loggers per class. */
+	private static final ClassValue<ClassLogger>	LOGGERS	= new ClassValue<ClassLogger> ()
+	{
+		
+		protected ClassLogger computeValue (Class<?> type)
+		{
+			ClassLogger logger = new ClassLogger (type.getName ());
+			LevelConfig.register (logger);
+			return logger;
+		}
+	};
+	
+	/** The name of the class. */
+	private final String													name;
+	
+	/** The levels of the class, updated by the {@link LevelConfig} from other threads. */
+	volatile int															levels;
+	
+	
+	/**
+	 * Instantiates a new class logger.
+	 *
+	 * @param name the name of the class
+	 */
+	private ClassLogger (String name)
+	{
+		this.name = name;
+	}
+	
+	
+	/**
+	 * Gets the logger of a class.
+	 *
+	 * @param type the class
+	 * @return the logger
+	 */
+	static ClassLogger forClass (Class<?> type)
+	{
+		return LOGGERS.get (type);
+	}
+	
+	
+	/**
+	 * Gets the name of the class.
+	 *
+	 * @return the name
+	 */
+	public String getName ()
+	{
+		return name;
+	}
+	
+	
+	/**
+	 * Checks if info is enabled for this class.
+	 *
+	 * @return true, if info logging is enabled
+	 */
+	public boolean isInfoEnabled ()
+	{
+		return (levels & LOGGER.INFO) > 0;
+	}
+	
+	
+	/**
+	 * Checks if debug is enabled for this class.
+	 *
+	 * @return true, if debug logging is enabled
+	 */
+	public boolean isDebugEnabled ()
+	{
+		return (levels & LOGGER.DEBUG) > 0;
+	}
+	
+	
+	/**
+	 * Checks if error is enabled for this class.
+	 *
+	 * @return true, if error logging is enabled
+	 */
+	public boolean isErrorEnabled ()
+	{
+		return (levels & LOGGER.ERROR) > 0;
+	}
+	
+	
+	/**
+	 * Checks if warn is enabled for this class.
+	 *
+	 * @return true, if warn logging is enabled
+	 */
+	public boolean isWarnEnabled ()
+	{
+		return (levels & LOGGER.WARN) > 0;
+	}
+	
+	
+	/**
+	 * Log an error.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 */
+	public void error (Exception e, Object... msg)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, e, msg);
+	}
+	
+	
+	/**
+	 * Log an info message.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 */
+	public void info (Exception e, Object... msg)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, e, msg);
+	}
+	
+	
+	/**
+	 * Log a debug message.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 */
+	public void debug (Exception e, Object... msg)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, e, msg);
+	}
+	
+	
+	/**
+	 * Log a warning message.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 */
+	public void warn (Exception e, Object... msg)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, e, msg);
+	}
+	
+	
+	/**
+	 * Log an error.
+	 *
+	 * @param msg the msg
+	 */
+	public void error (Object... msg)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, msg);
+	}
+	
+	
+	/**
+	 * Log an info message.
+	 *
+	 * @param msg the msg
+	 */
+	public void info (Object... msg)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, msg);
+	}
+	
+	
+	/**
+	 * Log a debug message.
+	 *
+	 * @param msg the msg
+	 */
+	public void debug (Object... msg)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, msg);
+	}
+	
+	
+	/**
+	 * Log a warning message.
+	 *
+	 * @param msg the msg
+	 */
+	public void warn (Object... msg)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, msg);
+	}
+	
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void error (String format, Object arg)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, format, arg);
+	}
+	
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void error (String format, long arg)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, format, arg);
+	}
+	
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void error (String format, double arg)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, format, arg);
+	}
+	
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void error (String format, char arg)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, format, arg);
+	}
+	
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void error (String format, Object arg1, Object arg2)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void error (String format, Object arg1, long arg2)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void error (String format, long arg1, long arg2)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 * @param arg3 the third argument
+	 */
+	public void error (String format, Object arg1, Object arg2, Object arg3)
+	{
+		if ((levels & LOGGER.ERROR) > 0)
+			LOGGER.log (name, LOGGER.ERROR, format, arg1, arg2, arg3);
+	}
+	
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void info (String format, Object arg)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, format, arg);
+	}
+	
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void info (String format, long arg)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, format, arg);
+	}
+	
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void info (String format, double arg)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, format, arg);
+	}
+	
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void info (String format, char arg)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, format, arg);
+	}
+	
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void info (String format, Object arg1, Object arg2)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void info (String format, Object arg1, long arg2)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void info (String format, long arg1, long arg2)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 * @param arg3 the third argument
+	 */
+	public void info (String format, Object arg1, Object arg2, Object arg3)
+	{
+		if ((levels & LOGGER.INFO) > 0)
+			LOGGER.log (name, LOGGER.INFO, format, arg1, arg2, arg3);
+	}
+	
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void debug (String format, Object arg)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, format, arg);
+	}
+	
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void debug (String format, long arg)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, format, arg);
+	}
+	
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void debug (String format, double arg)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, format, arg);
+	}
+	
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void debug (String format, char arg)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, format, arg);
+	}
+	
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void debug (String format, Object arg1, Object arg2)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void debug (String format, Object arg1, long arg2)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void debug (String format, long arg1, long arg2)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 * @param arg3 the third argument
+	 */
+	public void debug (String format, Object arg1, Object arg2, Object arg3)
+	{
+		if ((levels & LOGGER.DEBUG) > 0)
+			LOGGER.log (name, LOGGER.DEBUG, format, arg1, arg2, arg3);
+	}
+	
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void warn (String format, Object arg)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, format, arg);
+	}
+	
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void warn (String format, long arg)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, format, arg);
+	}
+	
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void warn (String format, double arg)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, format, arg);
+	}
+	
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public void warn (String format, char arg)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, format, arg);
+	}
+	
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void warn (String format, Object arg1, Object arg2)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void warn (String format, Object arg1, long arg2)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public void warn (String format, long arg1, long arg2)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, format, arg1, arg2);
+	}
+	
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 * @param arg3 the third argument
+	 */
+	public void warn (String format, Object arg1, Object arg2, Object arg3)
+	{
+		if ((levels & LOGGER.WARN) > 0)
+			LOGGER.log (name, LOGGER.WARN, format, arg1, arg2, arg3);
+	}
+}
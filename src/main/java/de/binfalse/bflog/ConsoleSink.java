@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The ConsoleSink writes lines to std::out or std::err, bypassing the
+ * <code>PrintStream</code>s of <code>System</code>. Lines are encoded into a
+ * large buffer, which is written to the file descriptor of the console if
+ * it is full, if a line of a level that needs to be flushed immediately was
+ * written, or periodically. Thus, a log call does not need to lock, encode,
+ * and flush the <code>PrintStream</code> for every line.
+ * 
+ * The sink replaces the stream that was installed when the LOGGER was
+ * loaded. If the application installs another stream using
+ * <code>System.setOut</code> or <code>System.setErr</code>, the LOGGER
+ * writes to that stream instead.
+ * 
+ * @author martin scharm
+ */
+final class ConsoleSink
+{
+	
+	/** The stream the sink replaces. */
+	private final PrintStream								stream;
+	
+	/** The sink encoding and buffering the lines. */
+	private final BufferedFileSink							sink;
+	
+	/** Flush lines of these levels immediately. */
+	private final int												flushLevels;
+	
+	/** Flushes periodically, if a flush interval is defined. */
+	private final ScheduledExecutorService	timer;
+	
+	/** The lock guarding the buffer. */
+	private final ReentrantLock							lock	= new ReentrantLock ();
+	
+	/** Is the sink closed? */
+	private boolean													closed;
+	
+	
+	/**
+	 * Instantiates a new console sink.
+	 *
+	 * @param fd the file descriptor of the console, i.e.
+	 *          <code>FileDescriptor.out</code> or <code>FileDescriptor.err</code>
+	 * @param stream the stream the sink replaces
+	 * @param charset the charset of the console
+	 * @param flushLevels flush lines of these levels immediately
+	 * @param flushMillis flush at this interval in milliseconds, 0 to flush
+	 *          only if the buffer is full
+	 */
+	ConsoleSink (FileDescriptor fd, PrintStream stream, Charset charset,
+		int flushLevels, long flushMillis)
+	{
+		this.stream = stream;
+		this.sink = new BufferedFileSink (new FileOutputStream (fd), 0, charset);
+		this.flushLevels = flushLevels;
+		if (flushMillis > 0)
+		{
+			timer = Executors.newSingleThreadScheduledExecutor (runnable -> {
+				Thread thread = new Thread (runnable, "BFLog-console");
+				thread.setDaemon (true);
+				return thread;
+			});
+			timer.scheduleWithFixedDelay ( () -> {
+				try
+				{
+					flush ();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace ();
+				}
+			}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+		}
+		else
+			timer = null;
+	}
+	
+	
+	/**
+	 * Find the charset of the console.
+	 *
+	 * @param stream the name of the stream, i.e. <code>stdout</code> or
+	 *          <code>stderr</code>
+	 * @return the charset of the stream, as far as the JVM tells us, or the
+	 *         default charset
+	 */
+	static Charset charset (String stream)
+	{
+		String[] properties = { stream + ".encoding", "sun." + stream + ".encoding" };
+		for (String property : properties)
+		{
+			String name = System.getProperty (property);
+			if (name != null)
+				try
+				{
+					return Charset.forName (name);
+				}
+				catch (IllegalArgumentException e)
+				{
+					// try the next one
+				}
+		}
+		return Charset.defaultCharset ();
+	}
+	
+	
+	/**
+	 * Does the sink replace a stream?
+	 *
+	 * @param current the stream currently installed in <code>System</code>
+	 * @return true, if lines for <code>current</code> should be written to
+	 *         this sink
+	 */
+	boolean replaces (PrintStream current)
+	{
+		return current == stream;
+	}
+	
+	
+	/**
+	 * Write a line and flush it, if the flush policy asks for it. Lines
+	 * written after the sink was closed are flushed immediately.
+	 *
+	 * @param level the level of the line
+	 * @param line the line
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void write (int level, CharSequence line) throws IOException
+	{
+		lock.lock ();
+		try
+		{
+			sink.write (line);
+			if (closed || (level & flushLevels) > 0)
+				sink.flush ();
+		}
+		finally
+		{
+			lock.unlock ();
+		}
+	}
+	
+	
+	/**
+	 * Write the buffered lines to the console.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void flush () throws IOException
+	{
+		lock.lock ();
+		try
+		{
+			sink.flush ();
+		}
+		finally
+		{
+			lock.unlock ();
+		}
+	}
+	
+	
+	/**
+	 * Stop the timer and flush the buffered lines. The console itself stays
+	 * open.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void close () throws IOException
+	{
+		if (timer != null)
+			timer.shutdownNow ();
+		lock.lock ();
+		try
+		{
+			closed = true;
+			sink.flush ();
+		}
+		finally
+		{
+			lock.unlock ();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.io.IOException;
+
+
+/**
+ * A FileSink writes log lines to the log file. Implementations are not
+ * thread-safe, the {@link LogFile} serialises all calls but
+ * {@link #sync()}.
+ * 
+ * @author martin scharm
+ */
+abstract class FileSink
+{
+	
+	/** The buffer lines are copied to before writing them. */
+	protected char[]	chars	= new char[LineBuffer.INITIAL_CAPACITY];
+	
+	
+	/**
+	 * Write a line, followed by a line separator.
+	 *
+	 * @param line the line
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	abstract void write (CharSequence line) throws IOException;
+	
+	
+	/**
+	 * Gets the size of the file including the lines that were written but not
+	 * yet flushed.
+	 *
+	 * @return the size in bytes
+	 */
+	abstract long size ();
+	
+	
+	/**
+	 * Flush buffered lines to the file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	abstract void flush () throws IOException;
+	
+	
+	/**
+	 * Force flushed lines to the storage device. Must be safe to call
+	 * concurrently with {@link #write(CharSequence)} and after
+	 * {@link #close()}.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	abstract void sync () throws IOException;
+	
+	
+	/**
+	 * Flush and close the file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	abstract void close () throws IOException;
+	
+	
+	/**
+	 * Copy a line followed by the line separator into {@link #chars}, as
+	 * writers and encoders do not accept a <code>CharSequence</code> without
+	 * converting it into a String first.
+	 *
+	 * @param line the line
+	 * @return the number of chars copied
+	 */
+	protected int copy (CharSequence line)
+	{
+		int length = line.length ();
+		int total = length + LOGGER.NEWLINE.length ();
+		if (chars.length < total || chars.length > LineBuffer.MAX_RETAINED)
+			chars = new char[Math.max (total, LineBuffer.INITIAL_CAPACITY)];
+		if (line instanceof StringBuilder)
+			((StringBuilder) line).getChars (0, length, chars, 0);
+		else if (line instanceof String)
+			((String) line).getChars (0, length, chars, 0);
+		else
+			for (int i = 0; i < length; i++)
+				chars[i] = line.charAt (i);
+		LOGGER.NEWLINE.getChars (0, LOGGER.NEWLINE.length (), chars, length);
+		return total;
+	}
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.lang.StackWalker.StackFrame;
+
+
+/**
+ * The JsonLayout renders every message as a single line of JSON, e.g.
+ * 
+ * <pre>
+ * {"time":"2015-10-27T18:55:49.123+01:00","level":"ERROR","thread":"main","class":"my.Class","line":42,"message":"failed","mdc":{"request":"42"},"exception":{"class":"java.io.IOException","message":"disk full"}}
+ * </pre>
+ * 
+ * The <code>class</code> and <code>line</code> fields follow the caller
+ * location mode of the LOGGER, the <code>mdc</code> object is omitted if
+ * the {@link MDC} of the thread is empty, the stack trace is included in the
+ * exception if we're logging stack traces. Strings are escaped by hand, so
+ * rendering a line does not need a JSON library and does not allocate,
+ * unless an exception needs to be rendered.
+ * 
+ * @author martin scharm
+ */
+final class JsonLayout
+	extends Layout
+{
+	
+	/** The hex digits for <code>\\u</code> escapes. */
+	private static final char[]							HEX				= "0123456789abcdef"
+		.toCharArray ();
+	
+	/** The formatter for the time stamps. */
+	private final TimestampFormatter				formatter	= new TimestampFormatter (
+		LOGGER.DATE_FORMAT_ISO8601);
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.Layout#needsClass()
+	 */
+	boolean needsClass ()
+	{
+		return LOGGER.getCallerLocation () != LOGGER.CALLER_OFF;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.Layout#needsFrame()
+	 */
+	boolean needsFrame ()
+	{
+		return LOGGER.getCallerLocation () == LOGGER.CALLER_FULL;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.Layout#rendersThrown()
+	 */
+	boolean rendersThrown ()
+	{
+		return true;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.Layout#render(java.lang.StringBuilder, long, int, java.lang.String, java.lang.StackWalker.StackFrame, java.lang.Throwable, de.binfalse.bflog.MDC.Context, java.lang.CharSequence, int)
+	 */
+	void render (StringBuilder out, long millis, int level, String caller,
+		StackFrame frame, Throwable thrown, MDC.Context context, CharSequence msg,
+		int from)
+	{
+		formatter.format (millis, out.append ("{\"time\":\""));
+		out.append ("\",\"level\":\"").append (levelName (level));
+		escape (out.append ("\",\"thread\":\""), Thread.currentThread ().getName ());
+		out.append ('"');
+		if (caller != null)
+		{
+			escape (out.append (",\"class\":\""), caller);
+			out.append ('"');
+		}
+		if (frame != null)
+			out.append (",\"line\":").append (frame.getLineNumber ());
+		escape (out.append (",\"message\":\""), msg, from, msg.length ());
+		out.append ('"');
+		if (!context.isEmpty ())
+		{
+			out.append (",\"mdc\":{");
+			for (int i = 0; i < context.size (); i++)
+			{
+				if (i > 0)
+					out.append (',');
+				escape (out.append ('"'), context.getKey (i));
+				escape (out.append ("\":\""), context.getValue (i));
+				out.append ('"');
+			}
+			out.append ('}');
+		}
+		if (thrown != null)
+			appendException (out, thrown);
+		out.append ('}');
+	}
+	
+	
+	/**
+	 * Append the exception object.
+	 *
+	 * @param out the buffer
+	 * @param thrown the thrown exception
+	 */
+	private static void appendException (StringBuilder out, Throwable thrown)
+	{
+		escape (out.append (",\"exception\":{\"class\":\""),
+			thrown.getClass ().getName ());
+		out.append ("\",\"message\":");
+		String message = thrown.getMessage ();
+		if (message == null)
+			out.append ("null");
+		else
+		{
+			escape (out.append ('"'), message);
+			out.append ('"');
+		}
+		if (LOGGER.isLoggingStackTrace ())
+		{
+			StringBuilder trace = new StringBuilder ();
+			StackTraceRenderer.append (trace, thrown);
+			// skip the new line in front of the exception
+			escape (out.append (",\"stackTrace\":\""), trace,
+				LOGGER.NEWLINE.length (), trace.length ());
+			out.append ('"');
+		}
+		out.append ('}');
+	}
+	
+	
+	/**
+	 * Get the name of a level.
+	 *
+	 * @param level the level
+	 * @return the name
+	 */
+	static String levelName (int level)
+	{
+		switch (level)
+		{
+			case LOGGER.ERROR:
+				return "ERROR";
+			case LOGGER.WARN:
+				return "WARN";
+			case LOGGER.INFO:
+				return "INFO";
+			case LOGGER.DEBUG:
+				return "DEBUG";
+			default:
+				return "UNKNOWN";
+		}
+	}
+	
+	
+	/**
+	 * Append a string as the content of a JSON string.
+	 *
+	 * @param out the buffer
+	 * @param s the string
+	 */
+	static void escape (StringBuilder out, CharSequence s)
+	{
+		escape (out, s, 0, s.length ());
+	}
+	
+	
+	/**
+	 * Append a part of a string as the content of a JSON string. Quotes,
+	 * backslashes, and control characters are escaped, everything else is
+	 * copied as it is.
+	 *
+	 * @param out the buffer
+	 * @param s the string
+	 * @param from the first character to append
+	 * @param to the position after the last character to append
+	 */
+	static void escape (StringBuilder out, CharSequence s, int from, int to)
+	{
+		int plain = from;
+		for (int i = from; i < to; i++)
+		{
+			char c = s.charAt (i);
+			if (c >= 0x20 && c != '"' && c != '\\')
+				continue;
+			out.append (s, plain, i);
+			plain = i + 1;
+			switch (c)
+			{
+				case '"':
+					out.append ("\\\"");
+					break;
+				case '\\':
+					out.append ("\\\\");
+					break;
+				case '\n':
+					out.append ("\\n");
+					break;
+				case '\r':
+					out.append ("\\r");
+					break;
+				case '\t':
+					out.append ("\\t");
+					break;
+				case '\b':
+					out.append ("\\b");
+					break;
+				case '\f':
+					out.append ("\\f");
+					break;
+				default:
+					out.append ("\\u00").append (HEX[c >> 4]).append (HEX[c & 0xF]);
+			}
+		}
+		out.append (s, plain, to);
+	}
+}
@@ -35,13 +35,18 @@
  */
 package de.binfalse.bflog;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.StackWalker.StackFrame;
+import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Vector;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 
 /**
@@ -88,8 +93,12 @@ import java.util.Vector;
  * 
  * Here, the [EXCEPTION] parameter is optional, just in case an exception was thrown.
  * 
+ * Messages may contain <code>{}</code> placeholders, which are replaced by the following arguments, e.g. <code>LOGGER.info ("user {} took {} ms", id, ms)</code>. The message is only formatted if the level is enabled, and there are overloads for up to three arguments that avoid the varargs array. Primitives are not boxed if they are the only argument (<code>long</code>, and thus <code>int</code>, <code>double</code>, or <code>char</code>) or <code>long</code> arguments of a message with two arguments (<code>(format, Object, long)</code> and <code>(format, long, long)</code>); all other primitives are boxed. Arguments without placeholder are appended to the message.
+ * 
  * To close the LOGGER just call <code>LOGGER.closeLogger ()</code> in order to clean up and close the file stream.
  * 
+ * If writing to the sinks is too expensive for the logging threads you may enable the asynchronous mode using <code>LOGGER.setAsync (true)</code>. Log lines are then handed over to a bounded buffer and written by a dedicated thread.
+ * 
  * 
  * @author Martin Scharm
  *
@@ -109,9 +118,59 @@ public class LOGGER
 	/** The Constant DEBUG. */
 	public static final int DEBUG = 1;
 	
-	/** The Constant date format that is used in log messages. Defaults to <code>dd.MM HH:mm:ss</code>, e.g. <code>27.10 18:55:49</code> */
+	/** If the async buffer is full: wait until there is space again. */
+	public static final int OVERFLOW_BLOCK = 0;
+	
+	/** If the async buffer is full: drop the message. */
+	public static final int OVERFLOW_DROP = 1;
+	
+	/** If the async buffer is full: drop messages below a certain level, wait for all others. */
+	public static final int OVERFLOW_DROP_BELOW_LEVEL = 2;
+	
+	/** Do not log where the message comes from. */
+	public static final int CALLER_OFF = 0;
+	
+	/** Log the class that logged the message. */
+	public static final int CALLER_CLASS = 1;
+	
+	/** Log the class and the line number that logged the message. */
+	public static final int CALLER_FULL = 2;
+	
+	/** Do not roll the log file by time. */
+	public static final int ROLL_NEVER = 0;
+	
+	/** Roll the log file every hour. */
+	public static final int ROLL_HOURLY = 1;
+	
+	/** Roll the log file every day. */
+	public static final int ROLL_DAILY = 2;
+	
+	/** The default interval at which lines written to the console are flushed, in milliseconds. */
+	public static final long DEFAULT_CONSOLE_FLUSH_MILLIS = 100;
+	
+	/** The default capacity of the async buffer. */
+	public static final int DEFAULT_ASYNC_CAPACITY = 8192;
+	
+	/** The name of the metrics MBean. */
+	public static final String MBEAN_NAME = "de.binfalse.bflog:type=LogMetrics";
+	
+	/** The default date format, e.g. <code>27.10 18:55:49</code> */
+	public static final String DATE_FORMAT_DEFAULT = "dd.MM HH:mm:ss";
+	
+	/** The default date format including milliseconds, e.g. <code>27.10 18:55:49.123</code> */
+	public static final String DATE_FORMAT_MILLIS = "dd.MM HH:mm:ss.SSS";
+	
+	/** The ISO 8601 date format, e.g. <code>2015-10-27T18:55:49.123+01:00</code> */
+	public static final String DATE_FORMAT_ISO8601 = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+	
+	/**
+	 * The date format that was used in log messages.
+	 * 
+	 * @deprecated not used anymore, as a shared <code>SimpleDateFormat</code> is not thread-safe. Use {@link #setDateFormat(String)} to change the date format.
+	 */
+	@Deprecated
 	public static final SimpleDateFormat	dateformat	= new SimpleDateFormat (
-		"dd.MM HH:mm:ss");
+		DATE_FORMAT_DEFAULT);
 	
 	/** The os independent new line char */
 	public static final String NEWLINE = System.getProperty("line.separator");
@@ -119,11 +178,74 @@ public class LOGGER
 	/** The log level, defaults to warning and error messages. */
 	protected static int logLevel = WARN | ERROR;
 	
+	/** The levels enabled globally or for at least one class or package. */
+	private static volatile int enabledLevels = WARN | ERROR;
+	
+	/** Are levels configured for classes or packages? */
+	private static volatile boolean levelsByName = false;
+	
 	/** The file where we will log our messages. */
 	private static File logFileFile;
 	
-	/** The corresponding stream to the log file. */
-	private static BufferedWriter logFile;
+	/** The log file we're currently writing to. */
+	private static volatile LogFile logFile;
+	
+	/** The lock guarding the log file. */
+	private static final Object logFileLock = new Object ();
+	
+	/** The lock serialising the lines written to the console, so logging threads never contend for the monitor of <code>System.out</code> or <code>System.err</code>. */
+	private static final ReentrantLock consoleLock = new ReentrantLock ();
+	
+	/** The std::out stream installed when the LOGGER was loaded. */
+	private static final PrintStream originalOut = System.out;
+	
+	/** The std::err stream installed when the LOGGER was loaded. */
+	private static final PrintStream originalErr = System.err;
+	
+	/** The buffered sink writing to std::out, created on demand. */
+	private static volatile ConsoleSink stdOut;
+	
+	/** The buffered sink writing to std::err, created on demand. */
+	private static volatile ConsoleSink stdErr;
+	
+	/** Did we register the shutdown hook flushing the console? */
+	private static boolean consoleHookAdded = false;
+	
+	/** Flush lines of these levels to the console immediately. */
+	private static int consoleFlushLevels = ERROR;
+	
+	/** Flush the console at this interval in milliseconds, 0 to flush only if the buffer is full. */
+	private static long consoleFlushMillis = DEFAULT_CONSOLE_FLUSH_MILLIS;
+	
+	/** Should we write the log file through a memory mapped buffer? */
+	private static boolean logFileMapped = false;
+	
+	/** Roll the log file if it exceeds this number of bytes, 0 for unlimited. */
+	private static long logFileMaxSize = 0;
+	
+	/** Roll the log file every hour or day? */
+	private static int logFileRollPeriod = ROLL_NEVER;
+	
+	/** The number of rolled log files to keep, 0 to keep all. */
+	private static int logFileRetention = 0;
+	
+	/** Should we compress rolled log files? */
+	private static boolean logFileCompression = true;
+	
+	/** Flush the log file after this number of lines, 0 to disable. */
+	private static int logFileFlushLines = 0;
+	
+	/** Flush the log file at this interval in milliseconds, 0 to disable. */
+	private static long logFileFlushMillis = 0;
+	
+	/** Flush the log file immediately after lines of these levels. */
+	private static int logFileFlushLevels = 0;
+	
+	/** Should we force flushed lines to the storage device? */
+	private static boolean logFileSync = false;
+	
+	/** Should we write the log file in the binary format? */
+	private static boolean logFileBinary = false;
 	
 	/** Should we log to file? */
 	private static boolean logToFile = false;
@@ -137,8 +259,68 @@ public class LOGGER
 	/** Should we log the stack trace? */
 	private static boolean logStackTrace = false;
 	
+	/** The formatter for the time stamps in log messages. */
+	private static volatile TimestampFormatter timestampFormatter = new TimestampFormatter (DATE_FORMAT_DEFAULT);
+	
+	/** How much do we log about the caller? */
+	private static int callerLocation = CALLER_FULL;
+	
+	/** The layout of the lines, <code>null</code> for the classic lines. */
+	private static volatile Layout layout;
+	
 	/** The log call backs. */
-	private static Vector<LogCallback> callBacks = new Vector<LogCallback> ();
+	private static final CallbackRegistry callBacks = new CallbackRegistry ();
+	
+	/** The time closing the logger waits for an async callback, in milliseconds. */
+	private static final long CALLBACK_FLUSH_MILLIS = 1000;
+	
+	/** The time closing the logger waits for the compression of rotated log files, in milliseconds. */
+	private static final long HOUSEKEEPING_MILLIS = 1000;
+	
+	/** The latency budget of async callbacks in milliseconds, 0 for none. */
+	private static volatile long callbackBudget = 0;
+	
+	/** Should we unregister async callbacks that exceed their budget? */
+	private static volatile boolean detachSlowCallbacks = false;
+	
+	/** The rate limiter, <code>null</code> if messages aren't limited. */
+	private static volatile RateLimiter rateLimiter;
+	
+	/** The number of messages per second and call site, 0 for unlimited. */
+	private static double rateLimit = 0;
+	
+	/** The number of messages a call site may log at once. */
+	private static int rateLimitBurst = 1;
+	
+	/** Should we drop repetitions of the last message of a call site? */
+	private static boolean suppressDuplicates = false;
+	
+	/** The metrics. */
+	static final LogMetrics metrics = new LogMetrics ();
+	
+	/** The sampler, <code>null</code> if all messages are logged. */
+	private static volatile Sampler sampler;
+	
+	/** The probability to log a message, per level. */
+	private static final double[] sampleRate = {1, 1, 1, 1};
+	
+	/** Log every n-th message, per level. */
+	private static final int[] sampleEvery = {1, 1, 1, 1};
+	
+	/** Should we count the messages for the sampler per call site? */
+	private static boolean samplePerSite = false;
+	
+	/** The dispatcher if we're logging asynchronously, <code>null</code> otherwise. */
+	private static volatile AsyncDispatcher asyncDispatcher;
+	
+	/** The capacity of the async buffer. */
+	private static int asyncCapacity = DEFAULT_ASYNC_CAPACITY;
+	
+	/** The async overflow policy. */
+	private static int asyncOverflowPolicy = OVERFLOW_BLOCK;
+	
+	/** The min level that is not dropped when using <code>OVERFLOW_DROP_BELOW_LEVEL</code>. */
+	private static int asyncOverflowLevel = WARN;
 	
 	/**
 	 * Define the file to write the log to. Does not start logging to that file, call <code>LOGGER.setLogToFile (true)</code> to start writing to log file. Same as <code>LOGGER.setLogFile (new File (fileName))</code>
@@ -186,7 +368,20 @@ public class LOGGER
 	{
 		try
 		{
-			logFile = new BufferedWriter (new FileWriter (logFileFile, true));
+			FileSink sink;
+			if (logFileBinary)
+				sink = new BinaryFileSink (logFileFile);
+			else if (logFileMaxSize > 0 || logFileRollPeriod != ROLL_NEVER)
+				sink = new RollingFileSink (logFileFile, logFileMapped, logFileMaxSize, logFileRollPeriod, logFileRetention, logFileCompression, logFileSync);
+			else if (logFileMapped)
+				sink = new MappedFileSink (logFileFile);
+			else
+				sink = new BufferedFileSink (logFileFile);
+			LogFile file = new LogFile (sink, logFileFlushLines, logFileFlushMillis, logFileFlushLevels, logFileSync);
+			synchronized (logFileLock)
+			{
+				logFile = file;
+			}
 		}
 		catch (IOException e)
 		{
@@ -203,33 +398,45 @@ public class LOGGER
 	 */
 	private static boolean closeLogFile ()
 	{
-		if (logFile == null)
+		LogFile file;
+		synchronized (logFileLock)
+		{
+			file = logFile;
+			logFile = null;
+		}
+		if (file == null)
 			return true;
 		
 		try
 		{
-			logFile.flush ();
-			logFile.close ();
+			file.close ();
 		}
 		catch (IOException e)
 		{
 			error ("error closing logfile", e);
 			return false;
 		}
-		
-		logFile = null;
 		return true;
 	}
 	
 	/**
-	 * Close the logger. Cleans up and closes the log file.
+	 * Close the logger. Cleans up and closes the log file. Async and batch callbacks get their buffered messages and are unregistered, so their threads stop.
 	 */
 	public static void closeLogger ()
 	{
+		reportDropped (rateLimiter);
+		stopAsync ();
+		callBacks.flush (CALLBACK_FLUSH_MILLIS);
+		for (AsyncCallback async : callBacks.removeAsync ())
+			async.close ();
 		closeLogFile ();
+		RollingFileSink.awaitHousekeeping (HOUSEKEEPING_MILLIS);
+		closeConsole ();
 		logToStdErr = false;
 		logToStdOut = false;
 		logLevel = 0;
+		LevelConfig.clear ();
+		levelsChanged ();
 	}
 
 	/**
@@ -251,377 +458,2245 @@ public class LOGGER
 	}
 	
 	/**
-	 * Should we log stack traces? If you pass <code>true</code> you'll find a stacktrace after the log message which passed an exception, otherwise (default) only the exception class and the corresponding message will be logged.
+	 * Should we write the log file through a memory mapped buffer? If enabled, log lines are encoded directly into a mapped region of the log file, which is remapped in large chunks as the file grows. This is considerably cheaper than writing through a stream, but until the logger is closed the file ends with the unused part of the mapped chunk. If we're already logging to a file, the file will be reopened. default: <code>false</code>
 	 *
-	 * @param log should we log stack traces?
+	 * @param mapped should we map the log file?
+	 * @return true, if the log file was reopened successfully or isn't open
 	 */
-	public static void setLogStackTrace (boolean log)
+	public static boolean setLogFileMapped (boolean mapped)
 	{
-		logStackTrace = log;
+		logFileMapped = mapped;
+		return reopenLogFile ();
 	}
-
+	
 	/**
-	 * Should we log to std::err? default: <code>true</code>
+	 * Roll the log file if it grows too large or a new hour or day begins. The rolled file is renamed to <code>&lt;name&gt;.&lt;yyyyMMdd-HHmmss&gt;</code>, compressed in the background (see {@link #setLogFileCompression(boolean)}), and only the newest <code>retention</code> rolled files are kept. Thus, <code>LOGGER.setLogFileRolling (100 * 1024 * 1024, LOGGER.ROLL_DAILY, 7)</code> starts a new file every day or after 100 MB and keeps the last seven rolled files. If we're already logging to a file, the file will be reopened. default: <code>(0, LOGGER.ROLL_NEVER, 0)</code>
 	 *
-	 * @param log should we log to std:err?
+	 * @param maxSize the max size of a log file in bytes, 0 for unlimited
+	 * @param period one of <code>LOGGER.ROLL_NEVER</code>, <code>LOGGER.ROLL_HOURLY</code>, or <code>LOGGER.ROLL_DAILY</code>
+	 * @param retention the number of rolled files to keep, 0 to keep all
+	 * @return true, if the log file was reopened successfully or isn't open
 	 */
-	public static void setLogToStdErr (boolean log)
+	public static boolean setLogFileRolling (long maxSize, int period, int retention)
 	{
-		logToStdErr = log;
+		if (maxSize < 0 || retention < 0)
+			throw new IllegalArgumentException ("max size and retention must not be negative");
+		if (period != ROLL_NEVER && period != ROLL_HOURLY && period != ROLL_DAILY)
+			throw new IllegalArgumentException ("unknown roll period: " + period);
+		logFileMaxSize = maxSize;
+		logFileRollPeriod = period;
+		logFileRetention = retention;
+		return reopenLogFile ();
 	}
-
+	
 	/**
-	 * Should we log to std::out? default: <code>false</code>
+	 * Should we gzip rolled log files? The compression runs in a background thread. If we're already logging to a file, the file will be reopened. default: <code>true</code>
 	 *
-	 * @param log the log to std out
+	 * @param compress should we compress rolled log files?
+	 * @return true, if the log file was reopened successfully or isn't open
 	 */
-	public static void setLogToStdOut (boolean log)
+	public static boolean setLogFileCompression (boolean compress)
 	{
-		logToStdOut = log;
+		logFileCompression = compress;
+		return reopenLogFile ();
 	}
-
+	
 	/**
-	 * Sets the min log level. Available log levels in order: <code>LOGGER.DEBUG</code>, <code>LOGGER.INFO</code>, <code>LOGGER.WARN</code>, <code>LOGGER.ERROR</code>. By default the min level is <code>LOGGER.WARN</code>. Thus, <code>LOGGER.setMinLevel (LOGGER.INFO)</code> enables logging for <code>INFO</code>, <code>WARN</code>, and <code>ERROR</code> messages.
+	 * Define when lines written to the log file are flushed. By default lines are buffered and only written when the buffer is full or the file is closed, which is fast but loses the tail of the log if the application crashes. Flushing is done as a group commit, so concurrent threads share a single flush. Thus, <code>LOGGER.setLogFileFlushPolicy (100, 1000, LOGGER.ERROR)</code> flushes every 100 lines, at least once a second, and immediately after every error. If we're already logging to a file, the file will be reopened. default: <code>(0, 0, 0)</code>, i.e. never
 	 *
-	 * @param level the min level
+	 * @param everyLines flush after this number of lines, 0 to disable
+	 * @param everyMillis flush at this interval in milliseconds, 0 to disable
+	 * @param immediateLevels flush immediately after lines of these levels, e.g. <code>LOGGER.ERROR</code>, 0 to disable
+	 * @return true, if the log file was reopened successfully or isn't open
 	 */
-	public static void setMinLevel (int level)
+	public static boolean setLogFileFlushPolicy (int everyLines, long everyMillis, int immediateLevels)
 	{
-		logLevel = 0;
-		int lvl = 1;
-		for (int i = 0; i < 4; i++)
-		{
-			if (lvl >= level)
-				logLevel = logLevel|lvl;
-			lvl *= 2;
-		}
+		if (everyLines < 0 || everyMillis < 0)
+			throw new IllegalArgumentException ("flush intervals must not be negative");
+		logFileFlushLines = everyLines;
+		logFileFlushMillis = everyMillis;
+		logFileFlushLevels = immediateLevels;
+		return reopenLogFile ();
 	}
 	
 	/**
-	 * Sets the exclusive level. Thus, <code>LOGGER.setLevel (LOGGER.INFO)</code> enables logging only for <code>INFO</code> messages.
+	 * Should we force flushed lines to the storage device (<code>fsync</code>)? This makes sure the log survives a crash of the operating system, but is expensive. The flush policy defines how often this happens, see {@link #setLogFileFlushPolicy(int, long, int)}. A rolling log file also forces every segment before it is rolled away. If we're already logging to a file, the file will be reopened. default: <code>false</code>
 	 *
-	 * @param level the level
+	 * @param sync should we sync the log file?
+	 * @return true, if the log file was reopened successfully or isn't open
 	 */
-	public static void setLevel (int level)
+	public static boolean setLogFileSync (boolean sync)
 	{
-		logLevel = level;
+		logFileSync = sync;
+		return reopenLogFile ();
 	}
 	
 	/**
-	 * Adds a log level. Thus, if previously only <code>INFO</code> was enabled, <code>LOGGER.addLevel (LOGGER.ERROR)</code> enables logging only for <code>INFO</code> and <code>ERROR</code> messages.
+	 * Should we write the log file in a compact binary format? Instead of formatting the messages, the time stamp, the level, the caller, the message template, and the raw arguments are stored, and message templates and class names are written only once. This saves CPU time of the logging threads and disk space. If no other output or callback needs the message, it isn't formatted at all. Binary events are written by the logging thread, even in asynchronous mode, and binary log files are neither mapped nor rolled. Use the {@link BinaryLogDecoder} to read the log file. If we're already logging to a file, the file will be reopened. default: <code>false</code>
 	 *
-	 * @param level the level
+	 * @param binary should we write a binary log file?
+	 * @return true, if the log file was reopened successfully or isn't open
 	 */
-	public static void addLevel (int level)
+	public static boolean setLogFileBinary (boolean binary)
 	{
-		logLevel = logLevel|level;
+		logFileBinary = binary;
+		return reopenLogFile ();
 	}
 	
 	/**
-	 * Removes a level. Thus, if previously <code>INFO</code> and <code>ERROR</code> was enabled, <code>LOGGER.rmLevel (LOGGER.INFO)</code> enables logging only for <code>ERROR</code> messages.
+	 * Reopen the log file to apply a new configuration.
 	 *
-	 * @param level the level
+	 * @return true, if the log file was reopened successfully or isn't open
 	 */
-	public static void rmLevel (int level)
+	private static boolean reopenLogFile ()
 	{
-		logLevel = logLevel&~level;
+		if (logFile == null)
+			return true;
+		closeLogFile ();
+		return openLogFile ();
 	}
 	
 	/**
-	 * Checks for a log level.
+	 * Should we log stack traces? If you pass <code>true</code> you'll find a stacktrace after the log message which passed an exception, otherwise (default) only the exception class and the corresponding message will be logged.
 	 *
-	 * @param level the level
-	 * @return true, if level is enabled
+	 * @param log should we log stack traces?
 	 */
-	public static boolean hasLevel (int level)
+	public static void setLogStackTrace (boolean log)
 	{
-		return (logLevel&level) == level;
+		logStackTrace = log;
 	}
 	
 	/**
-	 * Checks if info is enabled.
+	 * Do we log stack traces?
 	 *
-	 * @return true, if info logging is enabled
+	 * @return true, if stack traces are logged
 	 */
-	public static boolean isInfoEnabled ()
+	public static boolean isLoggingStackTrace ()
 	{
-		return hasLevel (INFO);
+		return logStackTrace;
 	}
-	
+
 	/**
-	 * Checks if debug is enabled.
+	 * Set the max number of frames logged per exception of a stack trace. Causes and suppressed exceptions are always logged, but the frames they have in common with the exception they caused are elided. The default is 0, which logs all frames.
 	 *
-	 * @return true, if debug logging is enabled
+	 * @param frames the max number of frames per exception, 0 for unlimited
 	 */
-	public static boolean isDebugEnabled ()
+	public static void setStackTraceDepth (int frames)
 	{
-		return hasLevel (DEBUG);
+		if (frames < 0)
+			throw new IllegalArgumentException ("depth must not be negative: " + frames);
+		StackTraceRenderer.setMaxDepth (frames);
 	}
-	
+
 	/**
-	 * Checks if error is enabled.
+	 * Set the number of rendered stack traces to cache. Repeated exceptions with identical stack traces are rendered only once, as long as they are among the most recently logged traces. The default is 256, 0 disables the cache.
 	 *
-	 * @return true, if error logging is enabled
+	 * @param traces the number of cached traces
 	 */
-	public static boolean isErrorEnabled ()
+	public static void setStackTraceCacheSize (int traces)
 	{
-		return hasLevel (ERROR);
+		if (traces < 0)
+			throw new IllegalArgumentException ("cache size must not be negative: " + traces);
+		StackTraceRenderer.setCacheSize (traces);
 	}
-	
+
 	/**
-	 * Checks if warn is enabled.
+	 * Should the logging threads reuse their buffers? If enabled (default), every thread assembles its log lines in a reusable buffer and the lines are passed to std::out, std::err, and the log file without creating intermediate Strings. Thus, as long as no callbacks are registered, the caller location is <code>LOGGER.CALLER_OFF</code>, and the messages are logged using the placeholder methods with up to three arguments whose primitives are not boxed (see the class description), logging to a file does not allocate any objects. Disabling it frees the buffers of threads that rarely log, at the cost of some garbage per message.
 	 *
-	 * @return true, if warn logging is enabled
+	 * @param garbageFree should we reuse buffers?
 	 */
-	public static boolean isWarnEnabled ()
+	public static void setGarbageFree (boolean garbageFree)
 	{
-		return hasLevel (WARN);
+		LineBuffer.setReuse (garbageFree);
 	}
 	
 	/**
-	 * Publish a message.
+	 * Do the logging threads reuse their buffers?
 	 *
-	 * @param level the level
-	 * @param line the line to log
+	 * @return true, if buffers are reused
 	 */
-	private static void publish (int level, String line)
+	public static boolean isGarbageFree ()
 	{
-		if (logToStdOut)
-			System.out.println (line);
-		if (logToStdErr)
-			System.err.println(line);
-		if (logToFile && logFile != null)
-		{
-			try {
-				logFile.write(line);
-				logFile.newLine();
-			} catch (IOException e)
-			{
-				e.printStackTrace();
-			}
-		}
-		for (LogCallback lcb : callBacks)
-			lcb.logged (level, line);
+		return LineBuffer.isReuse ();
 	}
 	
-	
 	/**
-	 * Log a message.
+	 * Sets the format of the time stamps in log messages. The pattern supports the following subset of the {@link java.text.SimpleDateFormat} letters: <code>yyyy</code>, <code>yy</code>, <code>MM</code>, <code>dd</code>, <code>HH</code>, <code>mm</code>, <code>ss</code>, <code>SSS</code>, <code>X</code>, <code>XX</code>, <code>XXX</code>, <code>Z</code>, and quoted text. Predefined formats are <code>LOGGER.DATE_FORMAT_DEFAULT</code> (default), <code>LOGGER.DATE_FORMAT_MILLIS</code>, and <code>LOGGER.DATE_FORMAT_ISO8601</code>.
 	 *
-	 * @param level the level
-	 * @param msg the msg
+	 * @param pattern the date pattern
+	 * @throws IllegalArgumentException if the pattern is not supported
 	 */
-	private static void log (int level, Object... msg)
+	public static void setDateFormat (String pattern)
 	{
-		StringBuilder sb = preMsg (level, Thread.currentThread().getStackTrace()[3]);
-		for (Object m : msg)
-			sb.append (m);
-		publish (level, sb.toString ());
+		timestampFormatter = new TimestampFormatter (pattern);
 	}
 	
 	/**
-	 * Log a message.
+	 * Gets the date format.
 	 *
-	 * @param level the level
-	 * @param e the thrown exception
-	 * @param msg the msg
+	 * @return the date pattern
 	 */
-	private static void log (int level, Exception e, Object... msg)
+	public static String getDateFormat ()
 	{
-		StringBuilder sb = preMsg (level, Thread.currentThread().getStackTrace()[3]);
-		for (Object m : msg)
-			sb.append (m);
-		
-		sb.append (" (throwing ").append (e.getClass().getName())
-			.append (": ").append (e.getMessage()).append (")");
-		
-		if (logStackTrace)
-		{
-			sb.append (NEWLINE).append ("\t").append (e.getClass()
-				.getName()).append (": ").append (e.getMessage());
-			StackTraceElement [] ste = e.getStackTrace();
-			for (StackTraceElement el : ste)
-				sb.append (NEWLINE).append ("\t\tat ")
-				.append (el.getClassName()).append (".").append (el.getMethodName())
-				.append ("(").append (el.getFileName()).append (":")
-				.append (el.getLineNumber()).append (")");
-		}
-		
-		publish (level, sb.toString ());
+		return timestampFormatter.getPattern ();
 	}
 	
 	/**
-	 * Log an error.
+	 * Gets the formatter for the time stamps in log messages.
 	 *
-	 * @param msg the msg
-	 * @param e the thrown exception
-	 * @deprecated use {@link #error(Exception, Object...)} instead
+	 * @return the timestamp formatter
 	 */
-	@Deprecated
-	public static void error (String msg, Exception e)
+	static TimestampFormatter getTimestampFormatter ()
 	{
-		if ((logLevel & ERROR) > 0)
-			log (ERROR, e, msg);
+		return timestampFormatter;
 	}
 	
 	/**
-	 * Log an info message.
+	 * Sets the layout of the lines using a pattern, e.g. <code>%d{HH:mm:ss.SSS} [%thread] %level %class:%line - %msg%ex</code>. Supported conversions are <code>%d</code> (or <code>%date</code>, optionally followed by a date format in braces), <code>%p</code> (<code>%level</code>), <code>%t</code> (<code>%thread</code>), <code>%c</code> (<code>%class</code>), <code>%L</code> (<code>%line</code>), <code>%m</code> (<code>%msg</code>), <code>%X{key}</code> (<code>%mdc{key}</code>, the value of a key in the {@link MDC}, or all its entries without key), <code>%ex</code> (<code>%exception</code>), and <code>%%</code>. If the pattern does not contain <code>%ex</code> exceptions are appended to the message. The pattern is compiled once, so rendering a line does not need to parse it again. Pass <code>null</code> to go back to the classic lines <code>date LEVEL class@line: message</code>.
 	 *
-	 * @param msg the msg
-	 * @param e the thrown exception
-	 * @deprecated use {@link #info(Exception, Object...)} instead
+	 * @param pattern the layout pattern, or <code>null</code> for the classic lines
+	 * @throws IllegalArgumentException if the pattern is not supported
 	 */
-	@Deprecated
-	public static void info  (String msg, Exception e)
+	public static void setLayout (String pattern)
 	{
-		if ((logLevel & INFO) > 0)
-			log (INFO, e, msg);
+		layout = pattern == null ? null : new PatternLayout (pattern);
 	}
 	
 	/**
-	 * Log a debug message.
-	 *
-	 * @param msg the msg
-	 * @param e the thrown exception
-	 * @deprecated use {@link #debug(Exception, Object...)} instead
+	 * Log every message as a line of JSON, containing the fields <code>time</code>, <code>level</code>, <code>thread</code>, <code>class</code> and <code>line</code> (depending on the caller location mode), <code>message</code>, <code>mdc</code> (if the {@link MDC} is not empty), and <code>exception</code> (if any). Call <code>setLayout (null)</code> to go back to the classic lines.
 	 */
-	@Deprecated
-	public static void debug  (String msg, Exception e)
+	public static void setJsonLayout ()
 	{
-		if ((logLevel & DEBUG) > 0)
-			log (DEBUG, e, msg);
+		layout = new JsonLayout ();
 	}
 	
 	/**
-	 * Log a warning message.
+	 * Sets how much we log about the code that logged a message. <code>LOGGER.CALLER_FULL</code> (default) logs the class and the line number, <code>LOGGER.CALLER_CLASS</code> only the class, and <code>LOGGER.CALLER_OFF</code> omits the location. Finding the line number is by far the most expensive part of a log call, finding only the class is considerably cheaper, and omitting the location is free.
 	 *
-	 * @param msg the msg
-	 * @param e the thrown exception
-	 * @deprecated use {@link #warn(Exception, Object...)} instead
+	 * @param mode the caller location mode
 	 */
-	@Deprecated
-	public static void warn  (String msg, Exception e)
+	public static void setCallerLocation (int mode)
 	{
-		if ((logLevel & WARN) > 0)
-			log (WARN, e, msg);
+		if (mode != CALLER_OFF && mode != CALLER_CLASS && mode != CALLER_FULL)
+			throw new IllegalArgumentException ("unknown caller location mode: " + mode);
+		callerLocation = mode;
 	}
 	
 	/**
-	 * Log an error.
+	 * Gets the caller location mode.
 	 *
-	 * @param msg the msg
-	 * @param e the thrown exception
+	 * @return the caller location mode
 	 */
-	public static void error (Exception e, Object... msg)
+	public static int getCallerLocation ()
 	{
-		if ((logLevel & ERROR) > 0)
-			log (ERROR, e, msg);
+		return callerLocation;
 	}
 	
 	/**
-	 * Log an info message.
+	 * Should we log to std::err? default: <code>true</code>
+	 * 
+	 * Lines are buffered and written directly to the file descriptor of std::err, see {@link #setConsoleFlushPolicy(int, long)}. If you replaced <code>System.err</code> after the LOGGER was loaded, lines are printed to your stream instead.
 	 *
-	 * @param msg the msg
-	 * @param e the thrown exception
+	 * @param log should we log to std:err?
 	 */
-	public static void info  (Exception e, Object... msg)
+	public static void setLogToStdErr (boolean log)
+	{
+		logToStdErr = log;
+	}
+
+	/**
+	 * Should we log to std::out? default: <code>false</code>
+	 * 
+	 * Lines are buffered and written directly to the file descriptor of std::out, see {@link #setConsoleFlushPolicy(int, long)}. If you replaced <code>System.out</code> after the LOGGER was loaded, lines are printed to your stream instead.
+	 *
+	 * @param log the log to std out
+	 */
+	public static void setLogToStdOut (boolean log)
 	{
-		if ((logLevel & INFO) > 0)
-			log (INFO, e, msg);
+		logToStdOut = log;
 	}
 	
 	/**
-	 * Log a debug message.
+	 * Defines when lines written to the console are flushed. Lines of the given levels are flushed immediately, together with all lines buffered before, other lines are flushed at the given interval or if the buffer is full. Buffered lines are also flushed when the logger is closed or the JVM shuts down. By default errors are flushed immediately and other lines every <code>LOGGER.DEFAULT_CONSOLE_FLUSH_MILLIS</code> milliseconds. Pass all levels to flush every line immediately.
 	 *
-	 * @param msg the msg
-	 * @param e the thrown exception
+	 * @param levels flush lines of these levels immediately, e.g. <code>LOGGER.ERROR | LOGGER.WARN</code>
+	 * @param millis flush at this interval in milliseconds, 0 to flush only if the buffer is full
 	 */
-	public static void debug  (Exception e, Object... msg)
+	public static void setConsoleFlushPolicy (int levels, long millis)
+	{
+		if (millis < 0)
+			throw new IllegalArgumentException ("flush interval must not be negative: " + millis);
+		consoleLock.lock ();
+		try
+		{
+			consoleFlushLevels = levels;
+			consoleFlushMillis = millis;
+			// reopened with the new policy on demand
+			closeConsole ();
+		}
+		finally
+		{
+			consoleLock.unlock ();
+		}
+	}
+
+	/**
+	 * Should we log asynchronously? If enabled, log calls only enqueue the line into a bounded buffer and a dedicated thread writes it to std::out, std::err, the log file, and the callbacks. Disabling the asynchronous mode (or closing the logger) waits until all buffered lines are written. default: <code>false</code>
+	 *
+	 * @param async should we log asynchronously?
+	 */
+	public static synchronized void setAsync (boolean async)
 	{
-		if ((logLevel & DEBUG) > 0)
-			log (DEBUG, e, msg);
+		if (async)
+		{
+			if (asyncDispatcher == null)
+				startAsync ();
+		}
+		else
+			stopAsync ();
 	}
 	
 	/**
-	 * Log a warning message.
+	 * Are we logging asynchronously?
 	 *
-	 * @param msg the msg
-	 * @param e the thrown exception
+	 * @return true, if we are logging asynchronously
 	 */
-	public static void warn  (Exception e, Object... msg)
+	public static boolean isAsync ()
 	{
-		if ((logLevel & WARN) > 0)
-			log (WARN, e, msg);
+		return asyncDispatcher != null;
 	}
 	
 	/**
-	 * Log an error.
+	 * Sets the number of lines that can be buffered in asynchronous mode. The capacity is rounded up to the next power of two. If we're already logging asynchronously the buffer will be drained and replaced. default: <code>LOGGER.DEFAULT_ASYNC_CAPACITY</code>
 	 *
-	 * @param msg the msg
+	 * @param capacity the capacity of the async buffer
 	 */
-	public static void error (Object... msg)
+	public static synchronized void setAsyncCapacity (int capacity)
 	{
-		if ((logLevel & ERROR) > 0)
-		{
-			log (ERROR, msg);
-		}
+		if (capacity < 1)
+			throw new IllegalArgumentException ("async capacity must be positive: " + capacity);
+		asyncCapacity = capacity;
+		restartAsync ();
 	}
 	
 	/**
-	 * Log an info message.
+	 * Sets the policy for a full async buffer. Either <code>LOGGER.OVERFLOW_BLOCK</code> (default, the logging thread waits until there is space in the buffer) or <code>LOGGER.OVERFLOW_DROP</code> (the message is discarded). Use {@link #setAsyncOverflowPolicy(int, int)} for <code>LOGGER.OVERFLOW_DROP_BELOW_LEVEL</code>.
 	 *
-	 * @param msg the msg
+	 * @param policy the overflow policy
 	 */
-	public static void info (Object... msg)
+	public static void setAsyncOverflowPolicy (int policy)
 	{
-		if ((logLevel & INFO) > 0)
-			log (INFO, msg);
+		setAsyncOverflowPolicy (policy, asyncOverflowLevel);
 	}
 	
 	/**
-	 * Log a debug message.
+	 * Sets the policy for a full async buffer. If the policy is <code>LOGGER.OVERFLOW_DROP_BELOW_LEVEL</code> messages with a level below <code>level</code> are discarded, while messages of <code>level</code> or higher wait until there is space in the buffer. Thus, <code>LOGGER.setAsyncOverflowPolicy (LOGGER.OVERFLOW_DROP_BELOW_LEVEL, LOGGER.WARN)</code> drops debug and info messages, but never warnings and errors.
 	 *
-	 * @param msg the msg
+	 * @param policy the overflow policy
+	 * @param level the min level that will not be dropped
 	 */
-	public static void debug (Object... msg)
+	public static synchronized void setAsyncOverflowPolicy (int policy, int level)
 	{
-		if ((logLevel & DEBUG) > 0)
-			log (DEBUG, msg);
+		if (policy != OVERFLOW_BLOCK && policy != OVERFLOW_DROP && policy != OVERFLOW_DROP_BELOW_LEVEL)
+			throw new IllegalArgumentException ("unknown overflow policy: " + policy);
+		asyncOverflowPolicy = policy;
+		asyncOverflowLevel = level;
+		restartAsync ();
 	}
 	
 	/**
-	 * Log a warning message.
+	 * Gets the number of messages that were dropped because the async buffer was full.
 	 *
-	 * @param msg the msg
+	 * @return the number of dropped messages since logging asynchronously
 	 */
-	public static void warn (Object... msg)
+	public static long getAsyncDropped ()
 	{
-		if ((logLevel & WARN) > 0)
-			log (WARN, msg);
+		AsyncDispatcher async = asyncDispatcher;
+		return async == null ? 0 : async.getDropped ();
 	}
 	
-	public static void addCallback (LogCallback callBack)
+	/**
+	 * Start logging asynchronously.
+	 */
+	private static synchronized void startAsync ()
 	{
-		callBacks.add (callBack);
+		AsyncDispatcher async = new AsyncDispatcher (asyncCapacity, asyncOverflowPolicy, asyncOverflowLevel);
+		async.start ();
+		asyncDispatcher = async;
 	}
 	
-	public static void rmCallBack (LogCallback callBack)
+	/**
+	 * Stop logging asynchronously. Blocks until all buffered lines are written.
+	 */
+	private static synchronized void stopAsync ()
+	{
+		AsyncDispatcher async = asyncDispatcher;
+		if (async == null)
+			return;
+		asyncDispatcher = null;
+		async.close ();
+	}
+	
+	/**
+	 * Replace a running async dispatcher to apply a new configuration.
+	 */
+	private static synchronized void restartAsync ()
 	{
-		callBacks.remove (callBack);
+		if (asyncDispatcher == null)
+			return;
+		stopAsync ();
+		startAsync ();
 	}
 	
 	/**
-	 * Generate the preamble of a message.
+	 * Sets the min log level. Available log levels in order: <code>LOGGER.DEBUG</code>, <code>LOGGER.INFO</code>, <code>LOGGER.WARN</code>, <code>LOGGER.ERROR</code>. By default the min level is <code>LOGGER.WARN</code>. Thus, <code>LOGGER.setMinLevel (LOGGER.INFO)</code> enables logging for <code>INFO</code>, <code>WARN</code>, and <code>ERROR</code> messages.
 	 *
-	 * @param level the level
-	 * @param ste the stack trace element calling the LOGGER
-	 * @return the preamble
+	 * @param level the min level
+	 */
+	public static void setMinLevel (int level)
+	{
+		logLevel = minLevel (level);
+		levelsChanged ();
+	}
+	
+	/**
+	 * Compute the levels at or above a min level.
+	 *
+	 * @param level the min level
+	 * @return the levels
+	 */
+	private static int minLevel (int level)
+	{
+		int levels = 0;
+		int lvl = 1;
+		for (int i = 0; i < 4; i++)
+		{
+			if (lvl >= level)
+				levels = levels|lvl;
+			lvl *= 2;
+		}
+		return levels;
+	}
+	
+	/**
+	 * Sets the exclusive level. Thus, <code>LOGGER.setLevel (LOGGER.INFO)</code> enables logging only for <code>INFO</code> messages.
+	 *
+	 * @param level the level
+	 */
+	public static void setLevel (int level)
+	{
+		logLevel = level;
+		levelsChanged ();
+	}
+	
+	/**
+	 * Adds a log level. Thus, if previously only <code>INFO</code> was enabled, <code>LOGGER.addLevel (LOGGER.ERROR)</code> enables logging only for <code>INFO</code> and <code>ERROR</code> messages.
+	 *
+	 * @param level the level
+	 */
+	public static void addLevel (int level)
+	{
+		logLevel = logLevel|level;
+		levelsChanged ();
+	}
+	
+	/**
+	 * Removes a level. Thus, if previously <code>INFO</code> and <code>ERROR</code> was enabled, <code>LOGGER.rmLevel (LOGGER.INFO)</code> enables logging only for <code>ERROR</code> messages.
+	 *
+	 * @param level the level
+	 */
+	public static void rmLevel (int level)
+	{
+		logLevel = logLevel&~level;
+		levelsChanged ();
+	}
+	
+	/**
+	 * Sets the exclusive levels of a class or package, overriding the global levels. Classes inherit the levels of their enclosing classes and packages. Thus, <code>LOGGER.setLevel ("de.binfalse.bflog", LOGGER.DEBUG | LOGGER.ERROR)</code> logs debug messages and errors of all classes in <code>de.binfalse.bflog</code> and its sub packages, unless they define their own levels. Once levels are defined for a class or package, every log call needs to find its calling class, which costs some time.
+	 *
+	 * @param name the name of a class or package
+	 * @param level the levels
+	 */
+	public static void setLevel (String name, int level)
+	{
+		LevelConfig.set (name, level);
+		levelsChanged ();
+	}
+	
+	/**
+	 * Sets the exclusive levels of a class, overriding the global levels. Same as <code>LOGGER.setLevel (type.getName (), level)</code>
+	 *
+	 * @param type the class
+	 * @param level the levels
+	 */
+	public static void setLevel (Class<?> type, int level)
+	{
+		setLevel (type.getName (), level);
+	}
+	
+	/**
+	 * Sets the min level of a class or package, overriding the global levels. See {@link #setMinLevel(int)} and {@link #setLevel(String, int)}.
+	 *
+	 * @param name the name of a class or package
+	 * @param level the min level
+	 */
+	public static void setMinLevel (String name, int level)
+	{
+		setLevel (name, minLevel (level));
+	}
+	
+	/**
+	 * Removes the levels of a class or package, it inherits the levels of its enclosing package again.
+	 *
+	 * @param name the name of a class or package
+	 */
+	public static void resetLevel (String name)
+	{
+		LevelConfig.remove (name);
+		levelsChanged ();
+	}
+	
+	/**
+	 * Removes the levels of all classes and packages, only the global levels apply.
+	 */
+	public static void resetLevels ()
+	{
+		LevelConfig.clear ();
+		levelsChanged ();
+	}
+	
+	/**
+	 * Gets the levels that are logged for a class or package.
+	 *
+	 * @param name the name of a class or package
+	 * @return the levels
+	 */
+	public static int getLevel (String name)
+	{
+		return LevelConfig.resolve (name, logLevel);
+	}
+	
+	/**
+	 * Update the enabled levels and invalidate the levels cached per class after a level changed.
+	 */
+	private static void levelsChanged ()
+	{
+		levelsByName = !LevelConfig.isEmpty ();
+		enabledLevels = logLevel | LevelConfig.union ();
+		LevelConfig.invalidate ();
+	}
+	
+	/**
+	 * Checks if a level is enabled for the calling class, which is about to log a message. If no levels are defined for classes or packages, this is just a check of the global levels. Otherwise, the caller that was found is passed on to the following log call, so it doesn't need to walk the stack again.
+	 *
+	 * @param level the level
+	 * @return true, if messages of that level should be logged
+	 */
+	private static boolean enabled (int level)
+	{
+		return enabled (level, true);
+	}
+	
+	/**
+	 * Checks if a level is enabled for the calling class. If no levels are defined for classes or packages, this is just a check of the global levels.
+	 *
+	 * @param level the level
+	 * @param logging is the caller about to log a message of that level? Then the caller is remembered for the log call.
+	 * @return true, if messages of that level should be logged
+	 */
+	private static boolean enabled (int level, boolean logging)
+	{
+		if ((enabledLevels & level) == 0)
+			return false;
+		if (!levelsByName)
+			return true;
+		if (!logging || callerLocation != CALLER_FULL)
+		{
+			Class<?> caller = CallerLocator.callerClass ();
+			if ((LevelConfig.levelsOf (caller) & level) == 0)
+				return false;
+			if (logging && caller != null)
+				LineBuffer.setNextCaller (caller.getName (), null);
+			return true;
+		}
+		StackFrame frame = CallerLocator.callerFrame ();
+		Class<?> caller = frame == null ? null : frame.getDeclaringClass ();
+		if ((LevelConfig.levelsOf (caller) & level) == 0)
+			return false;
+		if (caller != null)
+			LineBuffer.setNextCaller (caller.getName (), frame);
+		return true;
+	}
+	
+	/**
+	 * Checks for a global log level, ignoring the levels of classes and packages.
+	 *
+	 * @param level the level
+	 * @return true, if level is enabled
+	 */
+	public static boolean hasLevel (int level)
+	{
+		return (logLevel&level) == level;
+	}
+	
+	/**
+	 * Checks if info is enabled.
+	 *
+	 * @return true, if info logging is enabled for the calling class
+	 */
+	public static boolean isInfoEnabled ()
+	{
+		return enabled (INFO, false);
+	}
+	
+	/**
+	 * Checks if debug is enabled.
+	 *
+	 * @return true, if debug logging is enabled for the calling class
+	 */
+	public static boolean isDebugEnabled ()
+	{
+		return enabled (DEBUG, false);
+	}
+	
+	/**
+	 * Checks if error is enabled.
+	 *
+	 * @return true, if error logging is enabled for the calling class
+	 */
+	public static boolean isErrorEnabled ()
+	{
+		return enabled (ERROR, false);
+	}
+	
+	/**
+	 * Checks if warn is enabled.
+	 *
+	 * @return true, if warn logging is enabled for the calling class
+	 */
+	public static boolean isWarnEnabled ()
+	{
+		return enabled (WARN, false);
+	}
+	
+	/**
+	 * Find the call site of a message for the rate limiter.
+	 *
+	 * @param level the level
+	 * @param template the message template
+	 * @return the site, or <code>null</code> if messages aren't limited
+	 */
+	private static RateLimiter.Site site (int level, String template)
+	{
+		RateLimiter limiter = rateLimiter;
+		return limiter == null ? null : limiter.site (level, template, null);
+	}
+	
+	/**
+	 * Find the call site of a message given as varargs for the rate limiter. The first part of the message is used as template if it is a String. A message that consists of a single String is its own template; as it has no arguments that tell its occurrences apart, the class of the thrown exception is part of its site.
+	 *
+	 * @param level the level
+	 * @param msg the message parts
+	 * @param e the thrown exception, or <code>null</code>
+	 * @return the site, or <code>null</code> if messages aren't limited or the message has no template
+	 */
+	private static RateLimiter.Site site (int level, Object[] msg, Exception e)
+	{
+		RateLimiter limiter = rateLimiter;
+		if (limiter == null || msg == null || msg.length == 0 || !(msg[0] instanceof String))
+			return null;
+		return limiter.site (level, (String) msg[0], msg.length == 1 && e != null ? e.getClass () : null);
+	}
+	
+	/**
+	 * Ask the sampler and the rate limiter whether a message may be logged. If messages of that site were dropped by the rate limiter before, a summary is logged first.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param site the site of the message, may be <code>null</code>
+	 * @param args the arguments of the message, which are released if the message is dropped
+	 * @return true, if the message may be logged
+	 */
+	private static boolean admit (String caller, int level, RateLimiter.Site site, LineBuffer.Args args)
+	{
+		Sampler s = sampler;
+		if (s != null && !s.sample (level, samplePerSite ? site : null))
+		{
+			metrics.sampledOut ();
+			LineBuffer.release (args);
+			return false;
+		}
+		if (site == null)
+			return true;
+		if (!site.acquire ())
+		{
+			metrics.rateLimited ();
+			LineBuffer.release (args);
+			return false;
+		}
+		long suppressed = site.takeSuppressed ();
+		if (suppressed > 0)
+			logAdmitted (caller != null ? caller : args.getCaller (), level, null, LineBuffer.args ("{} similar messages were suppressed").arg (suppressed));
+		return true;
+	}
+	
+	/**
+	 * Log the number of messages a rate limiter dropped but did not report yet, because their sites did not log again.
+	 *
+	 * @param limiter the rate limiter, may be <code>null</code>
+	 */
+	private static void reportDropped (RateLimiter limiter)
+	{
+		if (limiter == null)
+			return;
+		for (int i = 0; i < RateLimiter.TABLE_SIZE; i++)
+		{
+			RateLimiter.Site site = limiter.site (i);
+			if (site == null)
+				continue;
+			long dropped = site.takeSuppressed () + site.takeRepeats ();
+			if (dropped > 0)
+				logAdmitted (null, site.getLevel (), null, LineBuffer.args ("{} messages like \"" + site.getTemplate () + "\" were suppressed").arg (dropped));
+		}
+	}
+	
+	/**
+	 * Publish a message, unless it repeats the previous message of its call site. If repetitions of the previous message were dropped, a summary is published first. The binary event is written only if the message is not dropped.
+	 *
+	 * @param level the level
+	 * @param line the line to log
+	 * @param site the site of the message, may be <code>null</code>
+	 * @param body the position in <code>line</code> after the preamble
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param frame the calling frame, or <code>null</code> to find it
+	 * @param thrown the thrown exception, or <code>null</code>
+	 * @param event the binary event of the message, or <code>null</code> if we're not writing a binary log file
+	 */
+	private static void publish (int level, StringBuilder line, RateLimiter.Site site, int body, String caller, StackFrame frame, Throwable thrown, BinaryEvent event)
+	{
+		if (site != null)
+		{
+			long repeated = site.repeated (line, body);
+			if (repeated < 0)
+			{
+				metrics.duplicate ();
+				return;
+			}
+			if (repeated > 0)
+				logAdmitted (caller, level, null, LineBuffer.args (repeated == 1 ? "last message repeated {} time" : "last message repeated {} times").arg (repeated));
+		}
+		if (event != null)
+		{
+			writeBinary (level, event);
+			// the line was only formatted to detect duplicates
+			if (!logToStdOut && !logToStdErr && !callBacks.isInterested (level))
+			{
+				metrics.logged (level);
+				return;
+			}
+		}
+		publish (level, line, body, caller, frame, thrown);
+	}
+	
+	/**
+	 * Publish a message. Renders the line using the layout, if one is set, and creates the event if a callback is interested in the level.
+	 *
+	 * @param level the level
+	 * @param line the line to log
+	 * @param body the position in <code>line</code> after the preamble
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param frame the calling frame, or <code>null</code> to find it
+	 * @param thrown the thrown exception, or <code>null</code>
+	 */
+	private static void publish (int level, StringBuilder line, int body, String caller, StackFrame frame, Throwable thrown)
+	{
+		metrics.logged (level);
+		Layout l = layout;
+		if (l == null)
+		{
+			LogEvent event = null;
+			if (callBacks.isInterested (level))
+			{
+				if (caller == null && callerLocation != CALLER_OFF)
+					caller = callerName ();
+				event = new LogEvent (level, LogEvent.now (), Thread.currentThread ().getName (), caller, thrown, MDC.capture (), line.toString (), body);
+			}
+			publish (level, line, event);
+			return;
+		}
+		
+		if (!l.needsFrame ())
+			frame = null;
+		else if (frame == null)
+			frame = CallerLocator.callerFrame ();
+		if (caller == null && frame != null)
+			caller = frame.getClassName ();
+		boolean interested = callBacks.isInterested (level);
+		if (caller == null && (l.needsClass () || (interested && callerLocation != CALLER_OFF)))
+			caller = callerName ();
+		MDC.Context context = MDC.capture ();
+		StringBuilder rendered = LineBuffer.acquire ();
+		try
+		{
+			l.render (rendered, System.currentTimeMillis (), level, caller, frame, thrown, context, line, body);
+			LogEvent event = null;
+			if (interested)
+				event = new LogEvent (level, LogEvent.now (), Thread.currentThread ().getName (), caller, thrown, context, rendered.toString (), line.substring (body));
+			publish (level, rendered, event);
+		}
+		finally
+		{
+			LineBuffer.release (rendered);
+		}
+	}
+	
+	/**
+	 * Hand a rendered line over to the async dispatcher, if we're logging asynchronously, or write it directly.
+	 *
+	 * @param level the level
+	 * @param line the line to log
+	 * @param event the event for the callbacks, <code>null</code> if no callback is interested in the level
+	 */
+	private static void publish (int level, StringBuilder line, LogEvent event)
+	{
+		AsyncDispatcher async = asyncDispatcher;
+		if (async != null && async.offer (level, line, event))
+			return;
+		dispatch (level, line, event);
+	}
+	
+	/**
+	 * Write a message to all sinks and callbacks.
+	 *
+	 * @param level the level
+	 * @param line the line to log
+	 * @param event the event for the callbacks, <code>null</code> if no callback is interested in the level
+	 */
+	static void dispatch (int level, CharSequence line, LogEvent event)
+	{
+		if (logToStdOut)
+		{
+			long start = metrics.start ();
+			writeConsole (level, line, false);
+			metrics.stop (LogMetrics.STDOUT, start);
+		}
+		if (logToStdErr)
+		{
+			long start = metrics.start ();
+			writeConsole (level, line, true);
+			metrics.stop (LogMetrics.STDERR, start);
+		}
+		if (logToFile && logFile != null)
+			writeLogFile (level, line);
+		if (event != null)
+		{
+			long start = metrics.start ();
+			callBacks.dispatch (event);
+			metrics.stop (LogMetrics.CALLBACKS, start);
+		}
+	}
+	
+	/**
+	 * Write a line to the console. Lines are written to the buffered console sink, unless the application installed another stream in <code>System</code>, which then gets the line.
+	 *
+	 * @param level the level
+	 * @param line the line
+	 * @param err write to std::err instead of std::out?
+	 */
+	private static void writeConsole (int level, CharSequence line, boolean err)
+	{
+		PrintStream current = err ? System.err : System.out;
+		ConsoleSink sink = err ? stdErr : stdOut;
+		if (sink == null && current == (err ? originalErr : originalOut))
+			sink = openConsole (err);
+		try
+		{
+			if (sink != null && sink.replaces (current))
+			{
+				sink.write (level, line);
+				return;
+			}
+			// keep the order of the lines that are still buffered
+			if (sink != null)
+				sink.flush ();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace ();
+			return;
+		}
+		consoleLock.lock ();
+		try
+		{
+			current.println (line);
+		}
+		finally
+		{
+			consoleLock.unlock ();
+		}
+	}
+	
+	/**
+	 * Open the buffered console sink, unless another thread did that already.
+	 *
+	 * @param err open std::err instead of std::out?
+	 * @return the sink
+	 */
+	private static ConsoleSink openConsole (boolean err)
+	{
+		consoleLock.lock ();
+		try
+		{
+			ConsoleSink sink = err ? stdErr : stdOut;
+			if (sink != null)
+				return sink;
+			if (!consoleHookAdded)
+			{
+				Runtime.getRuntime ().addShutdownHook (new Thread (LOGGER::closeConsole, "BFLog-console"));
+				consoleHookAdded = true;
+			}
+			if (err)
+				sink = stdErr = new ConsoleSink (FileDescriptor.err, originalErr, ConsoleSink.charset ("stderr"), consoleFlushLevels, consoleFlushMillis);
+			else
+				sink = stdOut = new ConsoleSink (FileDescriptor.out, originalOut, ConsoleSink.charset ("stdout"), consoleFlushLevels, consoleFlushMillis);
+			return sink;
+		}
+		finally
+		{
+			consoleLock.unlock ();
+		}
+	}
+	
+	/**
+	 * Flush the lines buffered for the console and close the console sinks. They are opened again on demand.
+	 */
+	private static void closeConsole ()
+	{
+		consoleLock.lock ();
+		try
+		{
+			ConsoleSink[] sinks = { stdOut, stdErr };
+			stdOut = null;
+			stdErr = null;
+			for (ConsoleSink sink : sinks)
+				if (sink != null)
+					try
+					{
+						sink.close ();
+					}
+					catch (IOException e)
+					{
+						e.printStackTrace ();
+					}
+		}
+		finally
+		{
+			consoleLock.unlock ();
+		}
+	}
+	
+	/**
+	 * Write a line to the log file.
+	 *
+	 * @param level the level
+	 * @param line the line
+	 */
+	private static void writeLogFile (int level, CharSequence line)
+	{
+		LogFile file = logFile;
+		// binary events are written by the log methods
+		if (file == null || file.isBinary ())
+			return;
+		long start = metrics.start ();
+		try
+		{
+			file.write (level, line);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace ();
+		}
+		metrics.stop (LogMetrics.FILE, start);
+	}
+	
+	/**
+	 * Start a binary event, if we're writing a binary log file. The event needs to be released using <code>BinaryEvent.release</code>.
+	 *
+	 * @param level the level
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param frame the calling frame, or <code>null</code> to find it
+	 * @param args the number of arguments that will be appended
+	 * @return the event, or <code>null</code> if we're not writing a binary log file
+	 */
+	private static BinaryEvent binaryEvent (int level, String caller, StackFrame frame, int args)
+	{
+		if (!logToFile)
+			return null;
+		LogFile file = logFile;
+		if (file == null || !file.isBinary ())
+			return null;
+		String callerClass = null;
+		int line = Integer.MIN_VALUE;
+		switch (callerLocation)
+		{
+			case CALLER_FULL:
+				if (frame == null)
+					frame = CallerLocator.callerFrame ();
+				if (frame != null)
+				{
+					callerClass = frame.getClassName ();
+					line = frame.getLineNumber ();
+				}
+				break;
+			case CALLER_CLASS:
+				callerClass = caller != null ? caller : callerName ();
+				break;
+		}
+		return BinaryEvent.acquire ().begin (System.currentTimeMillis (), level, callerClass, line, args);
+	}
+	
+	/**
+	 * Write a binary event right away, if the binary log file is the only output of a message. Otherwise, the message needs to be formatted and the event is written when the message is published, so duplicates don't end up in the binary log file.
+	 *
+	 * @param level the level
+	 * @param site the site of the message, may be <code>null</code>
+	 * @param event the event
+	 * @return true, if the event was written and the message doesn't need to be formatted
+	 */
+	private static boolean binaryOnly (int level, RateLimiter.Site site, BinaryEvent event)
+	{
+		if (logToStdOut || logToStdErr || callBacks.isInterested (level) || (site != null && site.checksRepeats ()))
+			return false;
+		writeBinary (level, event);
+		metrics.logged (level);
+		return true;
+	}
+	
+	/**
+	 * Write a binary event to the log file.
+	 *
+	 * @param level the level
+	 * @param event the event
+	 */
+	private static void writeBinary (int level, BinaryEvent event)
+	{
+		LogFile file = logFile;
+		if (file != null)
+		{
+			long start = metrics.start ();
+			try
+			{
+				file.write (level, event);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace ();
+			}
+			metrics.stop (LogMetrics.FILE, start);
+		}
+	}
+	
+	/**
+	 * Release the binary event and the line buffer of a log call.
+	 *
+	 * @param event the binary event, may be <code>null</code>
+	 * @param sb the line buffer, may be <code>null</code>
+	 */
+	private static void release (BinaryEvent event, StringBuilder sb)
+	{
+		if (event != null)
+			BinaryEvent.release (event);
+		if (sb != null)
+			LineBuffer.release (sb);
+	}
+	
+	/**
+	 * Log an admitted message. All log calls end up here, so they are treated alike by the binary log file, the duplicate detection, and the metrics. Summaries of dropped messages are logged without site, so they are never dropped themselves.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param site the site of the message, may be <code>null</code>
+	 * @param args the arguments of the message, which are released
+	 */
+	private static void logAdmitted (String caller, int level, RateLimiter.Site site, LineBuffer.Args args)
+	{
+		Exception e = args.getThrown ();
+		StackFrame frame = args.getFrame ();
+		// find the caller once for the binary log file and the preamble
+		if (frame == null && callerLocation == CALLER_FULL && layout == null)
+			frame = CallerLocator.callerFrame ();
+		if (caller == null)
+			caller = frame != null ? frame.getClassName () : args.getCaller ();
+		BinaryEvent event = null;
+		StringBuilder sb = null;
+		try
+		{
+			event = binaryEvent (level, caller, frame, args.size ());
+			if (event != null)
+			{
+				args.appendTo (event);
+				if (e != null)
+					event.exception (e, logStackTrace);
+				if (binaryOnly (level, site, event))
+					return;
+			}
+			sb = preMsg (level, caller, frame);
+			int body = sb.length ();
+			args.format (sb);
+			if (e != null)
+			{
+				Layout l = layout;
+				if (l == null || !l.rendersThrown ())
+					Layout.appendThrown (sb, e);
+			}
+			publish (level, sb, site, body, caller, frame, e, event);
+		}
+		finally
+		{
+			release (event, sb);
+			LineBuffer.release (args);
+		}
+	}
+	
+	/**
+	 * Log a message.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param msg the msg
+	 */
+	static void log (String caller, int level, Object... msg)
+	{
+		LineBuffer.Args args = LineBuffer.args (msg, null);
+		RateLimiter.Site site = site (level, msg, null);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log a message with one argument.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	static void log (String caller, int level, String format, Object arg)
+	{
+		LineBuffer.Args args = LineBuffer.args (format).arg (arg);
+		RateLimiter.Site site = site (level, format);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log a message with one argument.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	static void log (String caller, int level, String format, long arg)
+	{
+		LineBuffer.Args args = LineBuffer.args (format).arg (arg);
+		RateLimiter.Site site = site (level, format);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log a message with one argument.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	static void log (String caller, int level, String format, double arg)
+	{
+		LineBuffer.Args args = LineBuffer.args (format).arg (arg);
+		RateLimiter.Site site = site (level, format);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log a message with one argument.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	static void log (String caller, int level, String format, char arg)
+	{
+		LineBuffer.Args args = LineBuffer.args (format).arg (arg);
+		RateLimiter.Site site = site (level, format);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log a message with two arguments.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	static void log (String caller, int level, String format, Object arg1, Object arg2)
+	{
+		LineBuffer.Args args = LineBuffer.args (format).arg (arg1).arg (arg2);
+		RateLimiter.Site site = site (level, format);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log a message with two arguments.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	static void log (String caller, int level, String format, Object arg1, long arg2)
+	{
+		LineBuffer.Args args = LineBuffer.args (format).arg (arg1).arg (arg2);
+		RateLimiter.Site site = site (level, format);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log a message with two arguments.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	static void log (String caller, int level, String format, long arg1, long arg2)
+	{
+		LineBuffer.Args args = LineBuffer.args (format).arg (arg1).arg (arg2);
+		RateLimiter.Site site = site (level, format);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log a message with three arguments.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 * @param arg3 the third argument
+	 */
+	static void log (String caller, int level, String format, Object arg1, Object arg2, Object arg3)
+	{
+		LineBuffer.Args args = LineBuffer.args (format).arg (arg1).arg (arg2).arg (arg3);
+		RateLimiter.Site site = site (level, format);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log a message.
+	 *
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param level the level
+	 * @param e the thrown exception
+	 * @param msg the msg
+	 */
+	static void log (String caller, int level, Exception e, Object... msg)
+	{
+		LineBuffer.Args args = LineBuffer.args (msg, e);
+		RateLimiter.Site site = site (level, msg, e);
+		if (admit (caller, level, site, args))
+			logAdmitted (caller, level, site, args);
+	}
+	
+	/**
+	 * Log an error.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 * @deprecated use {@link #error(Exception, Object...)} instead
+	 */
+	@Deprecated
+	public static void error (String msg, Exception e)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, e, msg);
+	}
+	
+	/**
+	 * Log an info message.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 * @deprecated use {@link #info(Exception, Object...)} instead
+	 */
+	@Deprecated
+	public static void info  (String msg, Exception e)
+	{
+		if (enabled (INFO))
+			log (null, INFO, e, msg);
+	}
+	
+	/**
+	 * Log a debug message.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 * @deprecated use {@link #debug(Exception, Object...)} instead
+	 */
+	@Deprecated
+	public static void debug  (String msg, Exception e)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, e, msg);
+	}
+	
+	/**
+	 * Log a warning message.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 * @deprecated use {@link #warn(Exception, Object...)} instead
+	 */
+	@Deprecated
+	public static void warn  (String msg, Exception e)
+	{
+		if (enabled (WARN))
+			log (null, WARN, e, msg);
+	}
+	
+	/**
+	 * Log an error.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 */
+	public static void error (Exception e, Object... msg)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, e, msg);
+	}
+	
+	/**
+	 * Log an info message.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 */
+	public static void info  (Exception e, Object... msg)
+	{
+		if (enabled (INFO))
+			log (null, INFO, e, msg);
+	}
+	
+	/**
+	 * Log a debug message.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 */
+	public static void debug  (Exception e, Object... msg)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, e, msg);
+	}
+	
+	/**
+	 * Log a warning message.
+	 *
+	 * @param msg the msg
+	 * @param e the thrown exception
+	 */
+	public static void warn  (Exception e, Object... msg)
+	{
+		if (enabled (WARN))
+			log (null, WARN, e, msg);
+	}
+	
+	/**
+	 * Log an error.
+	 *
+	 * @param msg the msg
+	 */
+	public static void error (Object... msg)
+	{
+		if (enabled (ERROR))
+		{
+			log (null, ERROR, msg);
+		}
+	}
+	
+	/**
+	 * Log an info message.
+	 *
+	 * @param msg the msg
+	 */
+	public static void info (Object... msg)
+	{
+		if (enabled (INFO))
+			log (null, INFO, msg);
+	}
+	
+	/**
+	 * Log a debug message.
+	 *
+	 * @param msg the msg
+	 */
+	public static void debug (Object... msg)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, msg);
+	}
+	
+	/**
+	 * Log a warning message.
+	 *
+	 * @param msg the msg
+	 */
+	public static void warn (Object... msg)
+	{
+		if (enabled (WARN))
+			log (null, WARN, msg);
+	}
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void error (String format, Object arg)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, format, arg);
+	}
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void error (String format, long arg)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, format, arg);
+	}
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void error (String format, double arg)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, format, arg);
+	}
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void error (String format, char arg)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, format, arg);
+	}
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void error (String format, Object arg1, Object arg2)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void error (String format, Object arg1, long arg2)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void error (String format, long arg1, long arg2)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log an error. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 * @param arg3 the third argument
+	 */
+	public static void error (String format, Object arg1, Object arg2, Object arg3)
+	{
+		if (enabled (ERROR))
+			log (null, ERROR, format, arg1, arg2, arg3);
+	}
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void info (String format, Object arg)
+	{
+		if (enabled (INFO))
+			log (null, INFO, format, arg);
+	}
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void info (String format, long arg)
+	{
+		if (enabled (INFO))
+			log (null, INFO, format, arg);
+	}
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void info (String format, double arg)
+	{
+		if (enabled (INFO))
+			log (null, INFO, format, arg);
+	}
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void info (String format, char arg)
+	{
+		if (enabled (INFO))
+			log (null, INFO, format, arg);
+	}
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void info (String format, Object arg1, Object arg2)
+	{
+		if (enabled (INFO))
+			log (null, INFO, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void info (String format, Object arg1, long arg2)
+	{
+		if (enabled (INFO))
+			log (null, INFO, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void info (String format, long arg1, long arg2)
+	{
+		if (enabled (INFO))
+			log (null, INFO, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log an info message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 * @param arg3 the third argument
+	 */
+	public static void info (String format, Object arg1, Object arg2, Object arg3)
+	{
+		if (enabled (INFO))
+			log (null, INFO, format, arg1, arg2, arg3);
+	}
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void debug (String format, Object arg)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, format, arg);
+	}
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void debug (String format, long arg)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, format, arg);
+	}
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void debug (String format, double arg)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, format, arg);
+	}
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void debug (String format, char arg)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, format, arg);
+	}
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void debug (String format, Object arg1, Object arg2)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void debug (String format, Object arg1, long arg2)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void debug (String format, long arg1, long arg2)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log a debug message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 * @param arg3 the third argument
+	 */
+	public static void debug (String format, Object arg1, Object arg2, Object arg3)
+	{
+		if (enabled (DEBUG))
+			log (null, DEBUG, format, arg1, arg2, arg3);
+	}
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void warn (String format, Object arg)
+	{
+		if (enabled (WARN))
+			log (null, WARN, format, arg);
+	}
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void warn (String format, long arg)
+	{
+		if (enabled (WARN))
+			log (null, WARN, format, arg);
+	}
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void warn (String format, double arg)
+	{
+		if (enabled (WARN))
+			log (null, WARN, format, arg);
+	}
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the argument, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg the argument
+	 */
+	public static void warn (String format, char arg)
+	{
+		if (enabled (WARN))
+			log (null, WARN, format, arg);
+	}
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void warn (String format, Object arg1, Object arg2)
+	{
+		if (enabled (WARN))
+			log (null, WARN, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void warn (String format, Object arg1, long arg2)
+	{
+		if (enabled (WARN))
+			log (null, WARN, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 */
+	public static void warn (String format, long arg1, long arg2)
+	{
+		if (enabled (WARN))
+			log (null, WARN, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log a warning message. The <code>{}</code> placeholders in <code>format</code> are replaced by the arguments, but only if the level is enabled.
+	 *
+	 * @param format the message format
+	 * @param arg1 the first argument
+	 * @param arg2 the second argument
+	 * @param arg3 the third argument
+	 */
+	public static void warn (String format, Object arg1, Object arg2, Object arg3)
+	{
+		if (enabled (WARN))
+			log (null, WARN, format, arg1, arg2, arg3);
+	}
+	
+	/**
+	 * Limit the number of messages per call site. A call site is identified by the level and the message format (or the first String of a message given as parts); a message that consists of a single String is its own format, and the class of its exception is part of its call site. Every call site may log <code>burst</code> messages at once and then <code>perSecond</code> messages per second. Dropped messages are not even formatted, their number is reported right before the next admitted message of that site, or when the logger is closed. Thus, <code>LOGGER.setRateLimit (10, 100)</code> makes sure a failing downstream service can't flood the log with more than 10 errors per second from the same line. default: <code>(0, 1)</code>, i.e. unlimited
+	 *
+	 * @param perSecond the number of messages per second and site, 0 for unlimited
+	 * @param burst the number of messages a site may log at once
+	 */
+	public static void setRateLimit (double perSecond, int burst)
+	{
+		if (perSecond < 0 || burst < 1)
+			throw new IllegalArgumentException ("rate must not be negative and burst must be positive");
+		rateLimit = perSecond;
+		rateLimitBurst = burst;
+		updateRateLimiter ();
+	}
+	
+	/**
+	 * Should we drop messages that repeat the last message of their call site? The formatted messages are compared, so this saves output, but not the formatting. When a different message of that site is logged, it is preceded by <code>last message repeated N times</code>. Repetitions that were not reported yet are reported when the logger is closed. default: <code>false</code>
+	 *
+	 * @param suppress should we drop repeated messages?
+	 */
+	public static void setSuppressDuplicates (boolean suppress)
+	{
+		suppressDuplicates = suppress;
+		updateRateLimiter ();
+	}
+	
+	/**
+	 * Log only a random sample of the messages of some levels. Every message of these levels is logged with the given probability, so <code>LOGGER.setSampleRate (LOGGER.DEBUG, 0.01)</code> keeps a representative trickle of one percent of the debug messages. Dropped messages are not even formatted. default: <code>1</code> for all levels
+	 *
+	 * @param levels the levels, e.g. <code>LOGGER.DEBUG|LOGGER.INFO</code>
+	 * @param probability the probability to log a message, between 0 and 1
+	 */
+	public static void setSampleRate (int levels, double probability)
+	{
+		if (!(probability >= 0 && probability <= 1))
+			throw new IllegalArgumentException ("probability must be between 0 and 1: " + probability);
+		synchronized (sampleRate)
+		{
+			for (int i = 0; i < Sampler.LEVELS; i++)
+				if ((levels & (1 << i)) != 0)
+					sampleRate[i] = probability;
+			updateSampler ();
+		}
+	}
+	
+	/**
+	 * Log only every n-th message of some levels. The messages are counted per thread, or per call site if <code>LOGGER.setSamplePerSite (true)</code> was called. Dropped messages are not even formatted. default: <code>1</code> for all levels
+	 *
+	 * @param levels the levels, e.g. <code>LOGGER.DEBUG|LOGGER.INFO</code>
+	 * @param n log every n-th message, 1 to log all messages
+	 */
+	public static void setSampleEvery (int levels, int n)
+	{
+		if (n < 1)
+			throw new IllegalArgumentException ("n must be positive: " + n);
+		synchronized (sampleRate)
+		{
+			for (int i = 0; i < Sampler.LEVELS; i++)
+				if ((levels & (1 << i)) != 0)
+					sampleEvery[i] = n;
+			updateSampler ();
+		}
+	}
+	
+	/**
+	 * Should the sampler count the messages per call site instead of per thread? A call site is identified as for the rate limit (see <code>LOGGER.setRateLimit</code>), so every call site logs every n-th of its messages, no matter how often the other sites log. default: <code>false</code>
+	 *
+	 * @param perSite should we count the messages per call site?
+	 */
+	public static void setSamplePerSite (boolean perSite)
+	{
+		samplePerSite = perSite;
+		updateRateLimiter ();
+	}
+	
+	/**
+	 * Get the metrics of the logger, i.e. the number of logged and dropped messages, the bytes written to log files, and the latencies of the outputs.
+	 *
+	 * @return the metrics
+	 */
+	public static LogMetrics getMetrics ()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Register the metrics as an MBean named <code>de.binfalse.bflog:type=LogMetrics</code> at the platform MBean server.
+	 *
+	 * @return true, if the MBean was registered
+	 */
+	public static boolean registerMBean ()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+			ObjectName name = new ObjectName (MBEAN_NAME);
+			if (!server.isRegistered (name))
+				server.registerMBean (metrics, name);
+			return true;
+		}
+		catch (JMException e)
+		{
+			e.printStackTrace ();
+			return false;
+		}
+	}
+	
+	/**
+	 * Unregister the metrics MBean.
+	 *
+	 * @return true, if the MBean is not registered anymore
+	 */
+	public static boolean unregisterMBean ()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+			ObjectName name = new ObjectName (MBEAN_NAME);
+			if (server.isRegistered (name))
+				server.unregisterMBean (name);
+			return true;
+		}
+		catch (JMException e)
+		{
+			e.printStackTrace ();
+			return false;
+		}
+	}
+	
+	/**
+	 * Gets the latencies of a callback.
+	 *
+	 * @param callback the callback
+	 * @return the latencies, or <code>null</code> if the callback isn't registered
+	 */
+	static LatencyHistogram callbackLatency (Object callback)
+	{
+		return callBacks.latency (callback);
+	}
+	
+	/**
+	 * Reset the latencies of all callbacks.
+	 */
+	static void resetCallbackLatencies ()
+	{
+		callBacks.resetLatencies ();
+	}
+	
+	/**
+	 * Create a new sampler to apply a new configuration.
+	 */
+	private static void updateSampler ()
+	{
+		if (Sampler.isSampling (sampleRate, sampleEvery))
+			sampler = new Sampler (sampleRate, sampleEvery);
+		else
+			sampler = null;
+	}
+	
+	/**
+	 * Create a new rate limiter to apply a new configuration.
+	 */
+	private static synchronized void updateRateLimiter ()
+	{
+		RateLimiter previous = rateLimiter;
+		if (rateLimit > 0 || suppressDuplicates || samplePerSite)
+			rateLimiter = new RateLimiter (rateLimit, rateLimitBurst, suppressDuplicates);
+		else
+			rateLimiter = null;
+		reportDropped (previous);
+	}
+	
+	/**
+	 * Get a logger for a class. The returned logger shares the outputs and callbacks of the LOGGER, but it knows its class in advance and keeps the levels of the class, so that its level checks are cheap even if levels are defined for classes or packages. Keep it in a static final field:
+	 * 
+	 * <pre>
+	 * private static final ClassLogger LOG = LOGGER.forClass (SomeClass.class);
+	 * </pre>
+	 *
+	 * @param type the class
+	 * @return the logger of that class
+	 */
+	public static ClassLogger forClass (Class<?> type)
+	{
+		return ClassLogger.forClass (type);
+	}
+	
+	/**
+	 * Register a callback that is informed about every log message.
+	 *
+	 * @param callBack the callback
+	 */
+	public static void addCallback (LogCallback callBack)
+	{
+		addCallback (callBack, ERROR | WARN | INFO | DEBUG);
+	}
+	
+	/**
+	 * Register a callback that is only informed about messages of certain levels. Thus, <code>LOGGER.addCallback (mcb, LOGGER.ERROR | LOGGER.WARN)</code> only passes errors and warnings to <code>mcb</code>. Messages of levels that are not logged at all (see {@link #setLevel(int)}) are never passed to callbacks.
+	 *
+	 * @param callBack the callback
+	 * @param levels the levels the callback is interested in
+	 */
+	public static void addCallback (final LogCallback callBack, int levels)
+	{
+		if (callBack == null)
+			throw new NullPointerException ("callback must not be null");
+		callBacks.add (callBack, event -> callBack.logged (event.getLevel (), event.getLine ()), levels);
+	}
+	
+	/**
+	 * Register a callback that is informed about every log event. In contrast to a {@link LogCallback}, the callback gets a {@link LogEvent} that knows the time, the thread, the calling class, and the thrown exception.
+	 *
+	 * @param callBack the callback
+	 */
+	public static void addCallback (LogEventCallback callBack)
+	{
+		addCallback (callBack, ERROR | WARN | INFO | DEBUG);
+	}
+	
+	/**
+	 * Register a callback that is only informed about log events of certain levels.
+	 *
+	 * @param callBack the callback
+	 * @param levels the levels the callback is interested in
+	 */
+	public static void addCallback (LogEventCallback callBack, int levels)
+	{
+		callBacks.add (callBack, callBack, levels);
+	}
+	
+	/**
+	 * Unregister an event callback. If it was registered several times, only the first registration is removed.
+	 *
+	 * @param callBack the callback
+	 */
+	public static void rmEventCallBack (LogEventCallback callBack)
+	{
+		removeCallback (callBack);
+	}
+	
+	/**
+	 * Unregister a callback. If it was registered several times, only the first registration is removed.
+	 *
+	 * @param callBack the callback
+	 */
+	public static void rmCallBack (LogCallback callBack)
+	{
+		removeCallback (callBack);
+	}
+	
+	/**
+	 * Register a callback that is called asynchronously. The messages are put into a bounded buffer and a dedicated thread passes them to the callback, so a slow callback, e.g. one that sends mails, does not slow down the logging threads. If the buffer is full, messages for the callback are dropped. Use <code>LOGGER.setCallbackLatencyBudget</code> to be warned about slow callbacks.
+	 *
+	 * @param callBack the callback
+	 * @param levels the levels the callback is interested in
+	 */
+	public static void addAsyncCallback (LogCallback callBack, int levels)
+	{
+		addAsyncCallback (callBack, levels, AsyncCallback.DEFAULT_CAPACITY, OVERFLOW_DROP);
+	}
+	
+	/**
+	 * Register a callback that is called asynchronously with its own buffer and thread. If the buffer is full, messages for the callback are either dropped (<code>LOGGER.OVERFLOW_DROP</code>) or the logging thread waits (<code>LOGGER.OVERFLOW_BLOCK</code>).
+	 *
+	 * @param callBack the callback
+	 * @param levels the levels the callback is interested in
+	 * @param capacity the number of messages that can be buffered for the callback
+	 * @param overflowPolicy either <code>LOGGER.OVERFLOW_DROP</code> or <code>LOGGER.OVERFLOW_BLOCK</code>
+	 */
+	public static void addAsyncCallback (LogCallback callBack, int levels, int capacity, int overflowPolicy)
+	{
+		AsyncCallback async = new AsyncCallback (callBack, capacity, overflowPolicy);
+		async.start ();
+		callBacks.add (callBack, async, levels);
+	}
+	
+	/**
+	 * Register a callback that receives batches of messages. The messages are put into a bounded buffer and a dedicated thread passes them to the callback, either if <code>maxBatch</code> messages are buffered or if the oldest buffered message waited for <code>lingerMillis</code>. Thus, <code>LOGGER.addBatchCallback (db, LOGGER.ERROR | LOGGER.WARN, 100, 500)</code> lets <code>db</code> store up to 100 messages at once, and no message waits longer than half a second. If the buffer is full, messages for the callback are dropped.
+	 *
+	 * @param callBack the callback
+	 * @param levels the levels the callback is interested in
+	 * @param maxBatch the max number of messages per batch
+	 * @param lingerMillis the max time a message waits for further messages
+	 */
+	public static void addBatchCallback (BatchLogCallback callBack, int levels, int maxBatch, long lingerMillis)
+	{
+		addBatchCallback (callBack, levels, maxBatch, lingerMillis, Math.max (AsyncCallback.DEFAULT_CAPACITY, maxBatch), OVERFLOW_DROP);
+	}
+	
+	/**
+	 * Register a callback that receives batches of messages with a buffer of a certain capacity. If the buffer is full, messages for the callback are either dropped (<code>LOGGER.OVERFLOW_DROP</code>) or the logging thread waits (<code>LOGGER.OVERFLOW_BLOCK</code>).
+	 *
+	 * @param callBack the callback
+	 * @param levels the levels the callback is interested in
+	 * @param maxBatch the max number of messages per batch
+	 * @param lingerMillis the max time a message waits for further messages
+	 * @param capacity the number of messages that can be buffered for the callback
+	 * @param overflowPolicy either <code>LOGGER.OVERFLOW_DROP</code> or <code>LOGGER.OVERFLOW_BLOCK</code>
+	 */
+	public static void addBatchCallback (BatchLogCallback callBack, int levels, int maxBatch, long lingerMillis, int capacity, int overflowPolicy)
+	{
+		AsyncCallback async = new AsyncCallback (callBack, capacity, overflowPolicy, maxBatch, lingerMillis);
+		async.start ();
+		callBacks.add (callBack, async, levels);
+	}
+	
+	/**
+	 * Unregister a batch callback. Buffered messages are passed to the callback before.
+	 *
+	 * @param callBack the callback
+	 */
+	public static void rmBatchCallBack (BatchLogCallback callBack)
+	{
+		removeCallback (callBack);
+	}
+	
+	/**
+	 * Unregister the first registration of a callback. Async callbacks get their buffered messages before.
+	 *
+	 * @param callBack the callback
+	 */
+	private static void removeCallback (Object callBack)
+	{
+		LogEventCallback removed = callBacks.remove (callBack);
+		if (removed instanceof AsyncCallback)
+		{
+			AsyncCallback async = (AsyncCallback) removed;
+			async.flush (CALLBACK_FLUSH_MILLIS);
+			async.close ();
+		}
+	}
+	
+	/**
+	 * Unregister an async callback without waiting for its buffered messages.
+	 *
+	 * @param async the callback
+	 */
+	static void detachCallback (AsyncCallback async)
+	{
+		callBacks.removeCallback (async);
+		async.close ();
+	}
+	
+	/**
+	 * Define how long an async callback may take for a single message. A watchdog checks the async callbacks and logs a warning if a callback exceeds the budget. If <code>detach</code> is <code>true</code>, the slow callback is unregistered as well. default: <code>0</code>, i.e. no budget
+	 *
+	 * @param millis the latency budget in milliseconds, 0 to disable the watchdog
+	 * @param detach should we unregister slow callbacks?
+	 */
+	public static void setCallbackLatencyBudget (long millis, boolean detach)
+	{
+		if (millis < 0)
+			throw new IllegalArgumentException ("budget must not be negative: " + millis);
+		callbackBudget = millis;
+		detachSlowCallbacks = detach;
+	}
+	
+	/**
+	 * Gets the latency budget of async callbacks.
+	 *
+	 * @return the budget in milliseconds, 0 if there is no budget
+	 */
+	public static long getCallbackLatencyBudget ()
+	{
+		return callbackBudget;
+	}
+	
+	/**
+	 * Are async callbacks unregistered if they exceed their latency budget?
+	 *
+	 * @return true, if slow callbacks are unregistered
+	 */
+	static boolean isDetachingSlowCallbacks ()
+	{
+		return detachSlowCallbacks;
+	}
+	
+	/**
+	 * Generate the preamble of a message. The returned buffer needs to be released using <code>LineBuffer.release</code>. Depending on the caller location mode it looks like <code>date LEVEL class@line: </code>, <code>date LEVEL class: </code>, or <code>date LEVEL: </code>. If a layout is set the preamble is empty.
+	 *
+	 * @param level the level
+	 * @param caller the name of the calling class, or <code>null</code> to find it
+	 * @param frame the calling frame, or <code>null</code> to find it
+	 * @return the preamble
+	 */
+	private static StringBuilder preMsg (int level, String caller, StackFrame frame)
+	{
+		// a layout renders the whole line when the message is published
+		if (layout != null)
+			return LineBuffer.acquire ();
+		StringBuilder sb = timestampFormatter.format (System.currentTimeMillis (),
+			LineBuffer.acquire ()).append (" ").append (levelString (level));
+		switch (callerLocation)
+		{
+			case CALLER_FULL:
+				if (frame == null)
+					frame = CallerLocator.callerFrame ();
+				if (frame != null)
+					sb.append (" ").append (frame.getClassName ()).append ("@")
+						.append (frame.getLineNumber ());
+				break;
+			case CALLER_CLASS:
+				if (caller == null)
+					caller = callerName ();
+				if (caller != null)
+					sb.append (" ").append (caller);
+				break;
+		}
+		return sb.append (": ");
+	}
+	
+	/**
+	 * Find the name of the calling class.
+	 *
+	 * @return the name of the calling class or <code>null</code> if unknown
 	 */
-	private static StringBuilder preMsg (int level, StackTraceElement ste)
+	private static String callerName ()
 	{
-		return new StringBuilder (dateformat.format (new Date ())).append (" ")
-			.append (levelString (level)).append (" ").append (ste.getClassName ())
-			.append ("@").append (ste.getLineNumber()).append (": ");
+		Class<?> caller = CallerLocator.callerClass ();
+		return caller == null ? null : caller.getName ();
 	}
 	
 	/**
@@ -630,7 +2705,7 @@ public class LOGGER
 	 * @param level the level
 	 * @return the string representation
 	 */
-	private static final String levelString (int level)
+	static final String levelString (int level)
 	{
 		switch (level)
 		{
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A LatencyHistogram records latencies in nanoseconds. The values are
+ * counted in log-linear buckets: every power of two is split into
+ * {@link #SUB_BUCKETS} buckets, so a percentile is reported with a relative
+ * error of less than 1/{@link #SUB_BUCKETS}, no matter how large the value.
+ * Recording a value neither allocates nor takes a lock.
+ * 
+ * @author martin scharm
+ */
+public final class LatencyHistogram
+{
+	
+	/** The bits used for the sub buckets. */
+	private static final int			SUB_BITS		= 4;
+	
+	/** The number of buckets per power of two. */
+	public static final int				SUB_BUCKETS	= 1 << SUB_BITS;
+	
+	/** The number of buckets. */
+	private static final int			BUCKETS			= (64 - SUB_BITS + 1) * SUB_BUCKETS;
+	
+	/** The counts per bucket. */
+	private final AtomicLongArray	counts			= new AtomicLongArray (BUCKETS);
+	
+	/** The number of recorded values. */
+	private final LongAdder				count				= new LongAdder ();
+	
+	/** The sum of the recorded values. */
+	private final LongAdder				sum					= new LongAdder ();
+	
+	/** The largest recorded value. */
+	private final LongAccumulator	max					= new LongAccumulator (Math::max, 0);
+	
+	
+	/**
+	 * Instantiates a new, empty histogram.
+	 */
+	LatencyHistogram ()
+	{
+	}
+	
+	
+	/**
+	 * Get the bucket of a value.
+	 *
+	 * @param value the value
+	 * @return the bucket
+	 */
+	static int bucket (long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros (value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+	
+	
+	/**
+	 * Get the largest value of a bucket.
+	 *
+	 * @param bucket the bucket
+	 * @return the largest value
+	 */
+	static long highestValue (int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		if (exponent == 63)
+			return Long.MAX_VALUE;
+		long sub = bucket % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+	
+	
+	/**
+	 * Record a latency.
+	 *
+	 * @param nanos the latency in nanoseconds
+	 */
+	void record (long nanos)
+	{
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet (bucket (nanos));
+		count.increment ();
+		sum.add (nanos);
+		max.accumulate (nanos);
+	}
+	
+	
+	/**
+	 * Gets the number of recorded latencies.
+	 *
+	 * @return the number of latencies
+	 */
+	public long getCount ()
+	{
+		return count.sum ();
+	}
+	
+	
+	/**
+	 * Gets the mean latency.
+	 *
+	 * @return the mean latency in nanoseconds, or 0 if nothing was recorded
+	 */
+	public double getMean ()
+	{
+		long n = count.sum ();
+		return n == 0 ? 0 : (double) sum.sum () / n;
+	}
+	
+	
+	/**
+	 * Gets the largest latency.
+	 *
+	 * @return the largest latency in nanoseconds
+	 */
+	public long getMax ()
+	{
+		return max.get ();
+	}
+	
+	
+	/**
+	 * Gets a percentile of the latencies, e.g. <code>getPercentile (99)</code>
+	 * returns a latency that is larger than 99% of the recorded latencies. The
+	 * result is the upper bound of the bucket containing the percentile, but
+	 * never larger than the largest latency.
+	 *
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the latency in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getPercentile (double percentile)
+	{
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			total += snapshot[i] = counts.get (i);
+		if (total == 0)
+			return 0;
+		long rank = Math.max (1, (long) Math.ceil (total * Math.min (100, Math.max (0, percentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min (highestValue (i), getMax ());
+		}
+		return getMax ();
+	}
+	
+	
+	/**
+	 * Forget all recorded latencies. Latencies recorded concurrently may be
+	 * partially lost.
+	 */
+	public void reset ()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set (i, 0);
+		count.reset ();
+		sum.reset ();
+		max.reset ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString ()
+	{
+		return "count=" + getCount () + " mean=" + (long) getMean () + "ns p50="
+			+ getPercentile (50) + "ns p99=" + getPercentile (99) + "ns max="
+			+ getMax () + "ns";
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.lang.StackWalker.StackFrame;
+
+
+/**
+ * A Layout renders a log message into the line that is written to the
+ * outputs. Without a layout the LOGGER writes its classic lines, that is
+ * <code>date LEVEL class@line: message</code>.
+ * 
+ * The LOGGER resolves the calling class and frame before the line is
+ * rendered, but only if the layout asks for them, so a layout that does not
+ * print the caller does not pay for the stack walk.
+ * 
+ * @author martin scharm
+ */
+abstract class Layout
+{
+	
+	/**
+	 * Does the layout print the calling class?
+	 *
+	 * @return true, if the calling class needs to be resolved
+	 */
+	abstract boolean needsClass ();
+	
+	
+	/**
+	 * Does the layout print the line number of the caller?
+	 *
+	 * @return true, if the calling frame needs to be resolved
+	 */
+	abstract boolean needsFrame ();
+	
+	
+	/**
+	 * Does the layout print the thrown exception itself? Otherwise the
+	 * exception is appended to the message, as in the classic lines.
+	 *
+	 * @return true, if the layout renders the exception
+	 */
+	abstract boolean rendersThrown ();
+	
+	
+	/**
+	 * Render a message.
+	 *
+	 * @param out the buffer to render the line into
+	 * @param millis the time of the message in milliseconds since the epoch
+	 * @param level the level
+	 * @param caller the name of the calling class, or <code>null</code> if
+	 *          unknown
+	 * @param frame the calling frame, or <code>null</code> if unknown
+	 * @param thrown the thrown exception, or <code>null</code>
+	 * @param context the diagnostic context of the logging thread
+	 * @param msg the buffer containing the formatted message
+	 * @param from the position of the message in <code>msg</code>
+	 */
+	abstract void render (StringBuilder out, long millis, int level,
+		String caller, StackFrame frame, Throwable thrown, MDC.Context context,
+		CharSequence msg, int from);
+	
+	
+	/**
+	 * Render a thrown exception as the classic lines do, i.e. its class and
+	 * message, followed by the stack trace if we're logging stack traces.
+	 *
+	 * @param out the buffer
+	 * @param thrown the thrown exception
+	 */
+	static void appendThrown (StringBuilder out, Throwable thrown)
+	{
+		MessageFormatter.appendException (out, thrown.getClass ().getName (),
+			thrown.getMessage ());
+		if (LOGGER.isLoggingStackTrace ())
+			StackTraceRenderer.append (out, thrown);
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The LevelConfig keeps the levels configured for classes and packages. The
+ * levels of a class are those of the closest configured name: the class
+ * itself, its enclosing classes, its packages from the innermost to the
+ * outermost, and finally the global level of the {@link LOGGER}.
+ * 
+ * The resolved levels are cached per class together with a generation
+ * number. Every change of the configuration (including changes of the global
+ * level) increments the generation, so stale cache entries are resolved
+ * again on their next use. The levels of the {@link ClassLogger}s are updated
+ * right away.
+ * 
+ * @author martin scharm
+ */
+final class LevelConfig
+{
+	
+	/** The configured levels by class or package name. */
+	private static final ConcurrentHashMap<String, Integer>	LEVELS	= new ConcurrentHashMap<String, Integer> ();
+	
+	/** The resolved levels per class: the generation in the upper 32 bits, the levels in the lower 32 bits. */
+	private static final ClassValue<AtomicLong>							CACHE		= new ClassValue<AtomicLong> ()
+	{
+		
+		protected AtomicLong computeValue (Class<?> type)
+		{
+			return new AtomicLong (-1L);
+		}
+	};
+	
+	/** The class loggers, whose levels need to be updated. */
+	private static final Set<ClassLogger>										LOGGERS	= Collections
+		.newSetFromMap (new WeakHashMap<ClassLogger, Boolean> ());
+	
+	/** The generation of the configuration. */
+	private static volatile int															generation;
+	
+	
+	/**
+	 * Not to be instantiated.
+	 */
+	private LevelConfig ()
+	{
+	}
+	
+	
+	/**
+	 * Set the levels of a class or package.
+	 *
+	 * @param name the name of the class or package
+	 * @param levels the levels
+	 */
+	static void set (String name, int levels)
+	{
+		LEVELS.put (name, levels);
+		invalidate ();
+	}
+	
+	
+	/**
+	 * Remove the levels of a class or package.
+	 *
+	 * @param name the name of the class or package
+	 */
+	static void remove (String name)
+	{
+		LEVELS.remove (name);
+		invalidate ();
+	}
+	
+	
+	/**
+	 * Remove the levels of all classes and packages.
+	 */
+	static void clear ()
+	{
+		LEVELS.clear ();
+		invalidate ();
+	}
+	
+	
+	/**
+	 * Invalidate the resolved levels. Needs to be called after the global
+	 * level was changed.
+	 */
+	static synchronized void invalidate ()
+	{
+		generation++;
+		int global = LOGGER.logLevel;
+		for (ClassLogger logger : LOGGERS)
+			logger.levels = resolve (logger.getName (), global);
+	}
+	
+	
+	/**
+	 * Register a class logger, whose levels need to be updated on changes.
+	 *
+	 * @param logger the logger
+	 */
+	static synchronized void register (ClassLogger logger)
+	{
+		logger.levels = resolve (logger.getName (), LOGGER.logLevel);
+		LOGGERS.add (logger);
+	}
+	
+	
+	/**
+	 * Are levels configured for any class or package?
+	 *
+	 * @return true, if there is at least one configured name
+	 */
+	static boolean isEmpty ()
+	{
+		return LEVELS.isEmpty ();
+	}
+	
+	
+	/**
+	 * Gets the union of all configured levels.
+	 *
+	 * @return the levels enabled for at least one class or package
+	 */
+	static int union ()
+	{
+		int union = 0;
+		for (int levels : LEVELS.values ())
+			union |= levels;
+		return union;
+	}
+	
+	
+	/**
+	 * Resolve the levels of a class or package name.
+	 *
+	 * @param name the name
+	 * @param global the global levels
+	 * @return the levels
+	 */
+	static int resolve (String name, int global)
+	{
+		while (true)
+		{
+			Integer levels = LEVELS.get (name);
+			if (levels != null)
+				return levels;
+			int parent = Math.max (name.lastIndexOf ('.'), name.lastIndexOf ('$'));
+			if (parent < 0)
+				return global;
+			name = name.substring (0, parent);
+		}
+	}
+	
+	
+	/**
+	 * Gets the levels of a class, using the cache.
+	 *
+	 * @param type the class, may be <code>null</code>
+	 * @return the levels
+	 */
+	static int levelsOf (Class<?> type)
+	{
+		// read the generation first, so a concurrent change is detected next time
+		int gen = generation;
+		if (type == null)
+			return LOGGER.logLevel;
+		AtomicLong cached = CACHE.get (type);
+		long value = cached.get ();
+		if ((int) (value >>> 32) == gen)
+			return (int) value;
+		int levels = resolve (type.getName (), LOGGER.logLevel);
+		cached.set (((long) gen << 32) | (levels & 0xFFFFFFFFL));
+		return levels;
+	}
+}
@@ -0,0 +1,503 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.lang.StackWalker.StackFrame;
+
+
+/**
+ * The LineBuffer provides every thread with a reusable string builder to
+ * assemble its log lines, so that a log call does not need to allocate a
+ * new buffer for every message. Likewise, it holds the {@link Args} of the
+ * log calls of the thread, so primitive arguments are passed on without
+ * boxing, and the caller that was found while checking the levels of a
+ * message, so the stack isn't walked again to locate the message.
+ * 
+ * Every thread owns {@link #BUFFERS_PER_THREAD} buffers and argument
+ * holders, so a line can be rendered into a second buffer, e.g. by a
+ * {@link Layout}. If a thread logs while all its buffers are in use (e.g. in
+ * the <code>toString ()</code> of an argument) it gets a fresh buffer, and
+ * buffers that grew very large are not retained.
+ * 
+ * @author martin scharm
+ */
+final class LineBuffer
+{
+	
+	/** The initial capacity of a buffer. */
+	static final int												INITIAL_CAPACITY	= 256;
+	
+	/** Buffers larger than this are dropped after use. */
+	static final int												MAX_RETAINED			= 16384;
+	
+	/** The number of reusable buffers per thread. */
+	static final int												BUFFERS_PER_THREAD	= 2;
+	
+	/**
+	 * The arguments of a log call: either a message format with up to
+	 * {@link #MAX_ARGS} arguments, which may be primitives, or the parts of a
+	 * message given as varargs, optionally with a thrown exception.
+	 */
+	static final class Args
+	{
+		
+		/** The maximum number of arguments of a format. */
+		static final int			MAX_ARGS	= 3;
+		
+		/** The kind of an argument that is an object. */
+		private static final byte	OBJECT		= 0;
+		
+		/** The kind of an argument that is a long. */
+		private static final byte	LONG		= 1;
+		
+		/** The kind of an argument that is a double. */
+		private static final byte	DOUBLE		= 2;
+		
+		/** The kind of an argument that is a char. */
+		private static final byte	CHAR		= 3;
+		
+		/** The object arguments. */
+		private final Object[]		objects		= new Object[MAX_ARGS];
+		
+		/** The primitive arguments, doubles as raw bits. */
+		private final long[]		values		= new long[MAX_ARGS];
+		
+		/** The kinds of the arguments. */
+		private final byte[]		kinds		= new byte[MAX_ARGS];
+		
+		/** The number of arguments. */
+		private int					count;
+		
+		/** The message format, or <code>null</code> if the message is given as parts. */
+		private String				format;
+		
+		/** The message parts, or <code>null</code> if the message has a format. */
+		private Object[]			parts;
+		
+		/** The thrown exception, or <code>null</code>. */
+		private Exception			thrown;
+		
+		/** The name of the calling class, or <code>null</code> if unknown. */
+		private String				caller;
+		
+		/** The calling frame, or <code>null</code> if unknown. */
+		private StackFrame			frame;
+		
+		/** Is this holder currently in use? */
+		private boolean				inUse;
+		
+		
+		/**
+		 * Append an argument.
+		 *
+		 * @param arg the argument
+		 * @return the arguments
+		 */
+		Args arg (Object arg)
+		{
+			objects[count] = arg;
+			kinds[count++] = OBJECT;
+			return this;
+		}
+		
+		
+		/**
+		 * Append an argument.
+		 *
+		 * @param arg the argument
+		 * @return the arguments
+		 */
+		Args arg (long arg)
+		{
+			values[count] = arg;
+			kinds[count++] = LONG;
+			return this;
+		}
+		
+		
+		/**
+		 * Append an argument.
+		 *
+		 * @param arg the argument
+		 * @return the arguments
+		 */
+		Args arg (double arg)
+		{
+			values[count] = Double.doubleToRawLongBits (arg);
+			kinds[count++] = DOUBLE;
+			return this;
+		}
+		
+		
+		/**
+		 * Append an argument.
+		 *
+		 * @param arg the argument
+		 * @return the arguments
+		 */
+		Args arg (char arg)
+		{
+			values[count] = arg;
+			kinds[count++] = CHAR;
+			return this;
+		}
+		
+		
+		/**
+		 * Gets the thrown exception.
+		 *
+		 * @return the exception, or <code>null</code>
+		 */
+		Exception getThrown ()
+		{
+			return thrown;
+		}
+		
+		
+		/**
+		 * Gets the name of the calling class, if it was found while checking
+		 * the levels.
+		 *
+		 * @return the name, or <code>null</code> if unknown
+		 */
+		String getCaller ()
+		{
+			return caller;
+		}
+		
+		
+		/**
+		 * Gets the calling frame, if it was found while checking the levels.
+		 *
+		 * @return the frame, or <code>null</code> if unknown
+		 */
+		StackFrame getFrame ()
+		{
+			return frame;
+		}
+		
+		
+		/**
+		 * Gets the number of values that make up the message, i.e. the format
+		 * and its arguments, or the parts.
+		 *
+		 * @return the number of values
+		 */
+		int size ()
+		{
+			if (format != null)
+				return count + 1;
+			return parts == null ? 0 : parts.length;
+		}
+		
+		
+		/**
+		 * Append the message to a binary event. The format is stored as
+		 * template, as is the first part of a message given as parts if it is a
+		 * String followed by arguments.
+		 *
+		 * @param event the event
+		 * @return the event
+		 */
+		BinaryEvent appendTo (BinaryEvent event)
+		{
+			if (format == null)
+			{
+				if (parts != null)
+					for (int i = 0; i < parts.length; i++)
+						if (i == 0 && parts.length > 1 && parts[0] instanceof String)
+							event.template ((String) parts[0]);
+						else
+							event.arg (parts[i]);
+				return event;
+			}
+			event.template (format);
+			for (int i = 0; i < count; i++)
+				switch (kinds[i])
+				{
+					case LONG:
+						event.arg (values[i]);
+						break;
+					case DOUBLE:
+						event.arg (Double.longBitsToDouble (values[i]));
+						break;
+					case CHAR:
+						event.arg ((char) values[i]);
+						break;
+					default:
+						event.arg (objects[i]);
+				}
+			return event;
+		}
+		
+		
+		/**
+		 * Format the message.
+		 *
+		 * @param sb the string builder to append the message to
+		 */
+		void format (StringBuilder sb)
+		{
+			if (format == null)
+			{
+				MessageFormatter.format (sb, parts);
+				return;
+			}
+			int pos = 0;
+			for (int i = 0; i < count; i++)
+			{
+				pos = MessageFormatter.appendUntilPlaceholder (sb, format, pos);
+				switch (kinds[i])
+				{
+					case LONG:
+						sb.append (values[i]);
+						break;
+					case DOUBLE:
+						sb.append (Double.longBitsToDouble (values[i]));
+						break;
+					case CHAR:
+						sb.append ((char) values[i]);
+						break;
+					default:
+						sb.append (objects[i]);
+				}
+			}
+			MessageFormatter.appendRest (sb, format, pos);
+		}
+		
+		
+		/**
+		 * Forget the message, so the holder doesn't keep its arguments alive.
+		 */
+		private void clear ()
+		{
+			for (int i = 0; i < count; i++)
+				objects[i] = null;
+			count = 0;
+			format = null;
+			parts = null;
+			thrown = null;
+			caller = null;
+			frame = null;
+		}
+	}
+	
+	/** The buffers of the threads. */
+	private static final ThreadLocal<LineBuffer>	BUFFERS						= ThreadLocal
+		.withInitial (LineBuffer::new);
+	
+	/** Should we reuse the buffers? */
+	private static volatile boolean								reuse							= true;
+	
+	/** The buffers. */
+	private final StringBuilder[]										buffers						= new StringBuilder[BUFFERS_PER_THREAD];
+	
+	/** Is a buffer currently in use? */
+	private final boolean[]													inUse							= new boolean[BUFFERS_PER_THREAD];
+	
+	/** The argument holders. */
+	private final Args[]														args							= new Args[BUFFERS_PER_THREAD];
+	
+	/** The caller of the next log call, or <code>null</code>. */
+	private String																	nextCaller;
+	
+	/** The calling frame of the next log call, or <code>null</code>. */
+	private StackFrame															nextFrame;
+	
+	
+	/**
+	 * Instantiates the buffers of a thread.
+	 */
+	private LineBuffer ()
+	{
+		for (int i = 0; i < BUFFERS_PER_THREAD; i++)
+		{
+			buffers[i] = new StringBuilder (INITIAL_CAPACITY);
+			args[i] = new Args ();
+		}
+	}
+	
+	
+	/**
+	 * Should threads reuse their buffers?
+	 *
+	 * @param reuseBuffers reuse buffers?
+	 */
+	static void setReuse (boolean reuseBuffers)
+	{
+		reuse = reuseBuffers;
+	}
+	
+	
+	/**
+	 * Do threads reuse their buffers?
+	 *
+	 * @return true, if buffers are reused
+	 */
+	static boolean isReuse ()
+	{
+		return reuse;
+	}
+	
+	
+	/**
+	 * Acquire an empty buffer. Needs to be released after use using
+	 * {@link #release(StringBuilder)}.
+	 *
+	 * @return the buffer
+	 */
+	static StringBuilder acquire ()
+	{
+		if (!reuse)
+			return new StringBuilder (INITIAL_CAPACITY);
+		
+		LineBuffer lb = BUFFERS.get ();
+		for (int i = 0; i < BUFFERS_PER_THREAD; i++)
+			if (!lb.inUse[i])
+			{
+				lb.inUse[i] = true;
+				lb.buffers[i].setLength (0);
+				return lb.buffers[i];
+			}
+		return new StringBuilder (INITIAL_CAPACITY);
+	}
+	
+	
+	/**
+	 * Release a buffer that was acquired by the current thread.
+	 *
+	 * @param sb the buffer
+	 */
+	static void release (StringBuilder sb)
+	{
+		LineBuffer lb = BUFFERS.get ();
+		for (int i = 0; i < BUFFERS_PER_THREAD; i++)
+			if (lb.buffers[i] == sb)
+			{
+				lb.inUse[i] = false;
+				if (sb.capacity () > MAX_RETAINED)
+					lb.buffers[i] = new StringBuilder (INITIAL_CAPACITY);
+				return;
+			}
+	}
+	
+	
+	/**
+	 * Acquire an empty argument holder. Needs to be released after use using
+	 * {@link #release(Args)}.
+	 *
+	 * @return the argument holder
+	 */
+	private static Args acquireArgs ()
+	{
+		LineBuffer lb = BUFFERS.get ();
+		Args a = null;
+		if (reuse)
+			for (int i = 0; i < BUFFERS_PER_THREAD && a == null; i++)
+				if (!lb.args[i].inUse)
+				{
+					a = lb.args[i];
+					a.inUse = true;
+				}
+		if (a == null)
+			a = new Args ();
+		a.caller = lb.nextCaller;
+		a.frame = lb.nextFrame;
+		lb.nextCaller = null;
+		lb.nextFrame = null;
+		return a;
+	}
+	
+	
+	/**
+	 * Remember the caller of the next log call of the current thread. It is
+	 * passed to the arguments acquired next, which should be right away.
+	 *
+	 * @param caller the name of the calling class
+	 * @param frame the calling frame, or <code>null</code> if unknown
+	 */
+	static void setNextCaller (String caller, StackFrame frame)
+	{
+		LineBuffer lb = BUFFERS.get ();
+		lb.nextCaller = caller;
+		lb.nextFrame = frame;
+	}
+	
+	
+	/**
+	 * Acquire the arguments of a message with a format. Append the arguments
+	 * using <code>arg</code>; the holder needs to be released after use using
+	 * {@link #release(Args)}.
+	 *
+	 * @param format the message format
+	 * @return the argument holder
+	 */
+	static Args args (String format)
+	{
+		Args a = acquireArgs ();
+		a.format = format;
+		return a;
+	}
+	
+	
+	/**
+	 * Acquire the arguments of a message given as parts. The holder needs to
+	 * be released after use using {@link #release(Args)}.
+	 *
+	 * @param parts the message parts
+	 * @param thrown the thrown exception, or <code>null</code>
+	 * @return the argument holder
+	 */
+	static Args args (Object[] parts, Exception thrown)
+	{
+		Args a = acquireArgs ();
+		a.parts = parts;
+		a.thrown = thrown;
+		return a;
+	}
+	
+	
+	/**
+	 * Release an argument holder that was acquired by the current thread.
+	 *
+	 * @param a the argument holder
+	 */
+	static void release (Args a)
+	{
+		a.clear ();
+		a.inUse = false;
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.time.Instant;
+
+/**
+ * A LogEvent is a logged message together with its level, time, thread,
+ * calling class, thrown exception, and diagnostic context. Events are immutable.
+ * 
+ * An event is only created if a callback is interested in its level. The
+ * line is rendered once, exactly as it is written to the other outputs, and
+ * shared by all callbacks. The message without the preamble is extracted
+ * from the line only when it is asked for.
+ * 
+ * @author martin scharm
+ */
+public final class LogEvent
+{
+	
+	/** The level. */
+	private final int					level;
+	
+	/** The time the message was logged, in nanoseconds since the epoch. */
+	private final long				epochNanos;
+	
+	/** The name of the logging thread. */
+	private final String			thread;
+	
+	/** The name of the calling class, or <code>null</code>. */
+	private final String			caller;
+	
+	/** The thrown exception, or <code>null</code>. */
+	private final Throwable		thrown;
+	
+	/** The diagnostic context of the logging thread. */
+	private final MDC.Context	context;
+	
+	/** The rendered line. */
+	private final String			line;
+	
+	/** The position in the line after the preamble. */
+	private final int					body;
+	
+	/** The message, or <code>null</code> if it is extracted from the line. */
+	private final String			message;
+	
+	
+	/**
+	 * Instantiates a new event.
+	 *
+	 * @param level the level
+	 * @param epochNanos the time the message was logged, in nanoseconds since
+	 *          the epoch
+	 * @param thread the name of the logging thread
+	 * @param caller the name of the calling class, or <code>null</code>
+	 * @param thrown the thrown exception, or <code>null</code>
+	 * @param context the diagnostic context of the logging thread
+	 * @param line the rendered line
+	 * @param body the position in the line after the preamble
+	 */
+	LogEvent (int level, long epochNanos, String thread, String caller,
+		Throwable thrown, MDC.Context context, String line, int body)
+	{
+		this (level, epochNanos, thread, caller, thrown, context, line, body, null);
+	}
+	
+	
+	/**
+	 * Instantiates a new event whose line was rendered by a {@link Layout}, so
+	 * the message cannot be extracted from the line.
+	 *
+	 * @param level the level
+	 * @param epochNanos the time the message was logged, in nanoseconds since
+	 *          the epoch
+	 * @param thread the name of the logging thread
+	 * @param caller the name of the calling class, or <code>null</code>
+	 * @param thrown the thrown exception, or <code>null</code>
+	 * @param context the diagnostic context of the logging thread
+	 * @param line the rendered line
+	 * @param message the message
+	 */
+	LogEvent (int level, long epochNanos, String thread, String caller,
+		Throwable thrown, MDC.Context context, String line, String message)
+	{
+		this (level, epochNanos, thread, caller, thrown, context, line, 0, message);
+	}
+	
+	
+	/**
+	 * Instantiates a new event.
+	 *
+	 * @param level the level
+	 * @param epochNanos the time the message was logged, in nanoseconds since
+	 *          the epoch
+	 * @param thread the name of the logging thread
+	 * @param caller the name of the calling class, or <code>null</code>
+	 * @param thrown the thrown exception, or <code>null</code>
+	 * @param context the diagnostic context of the logging thread
+	 * @param line the rendered line
+	 * @param body the position in the line after the preamble
+	 * @param message the message, or <code>null</code> to extract it from the
+	 *          line
+	 */
+	private LogEvent (int level, long epochNanos, String thread, String caller,
+		Throwable thrown, MDC.Context context, String line, int body,
+		String message)
+	{
+		this.level = level;
+		this.epochNanos = epochNanos;
+		this.thread = thread;
+		this.caller = caller;
+		this.thrown = thrown;
+		this.context = context;
+		this.line = line;
+		this.body = body;
+		this.message = message;
+	}
+	
+	
+	/**
+	 * Get the current time.
+	 *
+	 * @return the time in nanoseconds since the epoch
+	 */
+	static long now ()
+	{
+		Instant now = Instant.now ();
+		return now.getEpochSecond () * 1000000000L + now.getNano ();
+	}
+	
+	
+	/**
+	 * Gets the level, e.g. <code>LOGGER.ERROR</code>.
+	 *
+	 * @return the level
+	 */
+	public int getLevel ()
+	{
+		return level;
+	}
+	
+	
+	/**
+	 * Gets the time the message was logged.
+	 *
+	 * @return the time in milliseconds since the epoch
+	 */
+	public long getTimestamp ()
+	{
+		return epochNanos / 1000000L;
+	}
+	
+	
+	/**
+	 * Gets the time the message was logged, as precise as the clock of the
+	 * system.
+	 *
+	 * @return the time in nanoseconds since the epoch
+	 */
+	public long getEpochNanos ()
+	{
+		return epochNanos;
+	}
+	
+	
+	/**
+	 * Gets the name of the thread that logged the message.
+	 *
+	 * @return the name of the thread
+	 */
+	public String getThread ()
+	{
+		return thread;
+	}
+	
+	
+	/**
+	 * Gets the name of the class that logged the message. The class is not
+	 * known if the caller location is <code>LOGGER.CALLER_OFF</code>, unless
+	 * the message was logged using a {@link ClassLogger}.
+	 *
+	 * @return the name of the calling class, or <code>null</code> if unknown
+	 */
+	public String getCaller ()
+	{
+		return caller;
+	}
+	
+	
+	/**
+	 * Gets the exception that was passed to the logger.
+	 *
+	 * @return the exception, or <code>null</code> if there is none
+	 */
+	public Throwable getThrown ()
+	{
+		return thrown;
+	}
+	
+	
+	/**
+	 * Gets the diagnostic context of the thread that logged the message.
+	 *
+	 * @return the context, empty if there was none
+	 */
+	public MDC.Context getContext ()
+	{
+		return context;
+	}
+	
+	
+	/**
+	 * Gets the line, as it is written to the log file.
+	 *
+	 * @return the line
+	 */
+	public String getLine ()
+	{
+		return line;
+	}
+	
+	
+	/**
+	 * Gets the message without the preamble, i.e. without the time stamp, the
+	 * level, and the caller location, or whatever else the layout adds. Unless
+	 * a layout rendered the line, the message is cut from the line on every
+	 * call.
+	 *
+	 * @return the message
+	 */
+	public String getMessage ()
+	{
+		return message != null ? message : line.substring (body);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString ()
+	{
+		return line;
+	}
+}
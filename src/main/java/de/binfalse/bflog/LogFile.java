@@ -0,0 +1,324 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The LogFile serialises the writes to a {@link FileSink} and decides when
+ * written lines are flushed to the file and, optionally, forced to the
+ * storage device.
+ * 
+ * Flushing is done as a group commit: a writer that needs its line to be
+ * committed flushes everything written so far, while other writers continue
+ * to append. Writers that wait for a commit in progress find their lines
+ * committed as well and return without flushing again. Thus, many concurrent
+ * writers share a single flush and <code>fsync</code>.
+ * 
+ * The locks are <code>ReentrantLock</code>s rather than monitors, so virtual
+ * threads that wait for a write or a commit do not pin their carrier
+ * threads.
+ * 
+ * @author martin scharm
+ */
+class LogFile
+{
+	
+	/** The sink writing to the file. */
+	private final FileSink									sink;
+	
+	/** Commit after this number of lines, 0 to disable. */
+	private final int												flushLines;
+	
+	/** Commit lines of these levels immediately. */
+	private final int												flushLevels;
+	
+	/** Should we force committed lines to the storage device? */
+	private final boolean										sync;
+	
+	/** Commits periodically, if a flush interval is defined. */
+	private final ScheduledExecutorService	timer;
+	
+	/** The lock guarding writes to the sink. */
+	private final ReentrantLock							writeLock		= new ReentrantLock ();
+	
+	/** The lock serialising the commits. */
+	private final ReentrantLock							commitLock	= new ReentrantLock ();
+	
+	/** The number of lines written. */
+	private volatile long										written;
+	
+	/** The number of lines committed. */
+	private volatile long										committed;
+	
+	/** Is the file closed? */
+	private boolean													closed;
+	
+	
+	/**
+	 * Instantiates a new log file.
+	 *
+	 * @param sink the sink writing to the file
+	 * @param flushLines commit after this number of lines, 0 to disable
+	 * @param flushMillis commit at this interval in milliseconds, 0 to disable
+	 * @param flushLevels commit lines of these levels immediately
+	 * @param sync should we force committed lines to the storage device?
+	 */
+	LogFile (FileSink sink, int flushLines, long flushMillis, int flushLevels,
+		boolean sync)
+	{
+		this.sink = sink;
+		this.flushLines = flushLines;
+		this.flushLevels = flushLevels;
+		this.sync = sync;
+		if (flushMillis > 0)
+		{
+			timer = Executors.newSingleThreadScheduledExecutor (runnable -> {
+				Thread thread = new Thread (runnable, "BFLog-flush");
+				thread.setDaemon (true);
+				return thread;
+			});
+			timer.scheduleWithFixedDelay ( () -> {
+				try
+				{
+					commit (written);
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace ();
+				}
+			}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+		}
+		else
+			timer = null;
+	}
+	
+	
+	/**
+	 * Write a line and commit it, if the flush policy asks for it.
+	 *
+	 * @param level the level of the line
+	 * @param line the line
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void write (int level, CharSequence line) throws IOException
+	{
+		long seq;
+		writeLock.lock ();
+		try
+		{
+			if (closed)
+				return;
+			long size = sink.size ();
+			sink.write (line);
+			seq = ++written;
+			written (size);
+		}
+		finally
+		{
+			writeLock.unlock ();
+		}
+		written (level, seq);
+	}
+	
+	
+	/**
+	 * Write a binary event and commit it, if the flush policy asks for it.
+	 * Ignored if this is not a binary log file.
+	 *
+	 * @param level the level of the event
+	 * @param event the event
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void write (int level, BinaryEvent event) throws IOException
+	{
+		if (!isBinary ())
+			return;
+		long seq;
+		writeLock.lock ();
+		try
+		{
+			if (closed)
+				return;
+			long size = sink.size ();
+			((BinaryFileSink) sink).write (event);
+			seq = ++written;
+			written (size);
+		}
+		finally
+		{
+			writeLock.unlock ();
+		}
+		written (level, seq);
+	}
+	
+	
+	/**
+	 * Count the bytes of a line that was just written. A rolling sink may have
+	 * started a new file, which then contains only that line.
+	 *
+	 * @param before the size of the file before the line was written
+	 */
+	private void written (long before)
+	{
+		long after = sink.size ();
+		LOGGER.metrics.written (after >= before ? after - before : after);
+	}
+	
+	
+	/**
+	 * Commit a line that was just written, if the flush policy asks for it.
+	 *
+	 * @param level the level of the line
+	 * @param seq the number of the line
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void written (int level, long seq) throws IOException
+	{
+		if ((level & flushLevels) > 0
+			|| (flushLines > 0 && seq - committed >= flushLines))
+			commit (seq);
+	}
+	
+	
+	/**
+	 * Is this a binary log file?
+	 *
+	 * @return true, if events are written in the binary format
+	 */
+	boolean isBinary ()
+	{
+		return sink instanceof BinaryFileSink;
+	}
+	
+	
+	/**
+	 * Commit all lines up to the given one. Returns immediately if another
+	 * writer already committed them.
+	 *
+	 * @param seq the number of the last line that needs to be committed
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void commit (long seq) throws IOException
+	{
+		commitLock.lock ();
+		try
+		{
+			if (committed >= seq)
+				return;
+			long target;
+			writeLock.lock ();
+			try
+			{
+				if (closed)
+					return;
+				sink.flush ();
+				target = written;
+			}
+			finally
+			{
+				writeLock.unlock ();
+			}
+			// writers may continue while we're waiting for the device
+			if (sync)
+				sink.sync ();
+			committed = target;
+		}
+		finally
+		{
+			commitLock.unlock ();
+		}
+	}
+	
+	
+	/**
+	 * Gets the number of lines written.
+	 *
+	 * @return the number of lines written
+	 */
+	long getWritten ()
+	{
+		return written;
+	}
+	
+	
+	/**
+	 * Gets the number of lines committed.
+	 *
+	 * @return the number of lines committed
+	 */
+	long getCommitted ()
+	{
+		return committed;
+	}
+	
+	
+	/**
+	 * Flush and close the file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void close () throws IOException
+	{
+		if (timer != null)
+			timer.shutdownNow ();
+		commitLock.lock ();
+		writeLock.lock ();
+		try
+		{
+			if (closed)
+				return;
+			closed = true;
+			if (sync)
+			{
+				sink.flush ();
+				sink.sync ();
+			}
+			sink.close ();
+			committed = written;
+		}
+		finally
+		{
+			writeLock.unlock ();
+			commitLock.unlock ();
+		}
+	}
+}
@@ -0,0 +1,448 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * The LogMetrics count the logged and dropped messages and the bytes written
+ * to log files, and measure the latencies of the outputs, so you can tell
+ * when logging becomes a bottleneck. Get them using
+ * <code>LOGGER.getMetrics ()</code>, or register them as an MBean using
+ * <code>LOGGER.registerMBean ()</code>.
+ * 
+ * The counters are striped, so counting is cheap even if many threads log
+ * concurrently. Measuring the latencies costs two calls to
+ * <code>System.nanoTime ()</code> per output and message, so it is disabled
+ * by default.
+ * 
+ * @author martin scharm
+ */
+public final class LogMetrics
+	implements LogMetricsMBean
+{
+	
+	/** Output: std::out. */
+	public static final int							STDOUT						= 0;
+	
+	/** Output: std::err. */
+	public static final int							STDERR						= 1;
+	
+	/** Output: the log file. */
+	public static final int							FILE							= 2;
+	
+	/** Output: all callbacks. */
+	public static final int							CALLBACKS					= 3;
+	
+	/** The logged messages per level. */
+	private final LongAdder[]						logged						= new LongAdder[Sampler.LEVELS];
+	
+	/** The bytes written to log files. */
+	private final LongAdder							bytesWritten			= new LongAdder ();
+	
+	/** Messages dropped because the async buffer was full. */
+	private final LongAdder							asyncDropped			= new LongAdder ();
+	
+	/** Messages dropped by the rate limiter. */
+	private final LongAdder							rateLimited				= new LongAdder ();
+	
+	/** Messages dropped as duplicates. */
+	private final LongAdder							duplicates				= new LongAdder ();
+	
+	/** Messages dropped by the sampler. */
+	private final LongAdder							sampledOut				= new LongAdder ();
+	
+	/** The latencies per output. */
+	private final LatencyHistogram[]		latencies					= new LatencyHistogram[4];
+	
+	/** Should we measure latencies? */
+	private volatile boolean						measuringLatency	= false;
+	
+	
+	/**
+	 * Instantiates new metrics.
+	 */
+	LogMetrics ()
+	{
+		for (int i = 0; i < logged.length; i++)
+			logged[i] = new LongAdder ();
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = new LatencyHistogram ();
+	}
+	
+	
+	/**
+	 * Count a logged message.
+	 *
+	 * @param level the level
+	 */
+	void logged (int level)
+	{
+		logged[Sampler.index (level)].increment ();
+	}
+	
+	
+	/**
+	 * Count bytes written to a log file.
+	 *
+	 * @param bytes the number of bytes
+	 */
+	void written (long bytes)
+	{
+		bytesWritten.add (bytes);
+	}
+	
+	
+	/**
+	 * Count a message dropped because the async buffer was full.
+	 */
+	void asyncDropped ()
+	{
+		asyncDropped.increment ();
+	}
+	
+	
+	/**
+	 * Count a message dropped by the rate limiter.
+	 */
+	void rateLimited ()
+	{
+		rateLimited.increment ();
+	}
+	
+	
+	/**
+	 * Count a message dropped as duplicate.
+	 */
+	void duplicate ()
+	{
+		duplicates.increment ();
+	}
+	
+	
+	/**
+	 * Count a message dropped by the sampler.
+	 */
+	void sampledOut ()
+	{
+		sampledOut.increment ();
+	}
+	
+	
+	/**
+	 * Start measuring a latency.
+	 *
+	 * @return the current time in nanoseconds, or 0 if latencies aren't
+	 *         measured
+	 */
+	long start ()
+	{
+		return measuringLatency ? System.nanoTime () : 0;
+	}
+	
+	
+	/**
+	 * Record the latency of an output.
+	 *
+	 * @param output the output, e.g. {@link #FILE}
+	 * @param start the time returned by {@link #start()}
+	 */
+	void stop (int output, long start)
+	{
+		if (start != 0)
+			latencies[output].record (System.nanoTime () - start);
+	}
+	
+	
+	/**
+	 * Gets the number of logged messages of a level.
+	 *
+	 * @param level the level, e.g. <code>LOGGER.ERROR</code>
+	 * @return the number of messages
+	 */
+	public long getLogged (int level)
+	{
+		return logged[Sampler.index (level)].sum ();
+	}
+	
+	
+	/**
+	 * Gets the latencies of an output.
+	 *
+	 * @param output the output, one of {@link #STDOUT}, {@link #STDERR},
+	 *          {@link #FILE}, or {@link #CALLBACKS}
+	 * @return the latencies
+	 */
+	public LatencyHistogram getLatency (int output)
+	{
+		return latencies[output];
+	}
+	
+	
+	/**
+	 * Gets the latencies of a callback.
+	 *
+	 * @param callback the callback
+	 * @return the latencies, or <code>null</code> if the callback isn't
+	 *         registered
+	 */
+	public LatencyHistogram getLatency (LogCallback callback)
+	{
+		return LOGGER.callbackLatency (callback);
+	}
+	
+	
+	/**
+	 * Gets the latencies of handing messages to a batch callback.
+	 *
+	 * @param callback the callback
+	 * @return the latencies, or <code>null</code> if the callback isn't
+	 *         registered
+	 */
+	public LatencyHistogram getLatency (BatchLogCallback callback)
+	{
+		return LOGGER.callbackLatency (callback);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getErrors()
+	 */
+	public long getErrors ()
+	{
+		return getLogged (LOGGER.ERROR);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getWarnings()
+	 */
+	public long getWarnings ()
+	{
+		return getLogged (LOGGER.WARN);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getInfos()
+	 */
+	public long getInfos ()
+	{
+		return getLogged (LOGGER.INFO);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getDebugs()
+	 */
+	public long getDebugs ()
+	{
+		return getLogged (LOGGER.DEBUG);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getBytesWritten()
+	 */
+	public long getBytesWritten ()
+	{
+		return bytesWritten.sum ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getDropped()
+	 */
+	public long getDropped ()
+	{
+		return getAsyncDropped () + getRateLimited () + getDuplicates ()
+			+ getSampledOut ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getAsyncDropped()
+	 */
+	public long getAsyncDropped ()
+	{
+		return asyncDropped.sum ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getRateLimited()
+	 */
+	public long getRateLimited ()
+	{
+		return rateLimited.sum ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getDuplicates()
+	 */
+	public long getDuplicates ()
+	{
+		return duplicates.sum ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getSampledOut()
+	 */
+	public long getSampledOut ()
+	{
+		return sampledOut.sum ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getStdOutLatency99()
+	 */
+	public long getStdOutLatency99 ()
+	{
+		return latencies[STDOUT].getPercentile (99);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getStdErrLatency99()
+	 */
+	public long getStdErrLatency99 ()
+	{
+		return latencies[STDERR].getPercentile (99);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getFileLatency99()
+	 */
+	public long getFileLatency99 ()
+	{
+		return latencies[FILE].getPercentile (99);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getFileLatencyMax()
+	 */
+	public long getFileLatencyMax ()
+	{
+		return latencies[FILE].getMax ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#getCallbacksLatency99()
+	 */
+	public long getCallbacksLatency99 ()
+	{
+		return latencies[CALLBACKS].getPercentile (99);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#isMeasuringLatency()
+	 */
+	public boolean isMeasuringLatency ()
+	{
+		return measuringLatency;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#setMeasuringLatency(boolean)
+	 */
+	public void setMeasuringLatency (boolean measure)
+	{
+		measuringLatency = measure;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.LogMetricsMBean#reset()
+	 */
+	public void reset ()
+	{
+		for (LongAdder adder : logged)
+			adder.reset ();
+		bytesWritten.reset ();
+		asyncDropped.reset ();
+		rateLimited.reset ();
+		duplicates.reset ();
+		sampledOut.reset ();
+		for (LatencyHistogram histogram : latencies)
+			histogram.reset ();
+		LOGGER.resetCallbackLatencies ();
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+
+/**
+ * The management interface of the {@link LogMetrics}, registered using
+ * <code>LOGGER.registerMBean ()</code>. Latencies are given in nanoseconds.
+ * 
+ * @author martin scharm
+ */
+public interface LogMetricsMBean
+{
+	
+	/**
+	 * Gets the number of logged errors.
+	 *
+	 * @return the number of errors
+	 */
+	long getErrors ();
+	
+	
+	/**
+	 * Gets the number of logged warnings.
+	 *
+	 * @return the number of warnings
+	 */
+	long getWarnings ();
+	
+	
+	/**
+	 * Gets the number of logged infos.
+	 *
+	 * @return the number of infos
+	 */
+	long getInfos ();
+	
+	
+	/**
+	 * Gets the number of logged debug messages.
+	 *
+	 * @return the number of debug messages
+	 */
+	long getDebugs ();
+	
+	
+	/**
+	 * Gets the number of bytes written to log files.
+	 *
+	 * @return the number of bytes
+	 */
+	long getBytesWritten ();
+	
+	
+	/**
+	 * Gets the number of messages that were dropped for any reason.
+	 *
+	 * @return the number of dropped messages
+	 */
+	long getDropped ();
+	
+	
+	/**
+	 * Gets the number of messages dropped because the async buffer was full.
+	 *
+	 * @return the number of dropped messages
+	 */
+	long getAsyncDropped ();
+	
+	
+	/**
+	 * Gets the number of messages dropped by the rate limiter.
+	 *
+	 * @return the number of dropped messages
+	 */
+	long getRateLimited ();
+	
+	
+	/**
+	 * Gets the number of messages dropped because they repeated the previous
+	 * message of their call site.
+	 *
+	 * @return the number of dropped messages
+	 */
+	long getDuplicates ();
+	
+	
+	/**
+	 * Gets the number of messages dropped by the sampler.
+	 *
+	 * @return the number of dropped messages
+	 */
+	long getSampledOut ();
+	
+	
+	/**
+	 * Gets the 99th percentile of the latency of writing to std::out.
+	 *
+	 * @return the latency in nanoseconds
+	 */
+	long getStdOutLatency99 ();
+	
+	
+	/**
+	 * Gets the 99th percentile of the latency of writing to std::err.
+	 *
+	 * @return the latency in nanoseconds
+	 */
+	long getStdErrLatency99 ();
+	
+	
+	/**
+	 * Gets the 99th percentile of the latency of writing to the log file.
+	 *
+	 * @return the latency in nanoseconds
+	 */
+	long getFileLatency99 ();
+	
+	
+	/**
+	 * Gets the largest latency of writing to the log file.
+	 *
+	 * @return the latency in nanoseconds
+	 */
+	long getFileLatencyMax ();
+	
+	
+	/**
+	 * Gets the 99th percentile of the latency of calling the callbacks.
+	 *
+	 * @return the latency in nanoseconds
+	 */
+	long getCallbacksLatency99 ();
+	
+	
+	/**
+	 * Are latencies measured?
+	 *
+	 * @return true, if latencies are measured
+	 */
+	boolean isMeasuringLatency ();
+	
+	
+	/**
+	 * Start or stop measuring latencies.
+	 *
+	 * @param measure should we measure latencies?
+	 */
+	void setMeasuringLatency (boolean measure);
+	
+	
+	/**
+	 * Reset all counters and histograms.
+	 */
+	void reset ();
+}
@@ -0,0 +1,440 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * The MDC (mapped diagnostic context) attaches key-value pairs, such as a
+ * request id, to all messages logged by a thread. The context is rendered by
+ * the <code>%X</code> conversion of the pattern layout and by the JSON
+ * layout, and every {@link LogEvent} carries the context of its thread.
+ * 
+ * <pre>
+ * MDC.put (&quot;request&quot;, requestId);
+ * try
+ * {
+ * 	LOGGER.info (&quot;handling request&quot;);
+ * }
+ * finally
+ * {
+ * 	MDC.remove (&quot;request&quot;);
+ * }
+ * </pre>
+ * 
+ * The context of a thread is an immutable {@link Context}, which is
+ * replaced on every change. Capturing the context, e.g. for an event that is
+ * logged asynchronously, thus only needs to copy a reference. Tasks that are
+ * passed to other threads can take the context of the submitting thread
+ * with them using the <code>wrap</code> methods, e.g. to propagate it into
+ * virtual threads:
+ * 
+ * <pre>
+ * ThreadFactory factory = MDC.wrapThreadFactory (Thread.ofVirtual ().factory ());
+ * ExecutorService executor = Executors.newThreadPerTaskExecutor (factory);
+ * </pre>
+ * 
+ * @author martin scharm
+ */
+public final class MDC
+{
+	
+	/**
+	 * An immutable snapshot of a diagnostic context. The entries are stored
+	 * in a single array of alternating keys and values, in the order they
+	 * were put.
+	 */
+	public static final class Context
+	{
+		
+		/** The keys and values. */
+		private final String[]	entries;
+		
+		
+		/**
+		 * Instantiates a new context.
+		 *
+		 * @param entries the alternating keys and values
+		 */
+		private Context (String[] entries)
+		{
+			this.entries = entries;
+		}
+		
+		
+		/**
+		 * Find the position of a key.
+		 *
+		 * @param key the key
+		 * @return the position of the key in <code>entries</code>, or -1 if
+		 *         there is no such key
+		 */
+		private int indexOf (String key)
+		{
+			for (int i = 0; i < entries.length; i += 2)
+				if (entries[i].equals (key))
+					return i;
+			return -1;
+		}
+		
+		
+		/**
+		 * Get a context that maps <code>key</code> to <code>value</code>.
+		 *
+		 * @param key the key
+		 * @param value the value
+		 * @return the new context
+		 */
+		private Context with (String key, String value)
+		{
+			int i = indexOf (key);
+			if (i >= 0)
+			{
+				if (entries[i + 1].equals (value))
+					return this;
+				String[] copy = entries.clone ();
+				copy[i + 1] = value;
+				return new Context (copy);
+			}
+			String[] copy = new String[entries.length + 2];
+			System.arraycopy (entries, 0, copy, 0, entries.length);
+			copy[entries.length] = key;
+			copy[entries.length + 1] = value;
+			return new Context (copy);
+		}
+		
+		
+		/**
+		 * Get a context without <code>key</code>.
+		 *
+		 * @param key the key
+		 * @return the new context
+		 */
+		private Context without (String key)
+		{
+			int i = indexOf (key);
+			if (i < 0)
+				return this;
+			if (entries.length == 2)
+				return EMPTY;
+			String[] copy = new String[entries.length - 2];
+			System.arraycopy (entries, 0, copy, 0, i);
+			System.arraycopy (entries, i + 2, copy, i, copy.length - i);
+			return new Context (copy);
+		}
+		
+		
+		/**
+		 * Get the value of a key.
+		 *
+		 * @param key the key
+		 * @return the value, or <code>null</code> if the key is not in the
+		 *         context
+		 */
+		public String get (String key)
+		{
+			int i = indexOf (key);
+			return i < 0 ? null : entries[i + 1];
+		}
+		
+		
+		/**
+		 * Get the number of entries.
+		 *
+		 * @return the number of entries
+		 */
+		public int size ()
+		{
+			return entries.length / 2;
+		}
+		
+		
+		/**
+		 * Checks if the context is empty.
+		 *
+		 * @return true, if there are no entries
+		 */
+		public boolean isEmpty ()
+		{
+			return entries.length == 0;
+		}
+		
+		
+		/**
+		 * Get the key of an entry.
+		 *
+		 * @param index the index of the entry
+		 * @return the key
+		 */
+		public String getKey (int index)
+		{
+			return entries[2 * index];
+		}
+		
+		
+		/**
+		 * Get the value of an entry.
+		 *
+		 * @param index the index of the entry
+		 * @return the value
+		 */
+		public String getValue (int index)
+		{
+			return entries[2 * index + 1];
+		}
+		
+		
+		/**
+		 * Get the entries as a map.
+		 *
+		 * @return an unmodifiable map of the entries, in the order they were put
+		 */
+		public Map<String, String> toMap ()
+		{
+			Map<String, String> map = new LinkedHashMap<String, String> ();
+			for (int i = 0; i < entries.length; i += 2)
+				map.put (entries[i], entries[i + 1]);
+			return Collections.unmodifiableMap (map);
+		}
+		
+		
+		/**
+		 * Append the entries as <code>key=value, key=value</code>.
+		 *
+		 * @param sb the string builder
+		 * @return the string builder
+		 */
+		StringBuilder appendTo (StringBuilder sb)
+		{
+			for (int i = 0; i < entries.length; i += 2)
+			{
+				if (i > 0)
+					sb.append (", ");
+				sb.append (entries[i]).append ('=').append (entries[i + 1]);
+			}
+			return sb;
+		}
+		
+		
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString ()
+		{
+			return appendTo (new StringBuilder ("{")).append ('}').toString ();
+		}
+	}
+	
+	/** The empty context. */
+	public static final Context						EMPTY		= new Context (new String[0]);
+	
+	/** The contexts of the threads, <code>null</code> if empty. */
+	private static final ThreadLocal<Context>	CURRENT	= new ThreadLocal<Context> ();
+	
+	
+	/**
+	 * Not to be instantiated.
+	 */
+	private MDC ()
+	{
+	}
+	
+	
+	/**
+	 * Put a key into the context of the current thread. Passing a
+	 * <code>null</code> value removes the key.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @throws IllegalArgumentException if the key is <code>null</code>
+	 */
+	public static void put (String key, String value)
+	{
+		if (key == null)
+			throw new IllegalArgumentException ("key must not be null");
+		if (value == null)
+			remove (key);
+		else
+			CURRENT.set (capture ().with (key, value));
+	}
+	
+	
+	/**
+	 * Get the value of a key in the context of the current thread.
+	 *
+	 * @param key the key
+	 * @return the value, or <code>null</code> if the key is not in the context
+	 */
+	public static String get (String key)
+	{
+		return capture ().get (key);
+	}
+	
+	
+	/**
+	 * Remove a key from the context of the current thread.
+	 *
+	 * @param key the key
+	 */
+	public static void remove (String key)
+	{
+		restore (capture ().without (key));
+	}
+	
+	
+	/**
+	 * Clear the context of the current thread.
+	 */
+	public static void clear ()
+	{
+		CURRENT.remove ();
+	}
+	
+	
+	/**
+	 * Capture the context of the current thread. This is cheap, as contexts
+	 * are immutable.
+	 *
+	 * @return the context
+	 */
+	public static Context capture ()
+	{
+		Context c = CURRENT.get ();
+		return c == null ? EMPTY : c;
+	}
+	
+	
+	/**
+	 * Replace the context of the current thread.
+	 *
+	 * @param context the new context, <code>null</code> to clear the context
+	 * @return the previous context
+	 */
+	public static Context restore (Context context)
+	{
+		Context previous = capture ();
+		if (context == null || context.isEmpty ())
+			CURRENT.remove ();
+		else
+			CURRENT.set (context);
+		return previous;
+	}
+	
+	
+	/**
+	 * Wrap a task, so that it runs with the context of the current thread.
+	 * The context of the thread running the task is restored afterwards.
+	 *
+	 * @param task the task
+	 * @return the wrapped task
+	 */
+	public static Runnable wrap (final Runnable task)
+	{
+		final Context context = capture ();
+		return () -> {
+			Context previous = restore (context);
+			try
+			{
+				task.run ();
+			}
+			finally
+			{
+				restore (previous);
+			}
+		};
+	}
+	
+	
+	/**
+	 * Wrap a task, so that it runs with the context of the current thread.
+	 * The context of the thread running the task is restored afterwards.
+	 *
+	 * @param <V> the result type of the task
+	 * @param task the task
+	 * @return the wrapped task
+	 */
+	public static <V> Callable<V> wrap (final Callable<V> task)
+	{
+		final Context context = capture ();
+		return () -> {
+			Context previous = restore (context);
+			try
+			{
+				return task.call ();
+			}
+			finally
+			{
+				restore (previous);
+			}
+		};
+	}
+	
+	
+	/**
+	 * Wrap an executor, so that every task runs with the context of the
+	 * thread that submitted it.
+	 *
+	 * @param executor the executor
+	 * @return the wrapped executor
+	 */
+	public static Executor wrapExecutor (final Executor executor)
+	{
+		return command -> executor.execute (wrap (command));
+	}
+	
+	
+	/**
+	 * Wrap a thread factory, so that every new thread starts with the context
+	 * of the thread that created it. Thread-per-task executors create the
+	 * thread of a task when it is submitted, so this propagates the context
+	 * of the submitting thread, e.g. into virtual threads.
+	 *
+	 * @param factory the thread factory
+	 * @return the wrapped thread factory
+	 */
+	public static ThreadFactory wrapThreadFactory (final ThreadFactory factory)
+	{
+		return task -> factory.newThread (wrap (task));
+	}
+}
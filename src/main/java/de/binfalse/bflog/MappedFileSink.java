@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The MappedFileSink encodes lines directly into a memory mapped region of
+ * the log file. Writing a line is thus not much more than a memory copy, no
+ * system call is involved. If the region is full, the next chunk of the file
+ * is mapped. When closing the sink the file is truncated to the bytes
+ * actually written.
+ * 
+ * If the JVM dies without closing the sink, the file ends with the unused
+ * part of the last chunk, which is filled with zeros. These zeros are
+ * skipped when the file is opened again.
+ * 
+ * @author martin scharm
+ */
+class MappedFileSink
+	extends FileSink
+{
+	
+	/** The default size of the mapped chunks: 32 MB. */
+	static final int								DEFAULT_CHUNK_SIZE	= 32 << 20;
+	
+	/** The file. */
+	private final RandomAccessFile	file;
+	
+	/** The channel of the file. */
+	private final FileChannel				channel;
+	
+	/** The size of the mapped chunks. */
+	private final int								chunkSize;
+	
+	/** The encoder. */
+	private final CharsetEncoder		encoder;
+	
+	/** Wraps {@link FileSink#chars} for the encoder. */
+	private CharBuffer							charBuffer;
+	
+	/** The currently mapped chunk. */
+	private volatile MappedByteBuffer	mapped;
+	
+	/** The lock keeping {@link #sync()} and {@link #close()} apart. */
+	private final ReentrantLock			closeLock	= new ReentrantLock ();
+	
+	/** The position of the mapped chunk in the file. */
+	private long										mappedStart;
+	
+	
+	/**
+	 * Open a log file for appending, using the default chunk size and the
+	 * platform's default charset.
+	 *
+	 * @param file the file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	MappedFileSink (File file) throws IOException
+	{
+		this (file, DEFAULT_CHUNK_SIZE, Charset.defaultCharset ());
+	}
+	
+	
+	/**
+	 * Open a log file for appending.
+	 *
+	 * @param file the file
+	 * @param chunkSize the number of bytes to map at once
+	 * @param charset the charset
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	MappedFileSink (File file, int chunkSize, Charset charset) throws IOException
+	{
+		if (chunkSize < 1024)
+			throw new IllegalArgumentException ("chunk size too small: " + chunkSize);
+		this.chunkSize = chunkSize;
+		this.encoder = charset.newEncoder ()
+			.onMalformedInput (CodingErrorAction.REPLACE)
+			.onUnmappableCharacter (CodingErrorAction.REPLACE);
+		this.file = new RandomAccessFile (file, "rw");
+		this.channel = this.file.getChannel ();
+		try
+		{
+			map (findEnd ());
+		}
+		catch (IOException e)
+		{
+			this.file.close ();
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Find the end of the log, ignoring trailing zeros of a previous mapping
+	 * that wasn't truncated.
+	 *
+	 * @return the position after the last byte of the log
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private long findEnd () throws IOException
+	{
+		long end = channel.size ();
+		ByteBuffer block = ByteBuffer.allocate (8192);
+		while (end > 0)
+		{
+			long start = Math.max (0, end - block.capacity ());
+			block.clear ().limit ((int) (end - start));
+			while (block.hasRemaining ())
+				if (channel.read (block, start + block.position ()) < 0)
+					break;
+			for (int i = block.position () - 1; i >= 0; i--)
+				if (block.get (i) != 0)
+					return start + i + 1;
+			end = start;
+		}
+		return 0;
+	}
+	
+	
+	/**
+	 * Map the next chunk of the file.
+	 *
+	 * @param position the position in the file to start the chunk at
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void map (long position) throws IOException
+	{
+		MappedByteBuffer previous = mapped;
+		if (previous != null)
+			// sync () only sees the current chunk, so make sure the previous one is written
+			previous.force ();
+		mapped = channel.map (FileChannel.MapMode.READ_WRITE, position, chunkSize);
+		mappedStart = position;
+	}
+	
+	
+	/**
+	 * Gets the position after the last byte written.
+	 *
+	 * @return the position
+	 */
+	long position ()
+	{
+		return mappedStart + mapped.position ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#size()
+	 */
+	long size ()
+	{
+		return position ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#write(java.lang.CharSequence)
+	 */
+	void write (CharSequence line) throws IOException
+	{
+		int length = copy (line);
+		if (charBuffer == null || charBuffer.array () != chars)
+			charBuffer = CharBuffer.wrap (chars);
+		charBuffer.limit (length).position (0);
+		
+		encoder.reset ();
+		CoderResult result;
+		while ((result = encoder.encode (charBuffer, mapped, true)).isOverflow ())
+			map (position ());
+		if (result.isError ())
+			result.throwException ();
+		while (encoder.flush (mapped).isOverflow ())
+			map (position ());
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#flush()
+	 */
+	void flush () throws IOException
+	{
+		// everything is already in the page cache
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#sync()
+	 */
+	void sync () throws IOException
+	{
+		// do not force a buffer that is being unmapped and truncated
+		closeLock.lock ();
+		try
+		{
+			MappedByteBuffer buffer = mapped;
+			if (buffer != null)
+				buffer.force ();
+		}
+		finally
+		{
+			closeLock.unlock ();
+		}
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#close()
+	 */
+	void close () throws IOException
+	{
+		closeLock.lock ();
+		try
+		{
+			try
+			{
+				long end = position ();
+				mapped = null;
+				channel.truncate (end);
+			}
+			finally
+			{
+				file.close ();
+			}
+		}
+		finally
+		{
+			closeLock.unlock ();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+
+/**
+ * The MessageFormatter fills the <code>{}</code> placeholders of a message
+ * with its arguments. Arguments are substituted in order, arguments without
+ * placeholder are appended to the message, and placeholders without
+ * argument are kept as they are. Thus, <code>("took {} ms", 3)</code>
+ * becomes <code>took 3 ms</code> and <code>("a", "b")</code> becomes
+ * <code>ab</code>, as it always did.
+ * 
+ * The formatter works on cursors, so primitive arguments can be appended
+ * without boxing:
+ * 
+ * <pre>
+ * int pos = MessageFormatter.appendUntilPlaceholder (sb, format, 0);
+ * sb.append (someLong);
+ * MessageFormatter.appendRest (sb, format, pos);
+ * </pre>
+ * 
+ * @author martin scharm
+ */
+final class MessageFormatter
+{
+	
+	/** The placeholder. */
+	static final String	PLACEHOLDER	= "{}";
+	
+	
+	/**
+	 * Not to be instantiated.
+	 */
+	private MessageFormatter ()
+	{
+	}
+	
+	
+	/**
+	 * Append the literal text of <code>format</code> starting at <code>from</code>
+	 * up to the next placeholder. If there is no further placeholder the whole
+	 * remaining text is appended.
+	 *
+	 * @param sb the string builder
+	 * @param format the message format
+	 * @param from the position to start at, <code>-1</code> if the format was already consumed
+	 * @return the position after the placeholder or <code>-1</code> if there is no placeholder left
+	 */
+	static int appendUntilPlaceholder (StringBuilder sb, String format, int from)
+	{
+		if (from < 0)
+			return -1;
+		int placeholder = format.indexOf (PLACEHOLDER, from);
+		if (placeholder < 0)
+		{
+			sb.append (format, from, format.length ());
+			return -1;
+		}
+		sb.append (format, from, placeholder);
+		return placeholder + PLACEHOLDER.length ();
+	}
+	
+	
+	/**
+	 * Append the remaining text of <code>format</code>.
+	 *
+	 * @param sb the string builder
+	 * @param format the message format
+	 * @param from the position to start at, <code>-1</code> if the format was already consumed
+	 */
+	static void appendRest (StringBuilder sb, String format, int from)
+	{
+		if (from >= 0)
+			sb.append (format, from, format.length ());
+	}
+	
+	
+	/**
+	 * Format a message given as varargs. If the first element is a String its
+	 * placeholders are filled with the remaining elements, otherwise all
+	 * elements are simply concatenated.
+	 *
+	 * @param sb the string builder
+	 * @param msg the message parts
+	 */
+	static void format (StringBuilder sb, Object[] msg)
+	{
+		if (msg == null || msg.length == 0)
+			return;
+		
+		if (msg.length == 1 || !(msg[0] instanceof String))
+		{
+			for (Object m : msg)
+				sb.append (m);
+			return;
+		}
+		
+		String format = (String) msg[0];
+		int pos = 0;
+		for (int i = 1; i < msg.length; i++)
+		{
+			pos = appendUntilPlaceholder (sb, format, pos);
+			sb.append (msg[i]);
+		}
+		appendRest (sb, format, pos);
+	}
+	
+	
+	/**
+	 * Append a thrown exception to a message: <code> (throwing class:
+	 * message)</code>. The stack trace is appended by the
+	 * {@link StackTraceRenderer}.
+	 *
+	 * @param sb the string builder
+	 * @param className the class of the exception
+	 * @param message the message of the exception
+	 */
+	static void appendException (StringBuilder sb, String className,
+		String message)
+	{
+		sb.append (" (throwing ").append (className).append (": ")
+			.append (message).append (")");
+	}
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The PatternLayout renders lines according to a pattern such as
+ * <code>%d{HH:mm:ss.SSS} [%thread] %level %class:%line - %msg%ex</code>.
+ * 
+ * The pattern is parsed once into a chain of steps, so rendering a line is
+ * just a loop over the steps, without any parsing or reflection. Supported
+ * conversions are:
+ * 
+ * <ul>
+ * <li><code>%d</code>, <code>%date</code> the time stamp, formatted using
+ * the date format of the LOGGER or the format given in braces, e.g.
+ * <code>%d{HH:mm:ss}</code></li>
+ * <li><code>%p</code>, <code>%level</code> the level</li>
+ * <li><code>%t</code>, <code>%thread</code> the name of the thread</li>
+ * <li><code>%c</code>, <code>%class</code> the calling class</li>
+ * <li><code>%L</code>, <code>%line</code> the line number of the caller</li>
+ * <li><code>%m</code>, <code>%msg</code>, <code>%message</code> the
+ * message</li>
+ * <li><code>%X{key}</code>, <code>%mdc{key}</code> the value of a key in
+ * the {@link MDC}, or all its entries as <code>key=value, key=value</code> if
+ * no key is given</li>
+ * <li><code>%ex</code>, <code>%exception</code> the thrown exception, if
+ * any; if the pattern does not contain it the exception is appended to the
+ * message</li>
+ * <li><code>%%</code> a percent sign</li>
+ * </ul>
+ * 
+ * @author martin scharm
+ */
+final class PatternLayout
+	extends Layout
+{
+	
+	/** Step: literal text. */
+	private static final int									LITERAL		= 0;
+	
+	/** Step: the time stamp. */
+	private static final int									DATE			= 1;
+	
+	/** Step: the level. */
+	private static final int									LEVEL			= 2;
+	
+	/** Step: the name of the thread. */
+	private static final int									THREAD		= 3;
+	
+	/** Step: the calling class. */
+	private static final int									CLASS			= 4;
+	
+	/** Step: the line number of the caller. */
+	private static final int									LINE			= 5;
+	
+	/** Step: the message. */
+	private static final int									MESSAGE		= 6;
+	
+	/** Step: the thrown exception. */
+	private static final int									EXCEPTION	= 7;
+	
+	/** Step: the value of a key in the diagnostic context. */
+	private static final int									MDC_KEY		= 8;
+	
+	/** Step: all entries of the diagnostic context. */
+	private static final int									MDC_ALL		= 9;
+	
+	/** Printed if the class or line of the caller is unknown. */
+	private static final String								UNKNOWN		= "?";
+	
+	/** The pattern. */
+	private final String											pattern;
+	
+	/** The steps. */
+	private final int[]												steps;
+	
+	/** The literal text of the literal steps, or the keys of the context steps. */
+	private final String[]										literals;
+	
+	/** The formatters of the date steps, <code>null</code> to use the date format of the LOGGER. */
+	private final TimestampFormatter[]				formatters;
+	
+	/** Does the pattern print the calling class? */
+	private final boolean											needsClass;
+	
+	/** Does the pattern print the line number of the caller? */
+	private final boolean											needsFrame;
+	
+	/** Does the pattern print the thrown exception? */
+	private final boolean											rendersThrown;
+	
+	
+	/**
+	 * Compiles a new pattern layout.
+	 *
+	 * @param pattern the pattern
+	 * @throws IllegalArgumentException if the pattern is not supported
+	 */
+	PatternLayout (String pattern)
+	{
+		this.pattern = pattern;
+		
+		List<Integer> stepList = new ArrayList<Integer> ();
+		List<String> literalList = new ArrayList<String> ();
+		List<TimestampFormatter> formatterList = new ArrayList<TimestampFormatter> ();
+		StringBuilder literal = new StringBuilder ();
+		
+		int i = 0;
+		while (i < pattern.length ())
+		{
+			char c = pattern.charAt (i++);
+			if (c != '%')
+			{
+				literal.append (c);
+				continue;
+			}
+			if (i < pattern.length () && pattern.charAt (i) == '%')
+			{
+				literal.append ('%');
+				i++;
+				continue;
+			}
+			
+			int start = i;
+			while (i < pattern.length () && Character.isLetter (pattern.charAt (i)))
+				i++;
+			String name = pattern.substring (start, i);
+			String option = null;
+			if (i < pattern.length () && pattern.charAt (i) == '{')
+			{
+				int end = pattern.indexOf ('}', i);
+				if (end < 0)
+					throw new IllegalArgumentException ("unterminated option in layout pattern: " + pattern);
+				option = pattern.substring (i + 1, end);
+				i = end + 1;
+			}
+			
+			int step;
+			TimestampFormatter formatter = null;
+			switch (name)
+			{
+				case "d":
+				case "date":
+					step = DATE;
+					if (option != null)
+						formatter = new TimestampFormatter (option);
+					break;
+				case "p":
+				case "level":
+					step = LEVEL;
+					break;
+				case "t":
+				case "thread":
+					step = THREAD;
+					break;
+				case "c":
+				case "class":
+					step = CLASS;
+					break;
+				case "L":
+				case "line":
+					step = LINE;
+					break;
+				case "m":
+				case "msg":
+				case "message":
+					step = MESSAGE;
+					break;
+				case "ex":
+				case "exception":
+					step = EXCEPTION;
+					break;
+				case "X":
+				case "mdc":
+					step = option == null ? MDC_ALL : MDC_KEY;
+					break;
+				default:
+					throw new IllegalArgumentException ("unknown conversion %" + name + " in layout pattern: " + pattern);
+			}
+			if (option != null && step != DATE && step != MDC_KEY)
+				throw new IllegalArgumentException ("%" + name + " does not take an option in layout pattern: " + pattern);
+			
+			if (literal.length () > 0)
+			{
+				stepList.add (LITERAL);
+				literalList.add (literal.toString ());
+				formatterList.add (null);
+				literal.setLength (0);
+			}
+			stepList.add (step);
+			literalList.add (step == MDC_KEY ? option : null);
+			formatterList.add (formatter);
+		}
+		if (literal.length () > 0)
+		{
+			stepList.add (LITERAL);
+			literalList.add (literal.toString ());
+			formatterList.add (null);
+		}
+		
+		steps = new int[stepList.size ()];
+		for (int j = 0; j < steps.length; j++)
+			steps[j] = stepList.get (j);
+		literals = literalList.toArray (new String[literalList.size ()]);
+		formatters = formatterList
+			.toArray (new TimestampFormatter[formatterList.size ()]);
+		needsClass = stepList.contains (CLASS);
+		needsFrame = stepList.contains (LINE);
+		rendersThrown = stepList.contains (EXCEPTION);
+	}
+	
+	
+	/**
+	 * Gets the pattern.
+	 *
+	 * @return the pattern
+	 */
+	String getPattern ()
+	{
+		return pattern;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.Layout#needsClass()
+	 */
+	boolean needsClass ()
+	{
+		return needsClass;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.Layout#needsFrame()
+	 */
+	boolean needsFrame ()
+	{
+		return needsFrame;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.Layout#rendersThrown()
+	 */
+	boolean rendersThrown ()
+	{
+		return rendersThrown;
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.Layout#render(java.lang.StringBuilder, long, int, java.lang.String, java.lang.StackWalker.StackFrame, java.lang.Throwable, de.binfalse.bflog.MDC.Context, java.lang.CharSequence, int)
+	 */
+	void render (StringBuilder out, long millis, int level, String caller,
+		StackFrame frame, Throwable thrown, MDC.Context context, CharSequence msg,
+		int from)
+	{
+		for (int i = 0; i < steps.length; i++)
+			switch (steps[i])
+			{
+				case LITERAL:
+					out.append (literals[i]);
+					break;
+				case DATE:
+					TimestampFormatter formatter = formatters[i];
+					if (formatter == null)
+						formatter = LOGGER.getTimestampFormatter ();
+					formatter.format (millis, out);
+					break;
+				case LEVEL:
+					out.append (LOGGER.levelString (level));
+					break;
+				case THREAD:
+					out.append (Thread.currentThread ().getName ());
+					break;
+				case CLASS:
+					out.append (caller == null ? UNKNOWN : caller);
+					break;
+				case LINE:
+					if (frame == null)
+						out.append (UNKNOWN);
+					else
+						out.append (frame.getLineNumber ());
+					break;
+				case MESSAGE:
+					out.append (msg, from, msg.length ());
+					break;
+				case EXCEPTION:
+					if (thrown != null)
+						appendThrown (out, thrown);
+					break;
+				case MDC_KEY:
+					String value = context.get (literals[i]);
+					if (value != null)
+						out.append (value);
+					break;
+				case MDC_ALL:
+					context.appendTo (out);
+					break;
+			}
+	}
+}
@@ -0,0 +1,369 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The RateLimiter limits the number of messages per call site and detects
+ * bursts of duplicate messages. A call site is identified by the level and
+ * the message format, so it can be found without looking at the stack.
+ * A message without arguments is its own format; if it comes with an
+ * exception, the class of the exception is part of its key, too. A constant
+ * message thus gets a site, while a message that was concatenated by the
+ * caller takes a new site with every call. That is fine: the table is bounded
+ * (see below), so such messages just evict each other.
+ * 
+ * The sites are kept in a fixed-size table indexed by the hash of the key. A
+ * site is searched in a few neighbouring slots; if they are all taken by
+ * other sites, the new site replaces the one at its home slot. Thus, the
+ * table never grows and looking up a site does not take a lock.
+ * 
+ * Every site has a token bucket, implemented as a virtual scheduling clock
+ * in a single atomic long: a message is admitted if the clock is not more
+ * than <code>burst</code> intervals ahead of the current time, and each
+ * admitted message advances the clock by one interval. Moreover, every site
+ * counts its messages for the {@link Sampler}.
+ * 
+ * @author martin scharm
+ */
+final class RateLimiter
+{
+	
+	/** The number of sites in the table. */
+	static final int													TABLE_SIZE	= 1024;
+	
+	/** The number of slots searched for a site. */
+	static final int													PROBES			= 4;
+	
+	/**
+	 * A call site.
+	 */
+	final class Site
+	{
+		
+		/** The level. */
+		private final int					level;
+		
+		/** The message template. */
+		private final String			template;
+		
+		/** The class of the thrown exception, or <code>null</code>. */
+		private final Class<?>		thrown;
+		
+		/** The time the next message is due, in nanoseconds. */
+		private final AtomicLong	due				= new AtomicLong (System.nanoTime ());
+		
+		/** The number of messages seen by the sampler. */
+		private final AtomicLong	sampled			= new AtomicLong ();
+		
+		/** The number of messages dropped since the last admitted message. */
+		private final AtomicLong	suppressed	= new AtomicLong ();
+		
+		/** The lock guarding the last message and its repetitions. */
+		private final ReentrantLock	lock			= new ReentrantLock ();
+		
+		/** The hash of the last message. */
+		private long							lastHash;
+		
+		/** The length of the last message. */
+		private int								lastLength	= -1;
+		
+		/** The number of times the last message was repeated. */
+		private long							repeats;
+		
+		
+		/**
+		 * Instantiates a new site.
+		 *
+		 * @param level the level
+		 * @param template the template
+		 * @param thrown the class of the thrown exception, or <code>null</code>
+		 */
+		private Site (int level, String template, Class<?> thrown)
+		{
+			this.level = level;
+			this.template = template;
+			this.thrown = thrown;
+		}
+		
+		
+		/**
+		 * Is this the site of a certain key?
+		 *
+		 * @param lvl the level
+		 * @param tmpl the template
+		 * @param thr the class of the thrown exception, or <code>null</code>
+		 * @return true, if the site matches the key
+		 */
+		private boolean matches (int lvl, String tmpl, Class<?> thr)
+		{
+			return level == lvl && thrown == thr
+				&& (template == tmpl || template.equals (tmpl));
+		}
+		
+		
+		/**
+		 * Gets the level of the messages of this site.
+		 *
+		 * @return the level
+		 */
+		int getLevel ()
+		{
+			return level;
+		}
+		
+		
+		/**
+		 * Gets the message template of this site.
+		 *
+		 * @return the template
+		 */
+		String getTemplate ()
+		{
+			return template;
+		}
+		
+		
+		/**
+		 * Take a token to log a message.
+		 *
+		 * @return true, if the message may be logged
+		 */
+		boolean acquire ()
+		{
+			if (interval == 0)
+				return true;
+			long now = System.nanoTime ();
+			while (true)
+			{
+				long current = due.get ();
+				long next = Math.max (current, now) + interval;
+				if (next - now > tolerance)
+				{
+					suppressed.incrementAndGet ();
+					return false;
+				}
+				if (due.compareAndSet (current, next))
+					return true;
+			}
+		}
+		
+		
+		/**
+		 * Count a message for the sampler.
+		 *
+		 * @param every log every n-th message
+		 * @return true, if the message should be logged
+		 */
+		boolean sample (int every)
+		{
+			return sampled.getAndIncrement () % every == 0;
+		}
+		
+		
+		/**
+		 * Gets and resets the number of messages dropped since the last admitted
+		 * message.
+		 *
+		 * @return the number of dropped messages
+		 */
+		long takeSuppressed ()
+		{
+			return suppressed.get () == 0 ? 0 : suppressed.getAndSet (0);
+		}
+		
+		
+		/**
+		 * Does this site drop repetitions of its last message? Then its messages
+		 * need to be formatted to detect the repetitions.
+		 *
+		 * @return true, if repetitions are dropped
+		 */
+		boolean checksRepeats ()
+		{
+			return suppressDuplicates;
+		}
+		
+		
+		/**
+		 * Check whether a message repeats the last message of this site.
+		 *
+		 * @param line the line
+		 * @param from the position the message starts at, i.e. after the
+		 *          preamble
+		 * @return -1 if the message is a repetition and should be dropped,
+		 *         otherwise the number of repetitions of the previous message
+		 *         that were dropped
+		 */
+		long repeated (CharSequence line, int from)
+		{
+			if (!suppressDuplicates)
+				return 0;
+			// FNV-1a
+			long hash = 0xcbf29ce484222325L;
+			int length = line.length ();
+			for (int i = from; i < length; i++)
+				hash = (hash ^ line.charAt (i)) * 0x100000001b3L;
+			lock.lock ();
+			try
+			{
+				if (hash == lastHash && length - from == lastLength)
+				{
+					repeats++;
+					return -1;
+				}
+				long previous = repeats;
+				repeats = 0;
+				lastHash = hash;
+				lastLength = length - from;
+				return previous;
+			}
+			finally
+			{
+				lock.unlock ();
+			}
+		}
+		
+		
+		/**
+		 * Gets and resets the number of repetitions of the last message that
+		 * were dropped. The next message of this site is logged, even if it
+		 * repeats the last one.
+		 *
+		 * @return the number of dropped repetitions
+		 */
+		long takeRepeats ()
+		{
+			lock.lock ();
+			try
+			{
+				long previous = repeats;
+				repeats = 0;
+				lastLength = -1;
+				return previous;
+			}
+			finally
+			{
+				lock.unlock ();
+			}
+		}
+	}
+	
+	/** The sites. */
+	private final AtomicReferenceArray<Site>	sites				= new AtomicReferenceArray<Site> (
+		TABLE_SIZE);
+	
+	/** The time between two messages of a site in nanoseconds, 0 for unlimited. */
+	private final long												interval;
+	
+	/** How far the clock of a site may run ahead, in nanoseconds. */
+	private final long												tolerance;
+	
+	/** Should we drop repetitions of the last message of a site? */
+	private final boolean											suppressDuplicates;
+	
+	
+	/**
+	 * Instantiates a new rate limiter.
+	 *
+	 * @param perSecond the number of messages per second and site, 0 for
+	 *          unlimited
+	 * @param burst the number of messages a site may log at once
+	 * @param suppressDuplicates should we drop repetitions of the last message
+	 *          of a site?
+	 */
+	RateLimiter (double perSecond, int burst, boolean suppressDuplicates)
+	{
+		this.interval = perSecond > 0 ? Math.max (1, (long) (1e9 / perSecond)) : 0;
+		this.tolerance = interval * Math.max (1, burst);
+		this.suppressDuplicates = suppressDuplicates;
+	}
+	
+	
+	/**
+	 * Gets the site in a slot of the table.
+	 *
+	 * @param slot the slot, between 0 and {@link #TABLE_SIZE}
+	 * @return the site, or <code>null</code> if the slot is free
+	 */
+	Site site (int slot)
+	{
+		return sites.get (slot);
+	}
+	
+	
+	/**
+	 * Find the site of a message, creating it if necessary.
+	 *
+	 * @param level the level
+	 * @param template the template, or <code>null</code>
+	 * @param thrown the class of the thrown exception, or <code>null</code> if
+	 *          it isn't part of the key
+	 * @return the site, or <code>null</code> if the message has no template
+	 */
+	Site site (int level, String template, Class<?> thrown)
+	{
+		if (template == null)
+			return null;
+		int hash = template.hashCode () * 31 + level;
+		if (thrown != null)
+			hash = hash * 31 + thrown.hashCode ();
+		int index = (hash ^ (hash >>> 16)) & (TABLE_SIZE - 1);
+		int free = -1;
+		for (int i = 0; i < PROBES; i++)
+		{
+			int slot = (index + i) & (TABLE_SIZE - 1);
+			Site site = sites.get (slot);
+			if (site == null)
+			{
+				if (free < 0)
+					free = slot;
+			}
+			else if (site.matches (level, template, thrown))
+				return site;
+		}
+		// take a free slot or replace the site at the home slot
+		Site site = new Site (level, template, thrown);
+		if (free >= 0 && sites.compareAndSet (free, null, site))
+			return site;
+		sites.set (index, site);
+		return site;
+	}
+}
@@ -0,0 +1,452 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * The RollingFileSink writes to a log file until it exceeds a maximum size or
+ * a new hour or day begins. Then, the file is renamed to
+ * <code>&lt;name&gt;.&lt;yyyyMMdd-HHmmss&gt;</code> and a new file is started.
+ * 
+ * Compressing the rotated segments and removing old segments beyond the
+ * retention count is done by a background thread, so rolling the file does
+ * not stall the logging threads. The thread is shared by all rolling files
+ * and keeps running when a file is closed, so reopening the log file never
+ * waits for a compression. It stops when it was idle for a while.
+ * 
+ * @author martin scharm
+ */
+class RollingFileSink
+	extends FileSink
+{
+	
+	/** The suffix of compressed segments. */
+	static final String											GZIP_SUFFIX	= ".gz";
+	
+	/** The format of the time stamps of rotated segments. */
+	private static final DateTimeFormatter	SEGMENT_TIME	= DateTimeFormatter
+		.ofPattern ("yyyyMMdd-HHmmss");
+	
+	/** The time the housekeeping thread waits for work before it stops, in seconds. */
+	private static final long								HOUSEKEEPER_KEEP_ALIVE	= 60;
+	
+	/** Compresses and removes rotated segments. */
+	private static final ThreadPoolExecutor	HOUSEKEEPER		= new ThreadPoolExecutor (
+		1, 1, HOUSEKEEPER_KEEP_ALIVE, TimeUnit.SECONDS,
+		new LinkedBlockingQueue<Runnable> (), runnable -> {
+			Thread thread = new Thread (runnable, "BFLog-housekeeping");
+			thread.setDaemon (true);
+			return thread;
+		});
+	
+	static
+	{
+		HOUSEKEEPER.allowCoreThreadTimeOut (true);
+	}
+	
+	/** The active log file. */
+	private final File											file;
+	
+	/** Should we map the log file? */
+	private final boolean										mapped;
+	
+	/** The max size of a segment in bytes, 0 for unlimited. */
+	private final long											maxSize;
+	
+	/** The roll period, see <code>LOGGER.ROLL_*</code>. */
+	private final int												period;
+	
+	/** The number of rotated segments to keep, 0 to keep all. */
+	private final int												retention;
+	
+	/** Should we compress rotated segments? */
+	private final boolean										compress;
+	
+	/** Should we force a segment to the storage device before rolling it away? */
+	private final boolean										sync;
+	
+	/** The time zone defining hours and days. */
+	private final ZoneId										zone;
+	
+	/** The sink writing to the active file. */
+	private volatile FileSink							current;
+	
+	/** The time stamp of the last segment. */
+	private String													lastSegmentTime;
+	
+	/** The sequence number of the last segment within its second. */
+	private int															segmentSequence;
+	
+	/** The time of the next roll over, <code>Long.MAX_VALUE</code> if we do not roll by time. */
+	private long														nextRoll;
+	
+	
+	/**
+	 * Open a rolling log file.
+	 *
+	 * @param file the active log file
+	 * @param mapped should we map the log file?
+	 * @param maxSize the max size of a segment in bytes, 0 for unlimited
+	 * @param period the roll period, one of <code>LOGGER.ROLL_NEVER</code>, <code>LOGGER.ROLL_HOURLY</code>, or <code>LOGGER.ROLL_DAILY</code>
+	 * @param retention the number of rotated segments to keep, 0 to keep all
+	 * @param compress should we gzip rotated segments?
+	 * @param sync should we force a segment to the storage device before
+	 *          rolling it away? Required if committed lines must be durable,
+	 *          as {@link #sync()} only reaches the active segment.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	RollingFileSink (File file, boolean mapped, long maxSize, int period,
+		int retention, boolean compress, boolean sync) throws IOException
+	{
+		this.file = file.getAbsoluteFile ();
+		this.mapped = mapped;
+		this.maxSize = maxSize;
+		this.period = period;
+		this.retention = retention;
+		this.compress = compress;
+		this.sync = sync;
+		this.zone = ZoneId.systemDefault ();
+		
+		// an existing file belongs to the period it was last written in
+		long lastWritten = file.length () > 0 ? file.lastModified () : System.currentTimeMillis ();
+		nextRoll = nextBoundary (lastWritten, period, zone);
+		current = open ();
+	}
+	
+	
+	/**
+	 * Wait until the segments that were rotated so far are compressed and
+	 * pruned.
+	 *
+	 * @param timeoutMillis the max time to wait
+	 * @return true, if the housekeeping is done
+	 */
+	static boolean awaitHousekeeping (long timeoutMillis)
+	{
+		try
+		{
+			// the housekeeper works in order, so the marker runs last
+			HOUSEKEEPER.submit ( () -> {
+			}).get (timeoutMillis, TimeUnit.MILLISECONDS);
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread ().interrupt ();
+			return false;
+		}
+		catch (ExecutionException | TimeoutException e)
+		{
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Compute the next time the file needs to be rolled.
+	 *
+	 * @param millis the current time
+	 * @param period the roll period
+	 * @param zone the time zone
+	 * @return the begin of the next period, <code>Long.MAX_VALUE</code> if we do not roll by time
+	 */
+	static long nextBoundary (long millis, int period, ZoneId zone)
+	{
+		ZonedDateTime time = Instant.ofEpochMilli (millis).atZone (zone);
+		switch (period)
+		{
+			case LOGGER.ROLL_HOURLY:
+				return time.truncatedTo (ChronoUnit.HOURS).plusHours (1).toInstant ().toEpochMilli ();
+			case LOGGER.ROLL_DAILY:
+				return time.toLocalDate ().plusDays (1).atStartOfDay (zone).toInstant ().toEpochMilli ();
+			default:
+				return Long.MAX_VALUE;
+		}
+	}
+	
+	
+	/**
+	 * Open a sink for the active file.
+	 *
+	 * @return the sink
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private FileSink open () throws IOException
+	{
+		return mapped ? new MappedFileSink (file) : new BufferedFileSink (file);
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#write(java.lang.CharSequence)
+	 */
+	void write (CharSequence line) throws IOException
+	{
+		if (current == null)
+			current = open ();
+		else if ((maxSize > 0 && current.size () >= maxSize)
+			|| (nextRoll != Long.MAX_VALUE && System.currentTimeMillis () >= nextRoll))
+			roll ();
+		current.write (line);
+	}
+	
+	
+	/**
+	 * Close the active file, rename it, and start a new one. Compressing and
+	 * removing old segments is left to the housekeeping thread.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void roll () throws IOException
+	{
+		long now = System.currentTimeMillis ();
+		nextRoll = nextBoundary (now, period, zone);
+		if (current.size () == 0)
+			return;
+		
+		// lines committed since the last sync must not get lost with the segment
+		if (sync)
+		{
+			current.flush ();
+			current.sync ();
+		}
+		current.close ();
+		current = null;
+		final File segment = segmentFile (now);
+		if (!file.renameTo (segment))
+			System.err.println ("BFLog: cannot rename " + file + " to " + segment + ", continue logging to " + file);
+		else
+			HOUSEKEEPER.execute (() -> {
+				if (compress)
+					compress (segment);
+				prune ();
+			});
+		current = open ();
+	}
+	
+	
+	/**
+	 * Find a name for a new segment.
+	 *
+	 * @param now the current time
+	 * @return the file for the segment
+	 */
+	private File segmentFile (long now)
+	{
+		String time = SEGMENT_TIME.format (Instant.ofEpochMilli (now).atZone (zone));
+		// never reuse a sequence number, even if that segment was pruned already
+		if (time.equals (lastSegmentTime))
+			segmentSequence++;
+		else
+		{
+			lastSegmentTime = time;
+			segmentSequence = 0;
+		}
+		
+		while (true)
+		{
+			String name = file.getName () + "." + time + (segmentSequence > 0 ? "-" + segmentSequence : "");
+			File segment = new File (file.getParentFile (), name);
+			if (!segment.exists () && !new File (segment.getPath () + GZIP_SUFFIX).exists ())
+				return segment;
+			segmentSequence++;
+		}
+	}
+	
+	
+	/**
+	 * Compress a segment and delete the uncompressed file.
+	 *
+	 * @param segment the segment
+	 */
+	private static void compress (File segment)
+	{
+		// may have been pruned already if we roll faster than we compress
+		if (!segment.exists ())
+			return;
+		File tmp = new File (segment.getPath () + GZIP_SUFFIX + ".tmp");
+		try
+		{
+			try (OutputStream out = new GZIPOutputStream (new FileOutputStream (tmp), 65536))
+			{
+				Files.copy (segment.toPath (), out);
+			}
+			if (!tmp.renameTo (new File (segment.getPath () + GZIP_SUFFIX)))
+				throw new IOException ("cannot rename " + tmp);
+			if (!segment.delete ())
+				throw new IOException ("cannot delete " + segment);
+		}
+		catch (IOException e)
+		{
+			System.err.println ("BFLog: failed to compress " + segment);
+			e.printStackTrace ();
+			tmp.delete ();
+		}
+	}
+	
+	
+	/**
+	 * Gets the rotated segments, newest first.
+	 *
+	 * @return the segments
+	 */
+	List<File> segments ()
+	{
+		List<File> segments = new ArrayList<File> ();
+		String prefix = file.getName () + ".";
+		File [] files = file.getParentFile ().listFiles ();
+		if (files == null)
+			return segments;
+		for (File f : files)
+		{
+			String name = f.getName ();
+			if (!name.startsWith (prefix) || name.endsWith (".tmp"))
+				continue;
+			String suffix = name.substring (prefix.length ());
+			if (suffix.endsWith (GZIP_SUFFIX))
+				suffix = suffix.substring (0, suffix.length () - GZIP_SUFFIX.length ());
+			if (suffix.matches ("\\d{8}-\\d{6}(-\\d+)?"))
+				segments.add (f);
+		}
+		Collections.sort (segments, (a, b) -> segmentKey (b).compareTo (segmentKey (a)));
+		return segments;
+	}
+	
+	
+	/**
+	 * Gets the sort key of a segment: its time stamp, padding the sequence
+	 * number to sort numerically.
+	 *
+	 * @param segment the segment
+	 * @return the sort key
+	 */
+	private String segmentKey (File segment)
+	{
+		String name = segment.getName ().substring (file.getName ().length () + 1);
+		if (name.endsWith (GZIP_SUFFIX))
+			name = name.substring (0, name.length () - GZIP_SUFFIX.length ());
+		String time = name.substring (0, 15);
+		String sequence = name.length () > 15 ? name.substring (16) : "0";
+		return time + String.format ("%010d", Long.parseLong (sequence));
+	}
+	
+	
+	/**
+	 * Remove the segments beyond the retention count.
+	 */
+	private void prune ()
+	{
+		if (retention <= 0)
+			return;
+		List<File> segments = segments ();
+		for (int i = retention; i < segments.size (); i++)
+			if (!segments.get (i).delete ())
+				System.err.println ("BFLog: cannot delete old log file " + segments.get (i));
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#size()
+	 */
+	long size ()
+	{
+		return current == null ? 0 : current.size ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#flush()
+	 */
+	void flush () throws IOException
+	{
+		if (current != null)
+			current.flush ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#sync()
+	 */
+	void sync () throws IOException
+	{
+		// a segment that is rolled away meanwhile was synced when rolling it
+		FileSink sink = current;
+		if (sink != null)
+			sink.sync ();
+	}
+	
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.binfalse.bflog.FileSink#close()
+	 */
+	void close () throws IOException
+	{
+		// pending compressions are left to the housekeeper
+		if (current != null)
+			current.close ();
+		current = null;
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * The Sampler logs only a fraction of the messages of certain levels. A
+ * level may be sampled with a probability, so that every message is logged
+ * with that probability, or every <code>n</code>-th message is logged. The
+ * messages are counted per thread or, if a {@link RateLimiter} is used, per
+ * call site.
+ * 
+ * A sampler is immutable, a new configuration creates a new sampler.
+ * 
+ * @author martin scharm
+ */
+final class Sampler
+{
+	
+	/** The number of levels. */
+	static final int									LEVELS	= 4;
+	
+	/** The messages counted per thread and level. */
+	private static final ThreadLocal<int[]>	COUNTS	= ThreadLocal
+		.withInitial (() -> new int[LEVELS]);
+	
+	/** The probability to log a message, per level. */
+	private final double[]							probability;
+	
+	/** Log every n-th message, per level. */
+	private final int[]									every;
+	
+	
+	/**
+	 * Instantiates a new sampler.
+	 *
+	 * @param probability the probability to log a message, per level
+	 * @param every log every n-th message, per level
+	 */
+	Sampler (double[] probability, int[] every)
+	{
+		this.probability = probability.clone ();
+		this.every = every.clone ();
+	}
+	
+	
+	/**
+	 * Get the index of a level.
+	 *
+	 * @param level the level
+	 * @return the index
+	 */
+	static int index (int level)
+	{
+		return Integer.numberOfTrailingZeros (level);
+	}
+	
+	
+	/**
+	 * Is a sampler needed for a configuration?
+	 *
+	 * @param probability the probability to log a message, per level
+	 * @param every log every n-th message, per level
+	 * @return true, if some level is sampled
+	 */
+	static boolean isSampling (double[] probability, int[] every)
+	{
+		for (int i = 0; i < LEVELS; i++)
+			if (probability[i] < 1 || every[i] > 1)
+				return true;
+		return false;
+	}
+	
+	
+	/**
+	 * Should a message be logged?
+	 *
+	 * @param level the level of the message
+	 * @param site the call site of the message, or <code>null</code> to count
+	 *          per thread
+	 * @return true, if the message should be logged
+	 */
+	boolean sample (int level, RateLimiter.Site site)
+	{
+		int i = index (level);
+		int n = every[i];
+		if (n > 1)
+		{
+			if (site != null)
+			{
+				if (!site.sample (n))
+					return false;
+			}
+			else
+			{
+				int[] counts = COUNTS.get ();
+				int count = counts[i];
+				counts[i] = count + 1 == n ? 0 : count + 1;
+				if (count != 0)
+					return false;
+			}
+		}
+		double p = probability[i];
+		return p >= 1 || ThreadLocalRandom.current ().nextDouble () < p;
+	}
+}
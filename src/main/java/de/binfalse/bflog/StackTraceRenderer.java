@@ -0,0 +1,451 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The StackTraceRenderer renders the stack trace of an exception including
+ * its suppressed exceptions and its causes:
+ * 
+ * <pre>
+ * 	java.lang.IllegalStateException: outer
+ * 		at some.Class.method(Class.java:42)
+ * 		at some.Class.main(Class.java:7)
+ * 	Caused by: java.io.IOException: inner
+ * 		at some.Other.read(Other.java:13)
+ * 		... 2 more
+ * </pre>
+ * 
+ * Frames a cause has in common with the exception it caused are elided, and
+ * every exception shows at most <code>maxDepth</code> frames. The rendered
+ * frames of an exception are cached in a bounded LRU map keyed by the
+ * frames, so repeated exceptions are rendered only once.
+ * 
+ * The exceptions of a trace are visited in the order they are rendered,
+ * which allows the {@link BinaryEvent} to store them without rendering.
+ * 
+ * @author martin scharm
+ */
+final class StackTraceRenderer
+{
+	
+	/**
+	 * Receives the exceptions of a trace in the order they are rendered.
+	 */
+	interface Visitor
+	{
+		
+		/**
+		 * Visit an exception.
+		 *
+		 * @param caption the caption, one of {@link #CAPTIONS}
+		 * @param className the class of the exception
+		 * @param message the message of the exception
+		 * @param trace the stack trace of the exception
+		 * @param shown the number of frames to render
+		 * @param truncated the number of frames omitted because of the max depth
+		 * @param common the number of frames in common with the enclosing trace
+		 */
+		void visit (int caption, String className, String message,
+			StackTraceElement[] trace, int shown, int truncated, int common);
+	}
+	
+	/** Caption of the logged exception. */
+	static final int											TOP										= 0;
+	
+	/** Caption of a cause. */
+	static final int											CAUSED_BY							= 1;
+	
+	/** Caption of a suppressed exception. */
+	static final int											SUPPRESSED						= 2;
+	
+	/** Caption of an exception that was already rendered. */
+	static final int											CIRCULAR							= 3;
+	
+	/** The captions. */
+	static final String[]									CAPTIONS							= {"", "Caused by: ",
+		"Suppressed: ", "[CIRCULAR REFERENCE] "};
+	
+	/** The max number of exceptions rendered for one trace. */
+	static final int											MAX_EXCEPTIONS				= 64;
+	
+	/** The default number of cached traces. */
+	static final int											DEFAULT_CACHE_SIZE		= 256;
+	
+	/** The max number of frames shown per exception, 0 for unlimited. */
+	private static volatile int						maxDepth							= 0;
+	
+	/** The number of cached traces. */
+	private static volatile int						cacheSize							= DEFAULT_CACHE_SIZE;
+	
+	/** The cache of rendered frames. */
+	private static volatile Map<Key, String>	cache									= createCache (DEFAULT_CACHE_SIZE);
+	
+	/** The lock guarding the cache. */
+	private static final ReentrantLock			CACHE_LOCK						= new ReentrantLock ();
+	
+	
+	/**
+	 * The key of the cache: the rendered frames of a trace.
+	 */
+	private static final class Key
+	{
+		
+		/** The trace. */
+		private final StackTraceElement[]	trace;
+		
+		/** The number of frames to render. */
+		private final int									shown;
+		
+		/** The number of frames omitted because of the max depth. */
+		private final int									truncated;
+		
+		/** The number of frames in common with the enclosing trace. */
+		private final int									common;
+		
+		/** The hash. */
+		private final int									hash;
+		
+		
+		/**
+		 * Instantiates a new key.
+		 *
+		 * @param trace the trace
+		 * @param shown the number of frames to render
+		 * @param truncated the number of truncated frames
+		 * @param common the number of common frames
+		 */
+		private Key (StackTraceElement[] trace, int shown, int truncated, int common)
+		{
+			this.trace = trace;
+			this.shown = shown;
+			this.truncated = truncated;
+			this.common = common;
+			int h = 31 * (31 * shown + truncated) + common;
+			for (int i = 0; i < shown; i++)
+				h = 31 * h + trace[i].hashCode ();
+			this.hash = h;
+		}
+		
+		
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#hashCode()
+		 */
+		public int hashCode ()
+		{
+			return hash;
+		}
+		
+		
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		public boolean equals (Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return hash == k.hash && shown == k.shown && truncated == k.truncated
+				&& common == k.common
+				&& Arrays.equals (trace, 0, shown, k.trace, 0, shown);
+		}
+	}
+	
+	
+	/**
+	 * Not to be instantiated.
+	 */
+	private StackTraceRenderer ()
+	{
+	}
+	
+	
+	/**
+	 * Create a cache.
+	 *
+	 * @param size the max number of entries
+	 * @return the cache, or <code>null</code> if the size is 0
+	 */
+	private static Map<Key, String> createCache (final int size)
+	{
+		if (size <= 0)
+			return null;
+		return new LinkedHashMap<Key, String> (16, 0.75f, true)
+		{
+			
+			private static final long	serialVersionUID	= 1L;
+			
+			
+			protected boolean removeEldestEntry (Map.Entry<Key, String> eldest)
+			{
+				return size () > size;
+			}
+		};
+	}
+	
+	
+	/**
+	 * Sets the max number of frames shown per exception.
+	 *
+	 * @param frames the max number of frames, 0 for unlimited
+	 */
+	static void setMaxDepth (int frames)
+	{
+		maxDepth = frames;
+		cache = createCache (getCacheSize ());
+	}
+	
+	
+	/**
+	 * Gets the max number of frames shown per exception.
+	 *
+	 * @return the max number of frames, 0 for unlimited
+	 */
+	static int getMaxDepth ()
+	{
+		return maxDepth;
+	}
+	
+	
+	/**
+	 * Sets the number of cached traces.
+	 *
+	 * @param size the number of cached traces, 0 to disable the cache
+	 */
+	static void setCacheSize (int size)
+	{
+		cacheSize = size;
+		cache = createCache (size);
+	}
+	
+	
+	/**
+	 * Gets the number of cached traces.
+	 *
+	 * @return the number of cached traces
+	 */
+	static int getCacheSize ()
+	{
+		return cacheSize;
+	}
+	
+	
+	/**
+	 * Count the frames at the end of a trace that are also at the end of the
+	 * enclosing trace.
+	 *
+	 * @param trace the trace
+	 * @param enclosing the enclosing trace, or <code>null</code>
+	 * @return the number of common frames
+	 */
+	static int commonFrames (StackTraceElement[] trace,
+		StackTraceElement[] enclosing)
+	{
+		if (enclosing == null)
+			return 0;
+		int m = trace.length - 1;
+		int n = enclosing.length - 1;
+		while (m >= 0 && n >= 0 && trace[m].equals (enclosing[n]))
+		{
+			m--;
+			n--;
+		}
+		return trace.length - 1 - m;
+	}
+	
+	
+	/**
+	 * Visit the exceptions of a trace in the order they are rendered: the
+	 * exception, its suppressed exceptions, and its cause, recursively.
+	 *
+	 * @param e the exception
+	 * @param visitor the visitor
+	 */
+	static void visit (Throwable e, Visitor visitor)
+	{
+		Set<Throwable> seen = Collections
+			.newSetFromMap (new IdentityHashMap<Throwable, Boolean> ());
+		visit (e, null, TOP, seen, visitor, maxDepth);
+	}
+	
+	
+	/**
+	 * Visit an exception and its suppressed exceptions and causes.
+	 *
+	 * @param e the exception
+	 * @param enclosing the trace of the enclosing exception
+	 * @param caption the caption
+	 * @param seen the exceptions visited so far
+	 * @param visitor the visitor
+	 * @param depth the max number of frames per exception
+	 */
+	private static void visit (Throwable e, StackTraceElement[] enclosing,
+		int caption, Set<Throwable> seen, Visitor visitor, int depth)
+	{
+		if (seen.size () >= MAX_EXCEPTIONS)
+			return;
+		if (!seen.add (e))
+		{
+			visitor.visit (CIRCULAR, e.getClass ().getName (), e.getMessage (), null, 0, 0, 0);
+			return;
+		}
+		StackTraceElement[] trace = e.getStackTrace ();
+		int common = commonFrames (trace, enclosing);
+		int shown = trace.length - common;
+		int truncated = 0;
+		if (depth > 0 && shown > depth)
+		{
+			truncated = shown - depth;
+			shown = depth;
+		}
+		visitor.visit (caption, e.getClass ().getName (), e.getMessage (), trace, shown, truncated, common);
+		for (Throwable suppressed : e.getSuppressed ())
+			visit (suppressed, trace, SUPPRESSED, seen, visitor, depth);
+		Throwable cause = e.getCause ();
+		if (cause != null)
+			visit (cause, trace, CAUSED_BY, seen, visitor, depth);
+	}
+	
+	
+	/**
+	 * Append the stack trace of an exception.
+	 *
+	 * @param sb the string builder
+	 * @param e the exception
+	 */
+	static void append (final StringBuilder sb, Throwable e)
+	{
+		visit (e, (caption, className, message, trace, shown, truncated,
+			common) -> append (sb, caption, className, message, trace, shown, truncated, common));
+	}
+	
+	
+	/**
+	 * Append an exception of a trace.
+	 *
+	 * @param sb the string builder
+	 * @param caption the caption
+	 * @param className the class of the exception
+	 * @param message the message of the exception
+	 * @param trace the stack trace of the exception
+	 * @param shown the number of frames to render
+	 * @param truncated the number of frames omitted because of the max depth
+	 * @param common the number of frames in common with the enclosing trace
+	 */
+	static void append (StringBuilder sb, int caption, String className,
+		String message, StackTraceElement[] trace, int shown, int truncated,
+		int common)
+	{
+		sb.append (LOGGER.NEWLINE).append ("\t").append (CAPTIONS[caption])
+			.append (className).append (": ").append (message);
+		if (caption == CIRCULAR)
+			return;
+		Map<Key, String> c = cache;
+		if (c == null)
+		{
+			appendFrames (sb, trace, shown, truncated, common);
+			return;
+		}
+		Key key = new Key (trace, shown, truncated, common);
+		String frames;
+		CACHE_LOCK.lock ();
+		try
+		{
+			frames = c.get (key);
+		}
+		finally
+		{
+			CACHE_LOCK.unlock ();
+		}
+		if (frames == null)
+		{
+			StringBuilder rendered = new StringBuilder ();
+			appendFrames (rendered, trace, shown, truncated, common);
+			frames = rendered.toString ();
+			CACHE_LOCK.lock ();
+			try
+			{
+				c.put (key, frames);
+			}
+			finally
+			{
+				CACHE_LOCK.unlock ();
+			}
+		}
+		sb.append (frames);
+	}
+	
+	
+	/**
+	 * Append the frames of a trace.
+	 *
+	 * @param sb the string builder
+	 * @param trace the stack trace
+	 * @param shown the number of frames to render
+	 * @param truncated the number of frames omitted because of the max depth
+	 * @param common the number of frames in common with the enclosing trace
+	 */
+	private static void appendFrames (StringBuilder sb,
+		StackTraceElement[] trace, int shown, int truncated, int common)
+	{
+		for (int i = 0; i < shown; i++)
+		{
+			StackTraceElement el = trace[i];
+			sb.append (LOGGER.NEWLINE).append ("\t\tat ").append (el.getClassName ())
+				.append (".").append (el.getMethodName ()).append ("(")
+				.append (el.getFileName ()).append (":").append (el.getLineNumber ())
+				.append (")");
+		}
+		if (truncated > 0)
+			sb.append (LOGGER.NEWLINE).append ("\t\t... ").append (truncated)
+				.append (" frames truncated");
+		if (common > 0)
+			sb.append (LOGGER.NEWLINE).append ("\t\t... ").append (common)
+				.append (" more");
+	}
+}
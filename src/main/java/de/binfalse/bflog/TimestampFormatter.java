@@ -0,0 +1,501 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The TimestampFormatter formats time stamps for log messages. It is
+ * thread-safe and does not allocate objects in the common case: the
+ * formatted time stamp is cached per second, so formatting a time stamp
+ * just copies the cached characters into the message and overwrites the
+ * millisecond digits. If the second changes within the same minute only
+ * the digits of the seconds are rewritten.
+ * 
+ * The pattern understands a subset of the letters known from
+ * {@link java.text.SimpleDateFormat}:
+ * 
+ * <table>
+ * 	<tbody>
+ * 	<tr><th>yyyy, yy</th><td>year</td></tr>
+ * 	<tr><th>MM</th><td>month</td></tr>
+ * 	<tr><th>dd</th><td>day of month</td></tr>
+ * 	<tr><th>HH</th><td>hour of day (0-23)</td></tr>
+ * 	<tr><th>mm</th><td>minute</td></tr>
+ * 	<tr><th>ss</th><td>second</td></tr>
+ * 	<tr><th>SSS</th><td>millisecond</td></tr>
+ * 	<tr><th>X, XX, XXX</th><td>ISO 8601 time zone, e.g. <code>Z</code>, <code>+01</code>, <code>+0100</code>, <code>+01:00</code></td></tr>
+ * 	<tr><th>Z</th><td>RFC 822 time zone, e.g. <code>+0100</code></td></tr>
+ * 	<tr><th>'text'</th><td>quoted text, <code>''</code> is a single quote</td></tr>
+ * 	</tbody>
+ *  <caption>Supported pattern letters</caption>
+ * </table>
+ * 
+ * All other letters are rejected, all other characters are copied as they are.
+ * 
+ * @author martin scharm
+ */
+final class TimestampFormatter
+{
+	
+	/** Token type: literal text. */
+	private static final int	LITERAL		= 0;
+	
+	/** Token type: year. */
+	private static final int	YEAR			= 1;
+	
+	/** Token type: month. */
+	private static final int	MONTH			= 2;
+	
+	/** Token type: day of month. */
+	private static final int	DAY				= 3;
+	
+	/** Token type: hour of day. */
+	private static final int	HOUR			= 4;
+	
+	/** Token type: minute. */
+	private static final int	MINUTE		= 5;
+	
+	/** Token type: second. */
+	private static final int	SECOND		= 6;
+	
+	/** Token type: millisecond. */
+	private static final int	MILLIS		= 7;
+	
+	/** Token type: ISO 8601 zone. */
+	private static final int	ZONE_ISO	= 8;
+	
+	/** Token type: RFC 822 zone. */
+	private static final int	ZONE_RFC	= 9;
+	
+	/**
+	 * The formatted time stamp of a single second. Instances are immutable and
+	 * can thus be shared by all threads.
+	 */
+	private static final class Cached
+	{
+		
+		/** The epoch second. */
+		final long		second;
+		
+		/** The formatted time stamp, millis are not yet filled in. */
+		final char[]	chars;
+		
+		/** The positions of the seconds in <code>chars</code>. */
+		final int[]		secondPositions;
+		
+		/** The positions of the millis in <code>chars</code>. */
+		final int[]		millisPositions;
+		
+		
+		/**
+		 * Instantiates a new cached time stamp.
+		 *
+		 * @param second the epoch second
+		 * @param chars the formatted time stamp
+		 * @param secondPositions the positions of the seconds
+		 * @param millisPositions the positions of the millis
+		 */
+		Cached (long second, char[] chars, int[] secondPositions,
+			int[] millisPositions)
+		{
+			this.second = second;
+			this.chars = chars;
+			this.secondPositions = secondPositions;
+			this.millisPositions = millisPositions;
+		}
+	}
+	
+	/** The pattern. */
+	private final String		pattern;
+	
+	/** The time zone. */
+	private final ZoneId		zone;
+	
+	/** The types of the tokens. */
+	private final int[]			types;
+	
+	/** The widths of the tokens. */
+	private final int[]			widths;
+	
+	/** The text of literal tokens. */
+	private final String[]	literals;
+	
+	/** The number of seconds fields. */
+	private final int				numSeconds;
+	
+	/** The number of millis fields. */
+	private final int				numMillis;
+	
+	/** The time stamp of the last second we've formatted. */
+	private volatile Cached	cached;
+	
+	
+	/**
+	 * Instantiates a new timestamp formatter for the system's default time zone.
+	 *
+	 * @param pattern the pattern
+	 * @throws IllegalArgumentException if the pattern is not supported
+	 */
+	TimestampFormatter (String pattern)
+	{
+		this (pattern, ZoneId.systemDefault ());
+	}
+	
+	
+	/**
+	 * Instantiates a new timestamp formatter.
+	 *
+	 * @param pattern the pattern
+	 * @param zone the time zone
+	 * @throws IllegalArgumentException if the pattern is not supported
+	 */
+	TimestampFormatter (String pattern, ZoneId zone)
+	{
+		this.pattern = pattern;
+		this.zone = zone;
+		
+		List<Integer> typeList = new ArrayList<Integer> ();
+		List<Integer> widthList = new ArrayList<Integer> ();
+		List<String> literalList = new ArrayList<String> ();
+		StringBuilder literal = new StringBuilder ();
+		int seconds = 0, millis = 0;
+		
+		int i = 0;
+		while (i < pattern.length ())
+		{
+			char c = pattern.charAt (i);
+			if (c == '\'')
+			{
+				// quoted text, '' is an escaped quote
+				i++;
+				if (i < pattern.length () && pattern.charAt (i) == '\'')
+				{
+					literal.append ('\'');
+					i++;
+					continue;
+				}
+				while (true)
+				{
+					if (i >= pattern.length ())
+						throw new IllegalArgumentException ("unterminated quote in date pattern: " + pattern);
+					if (pattern.charAt (i) == '\'')
+					{
+						if (i + 1 < pattern.length () && pattern.charAt (i + 1) == '\'')
+						{
+							literal.append ('\'');
+							i += 2;
+							continue;
+						}
+						i++;
+						break;
+					}
+					literal.append (pattern.charAt (i++));
+				}
+				continue;
+			}
+			
+			if ((c < 'a' || c > 'z') && (c < 'A' || c > 'Z'))
+			{
+				literal.append (c);
+				i++;
+				continue;
+			}
+			
+			int count = 1;
+			while (i + count < pattern.length () && pattern.charAt (i + count) == c)
+				count++;
+			
+			int type, width = 2;
+			switch (c)
+			{
+				case 'y':
+					if (count != 2 && count != 4)
+						throw new IllegalArgumentException ("year must be yy or yyyy: " + pattern);
+					type = YEAR;
+					width = count;
+					break;
+				case 'M':
+					type = MONTH;
+					break;
+				case 'd':
+					type = DAY;
+					break;
+				case 'H':
+					type = HOUR;
+					break;
+				case 'm':
+					type = MINUTE;
+					break;
+				case 's':
+					type = SECOND;
+					seconds++;
+					break;
+				case 'S':
+					type = MILLIS;
+					width = 3;
+					millis++;
+					break;
+				case 'X':
+					if (count > 3)
+						throw new IllegalArgumentException ("too many X in date pattern: " + pattern);
+					type = ZONE_ISO;
+					width = count;
+					break;
+				case 'Z':
+					type = ZONE_RFC;
+					width = count;
+					break;
+				default:
+					throw new IllegalArgumentException ("unsupported letter '" + c + "' in date pattern: " + pattern);
+			}
+			if (type != YEAR && type != ZONE_ISO && type != ZONE_RFC && count != width)
+				throw new IllegalArgumentException ("'" + c + "' needs to be repeated " + width + " times: " + pattern);
+			
+			if (literal.length () > 0)
+			{
+				typeList.add (LITERAL);
+				widthList.add (literal.length ());
+				literalList.add (literal.toString ());
+				literal.setLength (0);
+			}
+			typeList.add (type);
+			widthList.add (width);
+			literalList.add (null);
+			i += count;
+		}
+		if (literal.length () > 0)
+		{
+			typeList.add (LITERAL);
+			widthList.add (literal.length ());
+			literalList.add (literal.toString ());
+		}
+		
+		types = new int[typeList.size ()];
+		widths = new int[typeList.size ()];
+		literals = literalList.toArray (new String[literalList.size ()]);
+		for (int j = 0; j < types.length; j++)
+		{
+			types[j] = typeList.get (j);
+			widths[j] = widthList.get (j);
+		}
+		numSeconds = seconds;
+		numMillis = millis;
+	}
+	
+	
+	/**
+	 * Gets the pattern.
+	 *
+	 * @return the pattern
+	 */
+	String getPattern ()
+	{
+		return pattern;
+	}
+	
+	
+	/**
+	 * Append the formatted time stamp to a string builder.
+	 *
+	 * @param millis the time in milliseconds since the epoch
+	 * @param sb the string builder
+	 * @return the string builder
+	 */
+	StringBuilder format (long millis, StringBuilder sb)
+	{
+		long second = Math.floorDiv (millis, 1000L);
+		Cached c = cached;
+		if (c == null || c.second != second)
+		{
+			c = compute (c, second);
+			cached = c;
+		}
+		
+		int start = sb.length ();
+		sb.append (c.chars);
+		if (c.millisPositions.length > 0)
+		{
+			int ms = (int) Math.floorMod (millis, 1000L);
+			for (int pos : c.millisPositions)
+			{
+				sb.setCharAt (start + pos, (char) ('0' + ms / 100));
+				sb.setCharAt (start + pos + 1, (char) ('0' + ms / 10 % 10));
+				sb.setCharAt (start + pos + 2, (char) ('0' + ms % 10));
+			}
+		}
+		return sb;
+	}
+	
+	
+	/**
+	 * Format a time stamp.
+	 *
+	 * @param millis the time in milliseconds since the epoch
+	 * @return the formatted time stamp
+	 */
+	String format (long millis)
+	{
+		return format (millis, new StringBuilder (32)).toString ();
+	}
+	
+	
+	/**
+	 * Compute the time stamp of a second. If the previous second is in the
+	 * same minute we just need to update the seconds.
+	 *
+	 * @param previous the previously cached time stamp, may be <code>null</code>
+	 * @param second the epoch second
+	 * @return the time stamp of <code>second</code>
+	 */
+	private Cached compute (Cached previous, long second)
+	{
+		if (previous != null
+			&& Math.floorDiv (previous.second, 60) == Math.floorDiv (second, 60))
+		{
+			char[] chars = previous.chars.clone ();
+			int s = (int) Math.floorMod (second, 60L);
+			for (int pos : previous.secondPositions)
+			{
+				chars[pos] = (char) ('0' + s / 10);
+				chars[pos + 1] = (char) ('0' + s % 10);
+			}
+			return new Cached (second, chars, previous.secondPositions,
+				previous.millisPositions);
+		}
+		
+		ZoneOffset offset = zone.getRules ().getOffset (Instant.ofEpochSecond (second));
+		LocalDateTime time = LocalDateTime.ofEpochSecond (second, 0, offset);
+		StringBuilder sb = new StringBuilder (32);
+		int[] secondPositions = new int[numSeconds];
+		int[] millisPositions = new int[numMillis];
+		int seconds = 0, millis = 0;
+		for (int j = 0; j < types.length; j++)
+		{
+			switch (types[j])
+			{
+				case LITERAL:
+					sb.append (literals[j]);
+					break;
+				case YEAR:
+					if (widths[j] == 2)
+						appendDigits (sb, time.getYear () % 100, 2);
+					else
+						appendDigits (sb, time.getYear (), 4);
+					break;
+				case MONTH:
+					appendDigits (sb, time.getMonthValue (), 2);
+					break;
+				case DAY:
+					appendDigits (sb, time.getDayOfMonth (), 2);
+					break;
+				case HOUR:
+					appendDigits (sb, time.getHour (), 2);
+					break;
+				case MINUTE:
+					appendDigits (sb, time.getMinute (), 2);
+					break;
+				case SECOND:
+					secondPositions[seconds++] = sb.length ();
+					appendDigits (sb, time.getSecond (), 2);
+					break;
+				case MILLIS:
+					millisPositions[millis++] = sb.length ();
+					sb.append ("000");
+					break;
+				case ZONE_ISO:
+					appendZone (sb, offset.getTotalSeconds (), widths[j], true);
+					break;
+				case ZONE_RFC:
+					appendZone (sb, offset.getTotalSeconds (), 2, false);
+					break;
+			}
+		}
+		char[] chars = new char[sb.length ()];
+		sb.getChars (0, chars.length, chars, 0);
+		return new Cached (second, chars, secondPositions, millisPositions);
+	}
+	
+	
+	/**
+	 * Append a number with a fixed number of digits.
+	 *
+	 * @param sb the string builder
+	 * @param value the non-negative value
+	 * @param digits the number of digits
+	 */
+	private static void appendDigits (StringBuilder sb, int value, int digits)
+	{
+		int div = 1;
+		for (int i = 1; i < digits; i++)
+			div *= 10;
+		for (; div > 0; div /= 10)
+			sb.append ((char) ('0' + value / div % 10));
+	}
+	
+	
+	/**
+	 * Append a time zone offset.
+	 *
+	 * @param sb the string builder
+	 * @param totalSeconds the offset in seconds
+	 * @param width 1 for <code>+HH</code> (<code>+HHMM</code> if there are minutes), 2 for <code>+HHMM</code>, 3 for <code>+HH:MM</code>
+	 * @param iso should we print <code>Z</code> for UTC?
+	 */
+	private static void appendZone (StringBuilder sb, int totalSeconds,
+		int width, boolean iso)
+	{
+		if (iso && totalSeconds == 0)
+		{
+			sb.append ('Z');
+			return;
+		}
+		sb.append (totalSeconds < 0 ? '-' : '+');
+		int minutes = Math.abs (totalSeconds) / 60;
+		appendDigits (sb, minutes / 60, 2);
+		if (width == 1 && minutes % 60 == 0)
+			return;
+		if (width == 3)
+			sb.append (':');
+		appendDigits (sb, minutes % 60, 2);
+	}
+}
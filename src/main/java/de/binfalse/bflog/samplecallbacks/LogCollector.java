@@ -42,8 +42,8 @@ import de.binfalse.bflog.LogCallback;
 
 
 /**
- * LogCollector collects all messages. Just initialize it at pass the object
- * to the LOGGER:
+ * LogCollector collects the latest messages. Just initialize it at pass the
+ * object to the LOGGER:
  * 
  * <pre>
  * LogCollector lc = new LogCollector ();
@@ -59,6 +59,11 @@ import de.binfalse.bflog.LogCallback;
  * Vector&lt;String&gt; errors = lc.getErrors ();
  * </pre>
  * 
+ * The messages of every level are kept in a bounded {@link LogStore}, so only
+ * the latest <code>capacity</code> messages per level are available. Use
+ * {@link #getStore(int)} to query the messages without copying all of them,
+ * e.g. <code>lc.getStore (LOGGER.ERROR).matching ("timeout")</code>.
+ * 
  * @author martin scharm
  *
  */
@@ -66,63 +71,127 @@ public class LogCollector
 implements LogCallback
 {
 	
-	/** The vectors. */
-	private Vector<String>	errors, warns, infos, debugs;
+	/** The default number of messages kept per level. */
+	public static final int	DEFAULT_CAPACITY	= 10000;
+	
+	/** The stores. */
+	private LogStore	errors, warns, infos, debugs;
 	
 	
 	/**
-	 * Instantiates a new log collector.
+	 * Instantiates a new log collector keeping the latest
+	 * {@link #DEFAULT_CAPACITY} messages per level.
 	 */
 	public LogCollector ()
 	{
-		errors = new Vector<String> ();
-		warns = new Vector<String> ();
-		infos = new Vector<String> ();
-		debugs = new Vector<String> ();
+		this (DEFAULT_CAPACITY);
+	}
+	
+	
+	/**
+	 * Instantiates a new log collector.
+	 *
+	 * @param capacity the number of messages kept per level
+	 */
+	public LogCollector (int capacity)
+	{
+		this (capacity, 0);
+	}
+	
+	
+	/**
+	 * Instantiates a new log collector.
+	 *
+	 * @param capacity the number of messages kept per level
+	 * @param maxAge messages older than this number of milliseconds are
+	 *          ignored, 0 to keep them until they are evicted
+	 */
+	public LogCollector (int capacity, long maxAge)
+	{
+		errors = new LogStore (capacity, maxAge);
+		warns = new LogStore (capacity, maxAge);
+		infos = new LogStore (capacity, maxAge);
+		debugs = new LogStore (capacity, maxAge);
+	}
+	
+	
+	/**
+	 * Gets the store of a level.
+	 *
+	 * @param lvl the level, e.g. <code>LOGGER.ERROR</code>
+	 * @return the store keeping the messages of that level
+	 */
+	public LogStore getStore (int lvl)
+	{
+		switch (lvl)
+		{
+			case LOGGER.ERROR:
+				return errors;
+			case LOGGER.WARN:
+				return warns;
+			case LOGGER.INFO:
+				return infos;
+			case LOGGER.DEBUG:
+				return debugs;
+			default:
+				throw new IllegalArgumentException ("unknown level: " + lvl);
+		}
+	}
+	
+	
+	/**
+	 * Remove all collected messages.
+	 */
+	public void clear ()
+	{
+		errors.clear ();
+		warns.clear ();
+		infos.clear ();
+		debugs.clear ();
 	}
 	
 	
 	/**
-	 * Gets the errors.
+	 * Gets a snapshot of the errors.
 	 * 
 	 * @return the errors
 	 */
 	public Vector<String> getErrors ()
 	{
-		return errors;
+		return new Vector<String> (errors.snapshot ());
 	}
 	
 	
 	/**
-	 * Gets the warnings.
+	 * Gets a snapshot of the warnings.
 	 * 
 	 * @return the warnings
 	 */
 	public Vector<String> getWarnings ()
 	{
-		return warns;
+		return new Vector<String> (warns.snapshot ());
 	}
 	
 	
 	/**
-	 * Gets the infos.
+	 * Gets a snapshot of the infos.
 	 * 
 	 * @return the infos
 	 */
 	public Vector<String> getInfos ()
 	{
-		return infos;
+		return new Vector<String> (infos.snapshot ());
 	}
 	
 	
 	/**
-	 * Gets the debugs.
+	 * Gets a snapshot of the debugs.
 	 * 
 	 * @return the debugs
 	 */
 	public Vector<String> getDebugs ()
 	{
-		return debugs;
+		return new Vector<String> (debugs.snapshot ());
 	}
 	
 	
@@ -41,6 +41,9 @@ import de.binfalse.bflog.LogCallback;
 
 /**
  * Just an example that will execute something in case of errors or warnings.
+ * It ignores all other messages, but it is cheaper to register it for these
+ * levels only:
+ * <code>LOGGER.addCallback (new LogFire (), LOGGER.ERROR | LOGGER.WARN)</code>
  * 
  * 
  * @author martin scharm
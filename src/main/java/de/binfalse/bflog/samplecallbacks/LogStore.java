@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog.samplecallbacks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A LogStore keeps the latest messages in a bounded ring buffer. If the
+ * buffer is full the oldest message is evicted, and optionally messages
+ * older than a maximum age are ignored.
+ * 
+ * Appending a message does not take a lock: writers reserve a slot using an
+ * atomic counter and publish an immutable entry into that slot, unless a
+ * writer that came later already published a newer entry there. Readers walk
+ * the ring from the newest message backwards and skip slots that were
+ * overwritten in the meantime, so queries only copy the messages they
+ * return.
+ * 
+ * @author martin scharm
+ */
+public class LogStore
+{
+	
+	/**
+	 * An immutable entry of the store.
+	 */
+	private static final class Entry
+	{
+		
+		/** The sequence number of the message. */
+		private final long		seq;
+		
+		/** The time the message was stored. */
+		private final long		timestamp;
+		
+		/** The message. */
+		private final String	message;
+		
+		
+		/**
+		 * Instantiates a new entry.
+		 *
+		 * @param seq the sequence number
+		 * @param timestamp the time stamp
+		 * @param message the message
+		 */
+		private Entry (long seq, long timestamp, String message)
+		{
+			this.seq = seq;
+			this.timestamp = timestamp;
+			this.message = message;
+		}
+	}
+	
+	/** The slots of the ring buffer. */
+	private final AtomicReferenceArray<Entry>	slots;
+	
+	/** The capacity. */
+	private final int													capacity;
+	
+	/** Messages older than this number of milliseconds are ignored, 0 to keep them. */
+	private final long												maxAge;
+	
+	/** The sequence number of the next message. */
+	private final AtomicLong									next	= new AtomicLong ();
+	
+	/** Messages before this sequence number were cleared. */
+	private volatile long											first;
+	
+	
+	/**
+	 * Instantiates a new log store.
+	 *
+	 * @param capacity the max number of messages to keep
+	 */
+	public LogStore (int capacity)
+	{
+		this (capacity, 0);
+	}
+	
+	
+	/**
+	 * Instantiates a new log store.
+	 *
+	 * @param capacity the max number of messages to keep
+	 * @param maxAge messages older than this number of milliseconds are
+	 *          ignored, 0 to keep them until they are evicted
+	 */
+	public LogStore (int capacity, long maxAge)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException ("capacity must be positive");
+		if (maxAge < 0)
+			throw new IllegalArgumentException ("max age must not be negative");
+		this.capacity = capacity;
+		this.maxAge = maxAge;
+		slots = new AtomicReferenceArray<Entry> (capacity);
+	}
+	
+	
+	/**
+	 * Store a message, evicting the oldest one if the store is full.
+	 *
+	 * @param message the message
+	 */
+	public void add (String message)
+	{
+		long seq = next.getAndIncrement ();
+		int slot = (int) (seq % capacity);
+		Entry entry = new Entry (seq, System.currentTimeMillis (), message);
+		while (true)
+		{
+			Entry current = slots.get (slot);
+			// a slow writer must not replace a newer message
+			if (current != null && current.seq > seq)
+				return;
+			if (slots.compareAndSet (slot, current, entry))
+				return;
+		}
+	}
+	
+	
+	/**
+	 * Gets the capacity.
+	 *
+	 * @return the max number of messages kept
+	 */
+	public int getCapacity ()
+	{
+		return capacity;
+	}
+	
+	
+	/**
+	 * Gets the number of messages that were stored in total, including
+	 * evicted and cleared messages.
+	 *
+	 * @return the number of messages stored so far
+	 */
+	public long getTotal ()
+	{
+		return next.get ();
+	}
+	
+	
+	/**
+	 * Remove all messages.
+	 */
+	public void clear ()
+	{
+		first = next.get ();
+	}
+	
+	
+	/**
+	 * Collect the newest messages, from the newest to the oldest.
+	 *
+	 * @param max the max number of messages to collect
+	 * @param since the oldest time stamp to collect
+	 * @param substring the substring the messages need to contain, or
+	 *          <code>null</code>
+	 * @return the messages
+	 */
+	private List<String> collect (int max, long since, String substring)
+	{
+		if (maxAge > 0)
+			since = Math.max (since, System.currentTimeMillis () - maxAge);
+		long end = next.get ();
+		long start = Math.max (first, end - capacity);
+		List<String> messages = new ArrayList<String> (Math.min (max, (int) (end - start)));
+		for (long seq = end - 1; seq >= start && messages.size () < max; seq--)
+		{
+			Entry entry = slots.get ((int) (seq % capacity));
+			// not yet published or overwritten by a newer message
+			if (entry == null || entry.seq != seq)
+				continue;
+			// concurrent writers may store their messages out of time order
+			if (entry.timestamp < since)
+				continue;
+			if (substring == null || entry.message.contains (substring))
+				messages.add (entry.message);
+		}
+		return messages;
+	}
+	
+	
+	/**
+	 * Gets a snapshot of all messages, from the oldest to the newest.
+	 *
+	 * @return the messages
+	 */
+	public List<String> snapshot ()
+	{
+		return last (capacity);
+	}
+	
+	
+	/**
+	 * Gets the newest messages, from the oldest to the newest.
+	 *
+	 * @param n the max number of messages
+	 * @return the messages
+	 */
+	public List<String> last (int n)
+	{
+		List<String> messages = collect (n, Long.MIN_VALUE, null);
+		Collections.reverse (messages);
+		return messages;
+	}
+	
+	
+	/**
+	 * Gets the messages stored since a certain time, from the oldest to the
+	 * newest.
+	 *
+	 * @param millis the time in milliseconds since the epoch
+	 * @return the messages
+	 */
+	public List<String> since (long millis)
+	{
+		List<String> messages = collect (Integer.MAX_VALUE, millis, null);
+		Collections.reverse (messages);
+		return messages;
+	}
+	
+	
+	/**
+	 * Gets the messages containing a substring, from the oldest to the newest.
+	 *
+	 * @param substring the substring
+	 * @return the messages
+	 */
+	public List<String> matching (String substring)
+	{
+		List<String> messages = collect (Integer.MAX_VALUE, Long.MIN_VALUE, substring);
+		Collections.reverse (messages);
+		return messages;
+	}
+	
+	
+	/**
+	 * Gets the number of messages currently stored.
+	 *
+	 * @return the number of messages
+	 */
+	public int size ()
+	{
+		if (maxAge > 0)
+			return collect (Integer.MAX_VALUE, Long.MIN_VALUE, null).size ();
+		long end = next.get ();
+		return (int) (end - Math.max (first, end - capacity));
+	}
+}
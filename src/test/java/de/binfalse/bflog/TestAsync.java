@@ -0,0 +1,422 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.binfalse.bflog.samplecallbacks.LogCollector;
+
+
+/**
+ * Test the asynchronous mode of the LOGGER.
+ */
+public class TestAsync
+{
+	
+	/**
+	 * Switch back to synchronous logging.
+	 */
+	@After
+	public void tearDown ()
+	{
+		LOGGER.setAsync (false);
+		LOGGER.setAsyncCapacity (LOGGER.DEFAULT_ASYNC_CAPACITY);
+		LOGGER.setAsyncOverflowPolicy (LOGGER.OVERFLOW_BLOCK);
+		LOGGER.setCallbackLatencyBudget (0, false);
+	}
+	
+	/**
+	 * Test that all messages of several threads arrive when closing the logger.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testDrainOnClose () throws InterruptedException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.DEBUG);
+		LogCollector lc = new LogCollector ();
+		LOGGER.addCallback (lc);
+		
+		// small buffer to force the producers to wait for the consumer
+		LOGGER.setAsyncCapacity (16);
+		LOGGER.setAsync (true);
+		assertTrue ("logger should log asynchronously", LOGGER.isAsync ());
+		
+		Thread [] threads = new Thread [4];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread ()
+			{
+				public void run ()
+				{
+					for (int j = 0; j < 500; j++)
+						LOGGER.info ("message ", j);
+				}
+			};
+			threads[i].start ();
+		}
+		for (Thread t : threads)
+			t.join ();
+		
+		assertEquals ("blocking policy must not drop messages", 0, LOGGER.getAsyncDropped ());
+		LOGGER.closeLogger ();
+		LOGGER.rmCallBack (lc);
+		
+		assertFalse ("logger should not log asynchronously after closing", LOGGER.isAsync ());
+		assertEquals ("blocking policy must not lose messages", 2000, lc.getInfos ().size ());
+	}
+	
+	/**
+	 * Switch the asynchronous mode on and off while several threads log and
+	 * make sure no line is lost during the shutdowns.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testCloseWhileLogging () throws InterruptedException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.DEBUG);
+		final AtomicInteger received = new AtomicInteger ();
+		LogCallback counter = (lvl, msg) -> received.incrementAndGet ();
+		LOGGER.addCallback (counter);
+		LOGGER.setAsyncCapacity (16);
+		
+		final AtomicInteger sent = new AtomicInteger ();
+		final AtomicBoolean running = new AtomicBoolean (true);
+		Thread [] threads = new Thread [4];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread ( () -> {
+				while (running.get ())
+				{
+					LOGGER.info ("message");
+					sent.incrementAndGet ();
+				}
+			});
+			threads[i].start ();
+		}
+		try
+		{
+			for (int i = 0; i < 50; i++)
+			{
+				LOGGER.setAsync (true);
+				Thread.sleep (2);
+				LOGGER.setAsync (false);
+			}
+		}
+		finally
+		{
+			running.set (false);
+			for (Thread t : threads)
+				t.join ();
+			LOGGER.rmCallBack (counter);
+		}
+		assertEquals ("lines were lost while shutting down", sent.get (), received.get ());
+	}
+	
+	
+	/**
+	 * Test the drop policies using a callback that blocks the consumer.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testDropPolicies () throws InterruptedException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.DEBUG);
+		
+		final CountDownLatch blocking = new CountDownLatch (1);
+		final CountDownLatch release = new CountDownLatch (1);
+		LogCallback blocker = new LogCallback ()
+		{
+			public void logged (int lvl, String msg)
+			{
+				blocking.countDown ();
+				try
+				{
+					release.await ();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread ().interrupt ();
+				}
+			}
+		};
+		LogCollector lc = new LogCollector ();
+		LOGGER.addCallback (blocker);
+		LOGGER.addCallback (lc);
+		
+		LOGGER.setAsyncCapacity (4);
+		LOGGER.setAsyncOverflowPolicy (LOGGER.OVERFLOW_DROP_BELOW_LEVEL, LOGGER.WARN);
+		LOGGER.setAsync (true);
+		
+		// the consumer takes the first message and blocks
+		LOGGER.error ("blocking message");
+		blocking.await ();
+		
+		// fill the buffer with errors, then everything below warn is dropped
+		// (the consumer holds on to the first slot while dispatching it)
+		for (int i = 0; i < 3; i++)
+			LOGGER.error ("error ", i);
+		for (int i = 0; i < 10; i++)
+			LOGGER.debug ("debug ", i);
+		assertEquals ("debug messages should have been dropped", 10, LOGGER.getAsyncDropped ());
+		
+		release.countDown ();
+		LOGGER.setAsync (false);
+		LOGGER.rmCallBack (blocker);
+		LOGGER.rmCallBack (lc);
+		
+		assertEquals ("errors must not be dropped", 4, lc.getErrors ().size ());
+		assertEquals ("debug messages should have been dropped", 0, lc.getDebugs ().size ());
+	}
+	
+	/**
+	 * Test that a slow async callback doesn't block the logging thread, and
+	 * that its messages are delivered when it is unregistered.
+	 */
+	@Test
+	public void testAsyncCallback ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.DEBUG);
+		final LogCollector lc = new LogCollector ();
+		LogCallback slow = new LogCallback ()
+		{
+			public void logged (int lvl, String msg)
+			{
+				LockSupport.parkNanos (2000000);
+				lc.logged (lvl, msg);
+			}
+		};
+		LOGGER.addAsyncCallback (slow, LOGGER.INFO, 256, LOGGER.OVERFLOW_BLOCK);
+		long start = System.nanoTime ();
+		for (int i = 0; i < 100; i++)
+		{
+			LOGGER.info ("message {}", i);
+			LOGGER.debug ("not for the callback");
+		}
+		long took = (System.nanoTime () - start) / 1000000;
+		assertTrue ("logging waited for the callback: " + took + " ms", took < 150);
+		LOGGER.rmCallBack (slow);
+		assertEquals ("messages lost", 100, lc.getInfos ().size ());
+		assertEquals ("unexpected message", "message 99", lc.getInfos ().lastElement ().substring (lc.getInfos ().lastElement ().length () - 10));
+		assertTrue ("unexpected debug messages", lc.getDebugs ().isEmpty ());
+		
+		// a small buffer drops messages
+		LOGGER.addAsyncCallback (slow, LOGGER.INFO, 4, LOGGER.OVERFLOW_DROP);
+		for (int i = 0; i < 100; i++)
+			LOGGER.info ("message {}", i);
+		LOGGER.rmCallBack (slow);
+		assertTrue ("messages should be dropped", lc.getInfos ().size () < 150);
+		LOGGER.closeLogger ();
+	}
+	
+	
+	/**
+	 * Make sure closing the logger delivers the buffered messages of the async
+	 * callbacks and stops their threads.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testCloseAsyncCallbacks () throws InterruptedException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		LogCollector lc = new LogCollector ();
+		LOGGER.addAsyncCallback (lc, LOGGER.INFO);
+		for (int i = 0; i < 100; i++)
+			LOGGER.info ("message {}", i);
+		LOGGER.closeLogger ();
+		assertEquals ("messages lost", 100, lc.getInfos ().size ());
+		
+		long deadline = System.currentTimeMillis () + 5000;
+		while (bflogThreads () > 0 && System.currentTimeMillis () < deadline)
+			Thread.sleep (5);
+		assertEquals ("callback threads still running", 0, bflogThreads ());
+	}
+	
+	
+	/**
+	 * Count the running worker and watchdog threads of async callbacks.
+	 *
+	 * @return the number of threads
+	 */
+	private static int bflogThreads ()
+	{
+		int n = 0;
+		for (Thread thread : Thread.getAllStackTraces ().keySet ())
+			if (thread.getName ().startsWith ("BFLog-callback-") || thread.getName ().equals ("BFLog-watchdog"))
+				n++;
+		return n;
+	}
+	
+	/**
+	 * Test that the watchdog reports and detaches a callback that hangs.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testWatchdog () throws InterruptedException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		final CountDownLatch release = new CountDownLatch (1);
+		final AtomicInteger calls = new AtomicInteger ();
+		LogCallback hanging = new LogCallback ()
+		{
+			public void logged (int lvl, String msg)
+			{
+				calls.incrementAndGet ();
+				try
+				{
+					release.await ();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread ().interrupt ();
+				}
+			}
+		};
+		LogCollector lc = new LogCollector ();
+		LOGGER.addCallback (lc, LOGGER.WARN);
+		LOGGER.setCallbackLatencyBudget (50, true);
+		// registered twice, only the async registration must go
+		LOGGER.addCallback (hanging, LOGGER.ERROR);
+		LOGGER.addAsyncCallback (hanging, LOGGER.INFO);
+		try
+		{
+			LOGGER.info ("hang");
+			long deadline = System.currentTimeMillis () + 5000;
+			while (lc.getWarnings ().isEmpty () && System.currentTimeMillis () < deadline)
+				Thread.sleep (10);
+			assertEquals ("expected a warning", 1, lc.getWarnings ().size ());
+			assertTrue ("unexpected warning: " + lc.getWarnings ().get (0), lc.getWarnings ().get (0).endsWith ("exceeded its latency budget of 50 ms and was unregistered"));
+			release.countDown ();
+			int before = calls.get ();
+			LOGGER.error ("still registered");
+			assertEquals ("synchronous registration was removed", before + 1, calls.get ());
+			LOGGER.rmCallBack (hanging);
+			assertNull ("callback still registered", LOGGER.getMetrics ().getLatency (hanging));
+		}
+		finally
+		{
+			release.countDown ();
+			LOGGER.rmCallBack (hanging);
+			LOGGER.rmCallBack (hanging);
+			LOGGER.rmCallBack (lc);
+			LOGGER.closeLogger ();
+		}
+	}
+	
+	/**
+	 * Test that batches are passed if they are full or lingered long enough.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testBatchCallback () throws InterruptedException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		final List<List<LogEvent>> batches = Collections.synchronizedList (new ArrayList<List<LogEvent>> ());
+		BatchLogCallback bcb = events -> batches.add (new ArrayList<LogEvent> (events));
+		long before = System.currentTimeMillis ();
+		LOGGER.addBatchCallback (bcb, LOGGER.WARN | LOGGER.INFO, 10, 200);
+		try
+		{
+			for (int i = 0; i < 25; i++)
+				LOGGER.info ("message {}", i);
+			LOGGER.error ("not for the callback");
+			LOGGER.warn ("warning");
+			
+			long deadline = System.currentTimeMillis () + 5000;
+			while (batches.size () < 2 && System.currentTimeMillis () < deadline)
+				Thread.sleep (5);
+			assertEquals ("expected two full batches", 2, batches.size ());
+			assertEquals ("unexpected batch size", 10, batches.get (0).size ());
+			assertEquals ("unexpected batch size", 10, batches.get (1).size ());
+			
+			// the rest lingers
+			while (batches.size () < 3 && System.currentTimeMillis () < deadline)
+				Thread.sleep (5);
+			assertEquals ("expected the lingering batch", 3, batches.size ());
+			List<LogEvent> last = batches.get (2);
+			assertEquals ("unexpected batch size", 6, last.size ());
+			assertEquals ("unexpected level", LOGGER.WARN, last.get (5).getLevel ());
+			assertTrue ("unexpected message", last.get (5).getMessage ().endsWith ("warning"));
+			assertTrue ("unexpected message", last.get (4).getMessage ().endsWith ("message 24"));
+			assertTrue ("unexpected timestamp", last.get (5).getTimestamp () >= before && last.get (5).getTimestamp () <= System.currentTimeMillis ());
+			
+			// removing the callback passes the buffered messages
+			LOGGER.info ("last");
+		}
+		finally
+		{
+			LOGGER.rmBatchCallBack (bcb);
+		}
+		assertEquals ("buffered message lost", 4, batches.size ());
+		assertTrue ("unexpected message", batches.get (3).get (0).getMessage ().endsWith ("last"));
+		
+		// the adapter
+		LogCollector lc = new LogCollector ();
+		BatchLogCallback.of (lc).logged (batches.get (3));
+		assertEquals ("unexpected messages", 1, lc.getInfos ().size ());
+		LOGGER.closeLogger ();
+	}
+}
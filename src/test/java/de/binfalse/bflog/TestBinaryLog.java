@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Test the binary log format.
+ */
+public class TestBinaryLog
+{
+	
+	/** The log file. */
+	private File	logFile;
+	
+	
+	/**
+	 * Create a temporary log file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void setUp () throws IOException
+	{
+		logFile = File.createTempFile ("BFlogTest", "test");
+		logFile.deleteOnExit ();
+	}
+	
+	
+	/**
+	 * Reset the logger.
+	 */
+	@After
+	public void tearDown ()
+	{
+		LOGGER.closeLogger ();
+		LOGGER.setLogFileBinary (false);
+		LOGGER.setLogStackTrace (false);
+		LOGGER.setCallerLocation (LOGGER.CALLER_FULL);
+		LOGGER.setDateFormat (LOGGER.DATE_FORMAT_DEFAULT);
+		LOGGER.setSuppressDuplicates (false);
+	}
+	
+	
+	/**
+	 * Read a binary log.
+	 *
+	 * @return the rendered lines
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private List<String> decode () throws IOException
+	{
+		List<String> lines = new ArrayList<String> ();
+		try (BinaryLogDecoder decoder = new BinaryLogDecoder (new FileInputStream (logFile), LOGGER.DATE_FORMAT_ISO8601))
+		{
+			String line;
+			while ((line = decoder.readLine ()) != null)
+				lines.add (line);
+		}
+		return lines;
+	}
+	
+	
+	/**
+	 * Log some messages
+	 */
+	private void logSomething ()
+	{
+		LOGGER.info ("user {} took {} ms", "martin", 42);
+		LOGGER.info ("{} + {} = {}", 1, 2.5, 3.5f);
+		LOGGER.info ("pi is about {}", 3.14);
+		LOGGER.info ("separator: {}", ';');
+		LOGGER.info ("{} and {}", 1L, 2L);
+		LOGGER.info ("{} or {}", true, null);
+		LOGGER.info ("no placeholder", " but two", " arguments");
+		LOGGER.info ("missing {} and {}", "argument");
+		LOGGER.info ("umlauts \u00e4\u00f6\u00fc and \u20ac and ", new StringBuilder ("\ud83d\ude00"));
+		LOGGER.warn (new Object ()
+		{
+			public String toString ()
+			{
+				return "an object";
+			}
+		});
+		LOGGER.error (new IllegalStateException ("broken"), "failed ", 3, " times");
+		IllegalStateException chained = new IllegalStateException ("outer", new IOException ("inner"));
+		chained.addSuppressed (new IllegalArgumentException ("suppressed"));
+		LOGGER.error (chained, "failed with a cause");
+		LOGGER.debug ("not logged {}", 1);
+	}
+	
+	
+	/**
+	 * Log to a binary file and to a callback and make sure the decoded lines
+	 * equal the text lines.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testDecode () throws IOException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		LOGGER.setDateFormat (LOGGER.DATE_FORMAT_ISO8601);
+		LOGGER.setLogFile (logFile);
+		LOGGER.setLogFileBinary (true);
+		LOGGER.setLogToFile (true);
+		
+		final List<String> expected = new ArrayList<String> ();
+		LogCallback lcb = (lvl, msg) -> expected.add (msg);
+		LOGGER.addCallback (lcb);
+		try
+		{
+			for (int caller : new int [] {LOGGER.CALLER_FULL, LOGGER.CALLER_CLASS, LOGGER.CALLER_OFF})
+			{
+				LOGGER.setCallerLocation (caller);
+				logSomething ();
+				LOGGER.setLogStackTrace (true);
+				logSomething ();
+				LOGGER.setLogStackTrace (false);
+			}
+		}
+		finally
+		{
+			LOGGER.rmCallBack (lcb);
+		}
+		LOGGER.setLogToFile (false);
+		
+		List<String> lines = decode ();
+		assertEquals ("unexpected number of lines", expected.size (), lines.size ());
+		for (int i = 0; i < lines.size (); i++)
+		{
+			// the time stamps of the binary and the text message may differ
+			String exp = expected.get (i);
+			String line = lines.get (i);
+			assertEquals ("unexpected line", exp.substring (exp.indexOf (' ')), line.substring (line.indexOf (' ')));
+		}
+	}
+	
+	
+	/**
+	 * Make sure repeated messages don't end up in the binary file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testDuplicates () throws IOException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		LOGGER.setLogFile (logFile);
+		LOGGER.setLogFileBinary (true);
+		LOGGER.setLogToFile (true);
+		LOGGER.setSuppressDuplicates (true);
+		for (int i = 0; i < 5; i++)
+			LOGGER.warn ("connection to {} lost", "db");
+		LOGGER.warn ("connection to {} lost", "cache");
+		LOGGER.setLogToFile (false);
+		
+		List<String> lines = decode ();
+		assertEquals ("unexpected lines: " + lines, 3, lines.size ());
+		assertTrue (lines.get (0).endsWith (": connection to db lost"));
+		assertTrue (lines.get (1).endsWith (": last message repeated 4 times"));
+		assertTrue (lines.get (2).endsWith (": connection to cache lost"));
+	}
+	
+	
+	/**
+	 * Make sure the binary file is smaller than the text file, templates are
+	 * stored once per file, and appending to an existing file works.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testSizeAndAppend () throws IOException
+	{
+		File textFile = File.createTempFile ("BFlogTest", "test");
+		textFile.deleteOnExit ();
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		LOGGER.setLogFile (textFile);
+		LOGGER.setLogToFile (true);
+		for (int i = 0; i < 1000; i++)
+			LOGGER.info ("message number {} of {}", i, 1000);
+		LOGGER.setLogToFile (false);
+		
+		LOGGER.setLogFile (logFile);
+		LOGGER.setLogFileBinary (true);
+		LOGGER.setLogToFile (true);
+		for (int i = 0; i < 1000; i++)
+			LOGGER.info ("message number {} of {}", i, 1000);
+		LOGGER.setLogToFile (false);
+		assertTrue ("binary file should be smaller: " + logFile.length () + " vs " + textFile.length (), logFile.length () * 2 < textFile.length ());
+		
+		// append
+		LOGGER.setLogToFile (true);
+		LOGGER.info ("message number {} of {}", 1000, 1000);
+		LOGGER.setLogToFile (false);
+		List<String> lines = decode ();
+		assertEquals ("unexpected number of lines", 1001, lines.size ());
+		assertTrue ("unexpected last line: " + lines.get (1000), lines.get (1000).endsWith (": message number 1000 of 1000"));
+		
+		// refuse to append to a text file
+		LOGGER.setLogFile (textFile);
+		assertFalse ("shouldn't append binary events to a text file", LOGGER.setLogToFile (true));
+	}
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Test the file sinks.
+ */
+public class TestFileSinks
+{
+	
+	/** The log file. */
+	private File	logFile;
+	
+	
+	/**
+	 * Create a temporary log file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void setUp () throws IOException
+	{
+		logFile = File.createTempFile ("BFlogTest", "test");
+		logFile.deleteOnExit ();
+	}
+	
+	
+	/**
+	 * Reset the logger.
+	 */
+	@After
+	public void tearDown ()
+	{
+		LOGGER.closeLogger ();
+		LOGGER.setLogFileMapped (false);
+		LOGGER.setLogFileRolling (0, LOGGER.ROLL_NEVER, 0);
+		LOGGER.setLogFileFlushPolicy (0, 0, 0);
+		LOGGER.setLogFileSync (false);
+	}
+	
+	
+	/**
+	 * Make sure lines are flushed according to the flush policy.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testFlushPolicy () throws Exception
+	{
+		LogFile file = new LogFile (new BufferedFileSink (logFile), 10, 0, LOGGER.ERROR, true);
+		for (int i = 0; i < 9; i++)
+			file.write (LOGGER.INFO, "line " + i);
+		assertEquals ("lines shouldn't be flushed yet", 0, Files.readAllLines (logFile.toPath (), Charset.defaultCharset ()).size ());
+		file.write (LOGGER.INFO, "line 9");
+		assertEquals ("10 lines should be flushed", 10, Files.readAllLines (logFile.toPath (), Charset.defaultCharset ()).size ());
+		file.write (LOGGER.INFO, "line 10");
+		assertEquals ("line shouldn't be flushed yet", 10, Files.readAllLines (logFile.toPath (), Charset.defaultCharset ()).size ());
+		file.write (LOGGER.ERROR, "line 11");
+		assertEquals ("error should be flushed immediately", 12, Files.readAllLines (logFile.toPath (), Charset.defaultCharset ()).size ());
+		file.close ();
+		
+		// flush by time
+		file = new LogFile (new MappedFileSink (logFile), 0, 20, 0, false);
+		file.write (LOGGER.INFO, "line 12");
+		for (int i = 0; i < 500 && file.getCommitted () < 1; i++)
+			Thread.sleep (10);
+		assertEquals ("line should be flushed by the timer", 1, file.getCommitted ());
+		file.close ();
+		assertEquals ("unexpected number of lines", 13, Files.readAllLines (logFile.toPath (), Charset.defaultCharset ()).size ());
+	}
+	
+	
+	/**
+	 * Let many threads commit every line and make sure no line is lost.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testGroupCommit () throws Exception
+	{
+		final LogFile file = new LogFile (new BufferedFileSink (logFile), 1, 0, 0, true);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++)
+		{
+			final int id = t;
+			threads[t] = new Thread ( () -> {
+				try
+				{
+					for (int i = 0; i < 200; i++)
+						file.write (LOGGER.INFO, "thread " + id + " line " + i);
+				}
+				catch (IOException e)
+				{
+					throw new RuntimeException (e);
+				}
+			});
+			threads[t].start ();
+		}
+		for (Thread thread : threads)
+			thread.join ();
+		
+		assertEquals ("all lines should be committed", 1600, file.getCommitted ());
+		assertEquals ("all lines should be in the file", 1600, Files.readAllLines (logFile.toPath (), Charset.defaultCharset ()).size ());
+		file.close ();
+		
+		// and through the LOGGER
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		LOGGER.setLogFile (logFile);
+		LOGGER.setLogFileFlushPolicy (0, 0, LOGGER.ERROR);
+		LOGGER.setLogFileSync (true);
+		LOGGER.setLogToFile (true);
+		LOGGER.info ("buffered");
+		assertEquals ("info shouldn't be flushed", 1600, Files.readAllLines (logFile.toPath (), Charset.defaultCharset ()).size ());
+		LOGGER.error ("flushed");
+		assertEquals ("error should be flushed immediately", 1602, Files.readAllLines (logFile.toPath (), Charset.defaultCharset ()).size ());
+	}
+	
+	
+	/**
+	 * Write lines that span several chunks of the mapped file and make sure
+	 * the file is truncated to the right length.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testMappedFileSink () throws IOException
+	{
+		Charset utf8 = StandardCharsets.UTF_8;
+		MappedFileSink sink = new MappedFileSink (logFile, 1024, utf8);
+		StringBuilder expected = new StringBuilder ();
+		StringBuilder line = new StringBuilder ();
+		for (int i = 0; i < 500; i++)
+		{
+			line.setLength (0);
+			line.append ("line ").append (i).append (" with umlauts \u00e4\u00f6\u00fc and \u20ac");
+			// a line longer than a chunk
+			if (i == 250)
+				for (int j = 0; j < 300; j++)
+					line.append ("long");
+			sink.write (line);
+			expected.append (line).append (LOGGER.NEWLINE);
+		}
+		sink.close ();
+		
+		assertEquals ("unexpected file contents", expected.toString (), new String (Files.readAllBytes (logFile.toPath ()), utf8));
+	}
+	
+	
+	/**
+	 * Reopen a mapped file that wasn't closed and make sure the trailing zeros
+	 * are skipped.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testMappedFileSinkNotClosed () throws IOException
+	{
+		Charset utf8 = StandardCharsets.UTF_8;
+		MappedFileSink crashed = new MappedFileSink (logFile, 4096, utf8);
+		crashed.write ("before crash");
+		assertEquals ("file should span the whole chunk", 4096, logFile.length ());
+		
+		MappedFileSink sink = new MappedFileSink (logFile, 4096, utf8);
+		sink.write ("after crash");
+		sink.close ();
+		
+		assertEquals ("unexpected file contents", "before crash" + LOGGER.NEWLINE + "after crash" + LOGGER.NEWLINE, new String (Files.readAllBytes (logFile.toPath ()), utf8));
+	}
+	
+	
+	/**
+	 * Log to a mapped file using the LOGGER.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testLogMapped () throws IOException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		LOGGER.setLogFile (logFile);
+		LOGGER.setLogFileMapped (true);
+		LOGGER.setLogToFile (true);
+		for (int i = 0; i < 1000; i++)
+			LOGGER.info ("message {}", i);
+		LOGGER.closeLogger ();
+		
+		List<String> lines = Files.readAllLines (logFile.toPath (), Charset.defaultCharset ());
+		assertEquals ("unexpected number of lines", 1000, lines.size ());
+		assertTrue ("unexpected last line: " + lines.get (999), lines.get (999).endsWith (": message 999"));
+	}
+	
+	
+	/**
+	 * Roll a file by size and make sure the segments are compressed, old
+	 * segments are removed, and no line is lost between the remaining files.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRollingBySize () throws IOException
+	{
+		File dir = Files.createTempDirectory ("BFlogTest").toFile ();
+		File file = new File (dir, "test.log");
+		RollingFileSink sink = new RollingFileSink (file, false, 1000, LOGGER.ROLL_NEVER, 3, true, true);
+		int numLines = 500;
+		for (int i = 0; i < numLines; i++)
+			sink.write ("this is line number " + i + " of the rolling test");
+		sink.close ();
+		assertTrue ("housekeeping timed out", RollingFileSink.awaitHousekeeping (10000));
+		List<File> segments = sink.segments ();
+		
+		assertEquals ("unexpected number of segments: " + segments, 3, segments.size ());
+		List<String> lines = new ArrayList<String> ();
+		Collections.reverse (segments);
+		for (File segment : segments)
+		{
+			assertTrue ("segment should be compressed: " + segment, segment.getName ().endsWith (RollingFileSink.GZIP_SUFFIX));
+			try (BufferedReader br = new BufferedReader (new InputStreamReader (new GZIPInputStream (new FileInputStream (segment)))))
+			{
+				String line;
+				while ((line = br.readLine ()) != null)
+					lines.add (line);
+			}
+		}
+		assertTrue ("active file should not exceed the max size", file.length () < 1100);
+		lines.addAll (Files.readAllLines (file.toPath (), Charset.defaultCharset ()));
+		
+		// the remaining lines need to be the last lines written
+		for (int i = 0; i < lines.size (); i++)
+			assertEquals ("line lost while rolling", "this is line number " + (numLines - lines.size () + i) + " of the rolling test", lines.get (i));
+		
+		for (File f : dir.listFiles ())
+			f.delete ();
+		dir.delete ();
+	}
+	
+	
+	/**
+	 * Test the computation of the roll over times.
+	 */
+	@Test
+	public void testRollBoundaries ()
+	{
+		ZoneId zone = ZoneId.of ("Europe/Berlin");
+		long now = ZonedDateTime.of (2015, 10, 27, 18, 55, 49, 0, zone).toInstant ().toEpochMilli ();
+		assertEquals ("next hour", ZonedDateTime.of (2015, 10, 27, 19, 0, 0, 0, zone).toInstant ().toEpochMilli (), RollingFileSink.nextBoundary (now, LOGGER.ROLL_HOURLY, zone));
+		assertEquals ("next day", ZonedDateTime.of (2015, 10, 28, 0, 0, 0, 0, zone).toInstant ().toEpochMilli (), RollingFileSink.nextBoundary (now, LOGGER.ROLL_DAILY, zone));
+		assertEquals ("never", Long.MAX_VALUE, RollingFileSink.nextBoundary (now, LOGGER.ROLL_NEVER, zone));
+	}
+	
+	
+	/**
+	 * Make sure the console sink flushes according to its flush policy.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testConsoleSink () throws Exception
+	{
+		try (FileOutputStream console = new FileOutputStream (logFile))
+		{
+			ConsoleSink sink = new ConsoleSink (console.getFD (), System.out, StandardCharsets.UTF_8, LOGGER.ERROR, 0);
+			assertTrue ("sink should replace its stream", sink.replaces (System.out));
+			assertFalse ("sink shouldn't replace other streams", sink.replaces (System.err));
+			sink.write (LOGGER.INFO, "info \u00e4");
+			assertEquals ("line shouldn't be flushed yet", 0, logFile.length ());
+			sink.write (LOGGER.ERROR, "error");
+			assertEquals ("error should be flushed with the previous line", Arrays.asList ("info \u00e4", "error"), Files.readAllLines (logFile.toPath (), StandardCharsets.UTF_8));
+			sink.write (LOGGER.WARN, "warn");
+			sink.close ();
+			assertEquals ("closing should flush", 3, Files.readAllLines (logFile.toPath (), StandardCharsets.UTF_8).size ());
+			sink.write (LOGGER.DEBUG, "debug");
+			assertEquals ("lines after closing should be flushed immediately", 4, Files.readAllLines (logFile.toPath (), StandardCharsets.UTF_8).size ());
+			
+			// flush by time
+			sink = new ConsoleSink (console.getFD (), System.out, StandardCharsets.UTF_8, 0, 20);
+			sink.write (LOGGER.ERROR, "error");
+			for (int i = 0; i < 500 && Files.readAllLines (logFile.toPath (), StandardCharsets.UTF_8).size () < 5; i++)
+				Thread.sleep (10);
+			assertEquals ("line should be flushed by the timer", 5, Files.readAllLines (logFile.toPath (), StandardCharsets.UTF_8).size ());
+			sink.close ();
+		}
+	}
+}
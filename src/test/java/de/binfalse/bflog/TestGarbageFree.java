@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Test that logging to a file does not allocate in steady state.
+ */
+public class TestGarbageFree
+{
+	
+	/** The max number of bytes all measured log calls may allocate together. */
+	private static final long	MAX_ALLOCATED	= 1024;
+	
+	
+	/**
+	 * Reset the logger.
+	 */
+	@After
+	public void tearDown ()
+	{
+		LOGGER.closeLogger ();
+		LOGGER.setCallerLocation (LOGGER.CALLER_FULL);
+		LOGGER.setGarbageFree (true);
+	}
+	
+	
+	/**
+	 * Gets the bytes allocated by the current thread.
+	 *
+	 * @param bean the thread bean
+	 * @return the allocated bytes
+	 */
+	private static long allocated (com.sun.management.ThreadMXBean bean)
+	{
+		return bean.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+	}
+	
+	
+	/**
+	 * Log many messages to a file and make sure a log call does not allocate.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testNoAllocation () throws IOException
+	{
+		assumeTrue ("cannot measure allocations", ManagementFactory.getThreadMXBean () instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+		assumeTrue ("cannot measure allocations", bean.isThreadAllocatedMemorySupported ());
+		bean.setThreadAllocatedMemoryEnabled (true);
+		
+		File logFile = File.createTempFile ("BFlogTest", "test");
+		logFile.deleteOnExit ();
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogFile (logFile);
+		LOGGER.setLogToFile (true);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		LOGGER.setCallerLocation (LOGGER.CALLER_OFF);
+		LOGGER.setGarbageFree (true);
+		
+		String user = "martin";
+		// warm up: grow the buffers and let the JIT do its job
+		for (int i = 0; i < 200000; i++)
+		{
+			LOGGER.info ("user {} took {} ms", user, i);
+			LOGGER.debug ("disabled {}", i);
+		}
+		
+		int calls = 200000;
+		long before = allocated (bean);
+		for (int i = 0; i < calls; i++)
+		{
+			LOGGER.info ("user {} took {} ms", user, i);
+			LOGGER.debug ("disabled {}", i);
+		}
+		long after = allocated (bean);
+		
+		// allow a few objects, e.g. for new time stamps
+		assertTrue ("log calls should not allocate, but allocated " + (after - before) + " bytes for " + calls + " calls", after - before < MAX_ALLOCATED);
+		
+		LOGGER.closeLogger ();
+		assertTrue ("logger didn't write to logfile", logFile.length () > 0);
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Test the layouts.
+ */
+public class TestLayout
+{
+	
+	/** The logged events. */
+	private List<LogEvent>		events;
+	
+	/** The callback collecting the events. */
+	private LogEventCallback	callback;
+	
+	
+	/**
+	 * Log to a callback only.
+	 */
+	@Before
+	public void setUp ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setMinLevel (LOGGER.DEBUG);
+		events = new ArrayList<LogEvent> ();
+		callback = event -> events.add (event);
+		LOGGER.addCallback (callback);
+	}
+	
+	
+	/**
+	 * Go back to the classic lines.
+	 */
+	@After
+	public void tearDown ()
+	{
+		LOGGER.rmEventCallBack (callback);
+		LOGGER.setLayout (null);
+		LOGGER.setLogStackTrace (false);
+		LOGGER.setCallerLocation (LOGGER.CALLER_FULL);
+		LOGGER.closeLogger ();
+	}
+	
+	
+	/**
+	 * Test the pattern layout.
+	 */
+	@Test
+	public void testPattern ()
+	{
+		LOGGER.setLayout ("%d{yyyy} [%thread] %level %class:%line - %msg%%");
+		int line = new Throwable ().getStackTrace ()[0].getLineNumber () + 1;
+		LOGGER.info ("took {} ms", 3);
+		LOGGER.error (new IllegalStateException ("expected"), "failed");
+		LOGGER.forClass (String.class).warn ("class logger");
+		
+		assertEquals ("unexpected number of events", 3, events.size ());
+		String year = new TimestampFormatter ("yyyy").format (events.get (0).getTimestamp (), new StringBuilder ()).toString ();
+		String thread = Thread.currentThread ().getName ();
+		assertEquals ("unexpected line", year + " [" + thread + "] INFOS " + TestLayout.class.getName () + ":" + line + " - took 3 ms%", events.get (0).getLine ());
+		assertEquals ("unexpected message", "took 3 ms", events.get (0).getMessage ());
+		assertTrue ("exception should be appended to the message", events.get (1).getLine ().endsWith (" - failed (throwing java.lang.IllegalStateException: expected)%"));
+		assertTrue ("unexpected class", events.get (2).getLine ().contains (" WARNS java.lang.String:"));
+		
+		events.clear ();
+		LOGGER.setLayout ("%p %m|%ex");
+		LOGGER.error (new IllegalStateException ("expected"), "failed");
+		LOGGER.debug ("fine");
+		assertEquals ("unexpected line", "ERROR failed| (throwing java.lang.IllegalStateException: expected)", events.get (0).getLine ());
+		assertEquals ("unexpected message", "failed", events.get (0).getMessage ());
+		assertEquals ("unexpected line", "DEBUG fine|", events.get (1).getLine ());
+		
+		String[] invalid = { "%foo", "%d{yyyy", "%msg{x}", "%d{qqq}" };
+		for (String pattern : invalid)
+			try
+			{
+				LOGGER.setLayout (pattern);
+				fail ("pattern should be invalid: " + pattern);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+	}
+	
+	
+	/**
+	 * Test the JSON layout.
+	 */
+	@Test
+	public void testJson ()
+	{
+		LOGGER.setJsonLayout ();
+		int line = new Throwable ().getStackTrace ()[0].getLineNumber () + 1;
+		LOGGER.warn ("say \"hi\"\n\tto\\all\u0001");
+		LOGGER.setCallerLocation (LOGGER.CALLER_OFF);
+		LOGGER.error (new IllegalStateException (), "failed");
+		LOGGER.setLogStackTrace (true);
+		LOGGER.error (new IllegalStateException ("expected"), "failed");
+		
+		assertEquals ("unexpected number of events", 3, events.size ());
+		String json = events.get (0).getLine ();
+		assertTrue ("unexpected time", json.matches ("\\{\"time\":\"\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}[^\"]+\",.*"));
+		assertTrue ("unexpected fields", json.endsWith (",\"level\":\"WARN\",\"thread\":\"" + Thread.currentThread ().getName () + "\",\"class\":\"" + TestLayout.class.getName () + "\",\"line\":" + line + ",\"message\":\"say \\\"hi\\\"\\n\\tto\\\\all\\u0001\"}"));
+		assertEquals ("unexpected message", "say \"hi\"\n\tto\\all\u0001", events.get (0).getMessage ());
+		
+		json = events.get (1).getLine ();
+		assertFalse ("caller shouldn't be known", json.contains ("\"class\":\"" + TestLayout.class.getName ()));
+		assertTrue ("unexpected exception", json.endsWith (",\"message\":\"failed\",\"exception\":{\"class\":\"java.lang.IllegalStateException\",\"message\":null}}"));
+		
+		json = events.get (2).getLine ();
+		assertTrue ("missing stack trace", json.contains ("\"message\":\"expected\",\"stackTrace\":\"\\tjava.lang.IllegalStateException: expected\\n\\t\\tat " + TestLayout.class.getName () + ".testJson("));
+		assertFalse ("line should not be broken", json.contains ("\n"));
+	}
+	
+	
+	/**
+	 * Test the escaping.
+	 */
+	@Test
+	public void testEscape ()
+	{
+		StringBuilder sb = new StringBuilder ();
+		JsonLayout.escape (sb, "plain");
+		assertEquals ("unexpected escaping", "plain", sb.toString ());
+		
+		sb.setLength (0);
+		JsonLayout.escape (sb, "\"\\/\b\f\n\r\t\u001f\u00e4\u20ac");
+		assertEquals ("unexpected escaping", "\\\"\\\\/\\b\\f\\n\\r\\t\\u001f\u00e4\u20ac", sb.toString ());
+		
+		sb.setLength (0);
+		JsonLayout.escape (sb, "xx\"yy", 1, 4);
+		assertEquals ("unexpected escaping", "x\\\"y", sb.toString ());
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.binfalse.bflog.samplecallbacks.LogCollector;
+import de.binfalse.bflog.samplecallbacks.LogStore;
+
+
+/**
+ * Test the bounded log store.
+ */
+public class TestLogStore
+{
+	
+	/**
+	 * Test eviction and the queries.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testQueries () throws InterruptedException
+	{
+		LogStore store = new LogStore (5);
+		for (int i = 0; i < 8; i++)
+			store.add ("message " + i);
+		
+		assertEquals ("unexpected size", 5, store.size ());
+		assertEquals ("unexpected total", 8, store.getTotal ());
+		assertEquals ("oldest messages should be evicted", Arrays.asList ("message 3", "message 4", "message 5", "message 6", "message 7"), store.snapshot ());
+		assertEquals ("unexpected last messages", Arrays.asList ("message 6", "message 7"), store.last (2));
+		assertEquals ("unexpected matches", Arrays.asList ("message 5"), store.matching ("5"));
+		assertTrue ("evicted message shouldn't match", store.matching ("message 1").isEmpty ());
+		
+		long before = System.currentTimeMillis ();
+		Thread.sleep (5);
+		store.add ("new message");
+		assertEquals ("unexpected messages since " + before, Arrays.asList ("new message"), store.since (before + 1));
+		
+		store.clear ();
+		assertEquals ("store should be empty", 0, store.size ());
+		assertTrue ("store should be empty", store.snapshot ().isEmpty ());
+		store.add ("after clear");
+		assertEquals ("unexpected messages", Arrays.asList ("after clear"), store.snapshot ());
+	}
+	
+	
+	/**
+	 * Test that messages older than the max age are ignored.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testMaxAge () throws InterruptedException
+	{
+		LogStore store = new LogStore (10, 50);
+		store.add ("old");
+		Thread.sleep (100);
+		store.add ("new");
+		assertEquals ("old message should be ignored", Arrays.asList ("new"), store.snapshot ());
+		assertEquals ("old message should be ignored", 1, store.size ());
+	}
+	
+	
+	/**
+	 * Let many threads append concurrently and make sure the newest messages
+	 * survive.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testConcurrentAppends () throws InterruptedException
+	{
+		final LogCollector lc = new LogCollector (100);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			final int id = t;
+			threads[t] = new Thread ( () -> {
+				for (int i = 0; i < 10000; i++)
+					lc.logged (LOGGER.ERROR, id + ":" + i);
+			});
+			threads[t].start ();
+		}
+		// query while appending
+		while (threads[0].isAlive ())
+			assertTrue ("store should never exceed its capacity", lc.getErrors ().size () <= 100);
+		for (Thread thread : threads)
+			thread.join ();
+		
+		List<String> errors = lc.getErrors ();
+		assertEquals ("unexpected number of errors", 100, errors.size ());
+		assertEquals ("unexpected total", 40000, lc.getStore (LOGGER.ERROR).getTotal ());
+		assertTrue ("other levels should be empty", lc.getWarnings ().isEmpty ());
+	}
+}
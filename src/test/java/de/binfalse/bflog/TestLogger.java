@@ -41,6 +41,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -94,8 +96,12 @@ public class TestLogger extends LOGGER
 		
 		public void stopIoCapture ()
 		{
+			if (orgErr == null || orgOut == null)
+				return;
 			System.setErr (orgErr);
 			System.setOut (orgOut);
+			orgErr = null;
+			orgOut = null;
 		}
 	}
 	
@@ -253,6 +259,340 @@ public class TestLogger extends LOGGER
 		
 	}
 
+	/**
+	 * Test the caller location modes.
+	 */
+	@Test
+	public void testCallerLocation ()
+	{
+		LOGGER.setLogToFile (false);
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (true);
+		LOGGER.setMinLevel (LOGGER.DEBUG);
+		SysIO sio = new SysIO ();
+		String className = TestLogger.class.getName ();
+		
+		try
+		{
+			LOGGER.setCallerLocation (LOGGER.CALLER_FULL);
+			sio.startIoCapture ();
+			LOGGER.info ("full location");
+			sio.stopIoCapture ();
+			assertTrue ("expected class and line in: " + sio.getSysOut (), sio.getSysOut ().toString ().matches ("(?s).* INFOS " + className + "@\\d+: full location\n"));
+			
+			sio.reset ();
+			LOGGER.setCallerLocation (LOGGER.CALLER_CLASS);
+			sio.startIoCapture ();
+			LOGGER.info ("class location");
+			sio.stopIoCapture ();
+			assertTrue ("expected only class in: " + sio.getSysOut (), sio.getSysOut ().toString ().endsWith (" INFOS " + className + ": class location\n"));
+			
+			sio.reset ();
+			LOGGER.setCallerLocation (LOGGER.CALLER_OFF);
+			sio.startIoCapture ();
+			LOGGER.info ("no location");
+			sio.stopIoCapture ();
+			assertTrue ("expected no location in: " + sio.getSysOut (), sio.getSysOut ().toString ().endsWith (" INFOS: no location\n"));
+		}
+		finally
+		{
+			sio.stopIoCapture ();
+			LOGGER.setCallerLocation (LOGGER.CALLER_FULL);
+			LOGGER.setLogToStdOut (false);
+		}
+	}
+	
+	/**
+	 * Test messages with placeholders.
+	 */
+	@Test
+	public void testPlaceholders ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		LogCollector lc = new LogCollector ();
+		LOGGER.addCallback (lc);
+		
+		LOGGER.info ("user {} took {} ms", "martin", 42);
+		LOGGER.info ("{} + {} = {}", 1, 2, 3);
+		LOGGER.info ("pi is about {}", 3.14);
+		LOGGER.info ("separator: {}", ';');
+		LOGGER.info ("{} and {}", 1L, 2L);
+		LOGGER.info ("no placeholder", " but two", " arguments");
+		LOGGER.info ("{} {} {} {}", "more", "than", "three", "arguments");
+		LOGGER.info ("missing {} and {}", "argument");
+		LOGGER.info ("no arguments {}");
+		
+		// shouldn't be formatted at all
+		LOGGER.debug ("{}", new Object ()
+		{
+			public String toString ()
+			{
+				fail ("debug message shouldn't be formatted");
+				return null;
+			}
+		});
+		LOGGER.rmCallBack (lc);
+		
+		String [] expected = new String [] {
+			"user martin took 42 ms",
+			"1 + 2 = 3",
+			"pi is about 3.14",
+			"separator: ;",
+			"1 and 2",
+			"no placeholder but two arguments",
+			"more than three arguments",
+			"missing argument and {}",
+			"no arguments {}"
+		};
+		assertEquals ("unexpected number of messages: " + lc.getInfos (), expected.length, lc.getInfos ().size ());
+		for (int i = 0; i < expected.length; i++)
+			assertTrue ("expected " + expected[i] + " in " + lc.getInfos ().get (i), lc.getInfos ().get (i).endsWith (": " + expected[i]));
+		assertTrue ("debug message shouldn't be logged", lc.getDebugs ().isEmpty ());
+	}
+	
+	/**
+	 * Test callbacks registered for certain levels and changing the callbacks
+	 * while other threads are logging.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testCallbackLevels () throws InterruptedException
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setMinLevel (LOGGER.DEBUG);
+		LogCollector all = new LogCollector ();
+		LogCollector severe = new LogCollector ();
+		LOGGER.addCallback (all);
+		LOGGER.addCallback (severe, LOGGER.ERROR | LOGGER.WARN);
+		
+		LOGGER.debug ("debug");
+		LOGGER.info ("info");
+		LOGGER.warn ("warn");
+		LOGGER.error ("error");
+		
+		assertEquals ("unexpected number of debug messages", 1, all.getDebugs ().size ());
+		assertEquals ("unexpected number of info messages", 1, all.getInfos ().size ());
+		assertEquals ("unexpected number of debug messages", 0, severe.getDebugs ().size ());
+		assertEquals ("unexpected number of info messages", 0, severe.getInfos ().size ());
+		assertEquals ("unexpected number of warn messages", 1, severe.getWarnings ().size ());
+		assertEquals ("unexpected number of error messages", 1, severe.getErrors ().size ());
+		LOGGER.rmCallBack (all);
+		LOGGER.rmCallBack (severe);
+		
+		// register and unregister callbacks while logging
+		final boolean [] failed = new boolean [1];
+		Thread logger = new Thread ( () -> {
+			try
+			{
+				for (int i = 0; i < 20000; i++)
+					LOGGER.error ("message {}", i);
+			}
+			catch (RuntimeException e)
+			{
+				failed[0] = true;
+			}
+		});
+		logger.start ();
+		while (logger.isAlive ())
+		{
+			LogCallback lcb = (lvl, msg) -> {};
+			LOGGER.addCallback (lcb);
+			LOGGER.addCallback (lcb, LOGGER.ERROR);
+			LOGGER.rmCallBack (lcb);
+			LOGGER.rmCallBack (lcb);
+		}
+		logger.join ();
+		assertFalse ("logging failed while changing the callbacks", failed[0]);
+	}
+	
+	/**
+	 * Test levels defined for classes and packages.
+	 */
+	@Test
+	public void testClassLevels ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setMinLevel (LOGGER.ERROR);
+		LogCollector lc = new LogCollector ();
+		LOGGER.addCallback (lc);
+		
+		class Nested
+		{
+			public void logIt ()
+			{
+				LOGGER.debug ("nested debug");
+				LOGGER.info ("nested info");
+			}
+		}
+		
+		try
+		{
+			LOGGER.debug ("debug 1");
+			assertTrue ("debug shouldn't be logged globally", lc.getDebugs ().isEmpty ());
+			assertFalse ("debug shouldn't be enabled", LOGGER.isDebugEnabled ());
+			
+			// package level
+			LOGGER.setMinLevel ("de.binfalse", LOGGER.DEBUG);
+			assertEquals ("unexpected levels of the package", LOGGER.DEBUG | LOGGER.INFO | LOGGER.WARN | LOGGER.ERROR, LOGGER.getLevel ("de.binfalse.bflog"));
+			assertEquals ("unexpected levels of another package", LOGGER.ERROR, LOGGER.getLevel ("de.other"));
+			assertTrue ("debug should be enabled", LOGGER.isDebugEnabled ());
+			LOGGER.debug ("debug 2");
+			new Nested ().logIt ();
+			assertEquals ("unexpected debug messages: " + lc.getDebugs (), 2, lc.getDebugs ().size ());
+			
+			// class level overrides package level, nested classes inherit it
+			LOGGER.setLevel (TestLogger.class, LOGGER.INFO);
+			LOGGER.debug ("debug 3");
+			new Nested ().logIt ();
+			assertEquals ("unexpected debug messages: " + lc.getDebugs (), 2, lc.getDebugs ().size ());
+			assertEquals ("unexpected info messages: " + lc.getInfos (), 2, lc.getInfos ().size ());
+			
+			// changes of the global level apply to classes without own levels
+			LOGGER.resetLevels ();
+			LOGGER.addLevel (LOGGER.DEBUG);
+			LOGGER.debug ("debug 4");
+			assertEquals ("unexpected debug messages: " + lc.getDebugs (), 3, lc.getDebugs ().size ());
+			LOGGER.setLevel ("de.binfalse.bflog.TestLogger", 0);
+			LOGGER.error ("error");
+			assertTrue ("error shouldn't be logged: " + lc.getErrors (), lc.getErrors ().isEmpty ());
+			LOGGER.resetLevel ("de.binfalse.bflog.TestLogger");
+			LOGGER.error ("error");
+			assertEquals ("unexpected errors: " + lc.getErrors (), 1, lc.getErrors ().size ());
+			
+			// the caller found while checking the levels locates the message
+			LOGGER.setCallerLocation (LOGGER.CALLER_FULL);
+			LOGGER.setMinLevel ("de.binfalse", LOGGER.DEBUG);
+			assertTrue ("debug should be enabled", LOGGER.isDebugEnabled ());
+			int line = new Throwable ().getStackTrace ()[0].getLineNumber () + 1;
+			LOGGER.debug ("located {}", "here");
+			new Nested ().logIt ();
+			List<String> debugs = lc.getDebugs ();
+			assertTrue ("unexpected location: " + debugs, debugs.get (debugs.size () - 2).endsWith (" de.binfalse.bflog.TestLogger@" + line + ": located here"));
+			assertTrue ("unexpected location: " + debugs, debugs.get (debugs.size () - 1).matches (".* de\\.binfalse\\.bflog\\.TestLogger\\$1Nested@\\d+: nested debug"));
+		}
+		finally
+		{
+			LOGGER.rmCallBack (lc);
+			LOGGER.resetLevels ();
+		}
+	}
+	
+	/**
+	 * Test loggers for classes.
+	 */
+	@Test
+	public void testClassLogger ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setMinLevel (LOGGER.WARN);
+		LogCollector lc = new LogCollector ();
+		LOGGER.addCallback (lc);
+		
+		ClassLogger log = LOGGER.forClass (TestLogger.class);
+		ClassLogger other = LOGGER.forClass (String.class);
+		assertSame ("expected a single logger per class", log, LOGGER.forClass (TestLogger.class));
+		assertEquals ("unexpected name", "de.binfalse.bflog.TestLogger", log.getName ());
+		try
+		{
+			LOGGER.setCallerLocation (LOGGER.CALLER_CLASS);
+			log.warn ("took {} ms", 42);
+			other.warn ("from another logger");
+			log.info ("not logged");
+			assertEquals ("unexpected warnings: " + lc.getWarnings (), 2, lc.getWarnings ().size ());
+			assertTrue ("unexpected warning: " + lc.getWarnings ().get (0), lc.getWarnings ().get (0).endsWith (" de.binfalse.bflog.TestLogger: took 42 ms"));
+			assertTrue ("unexpected warning: " + lc.getWarnings ().get (1), lc.getWarnings ().get (1).endsWith (" java.lang.String: from another logger"));
+			assertTrue ("info shouldn't be logged", lc.getInfos ().isEmpty ());
+			
+			LOGGER.setCallerLocation (LOGGER.CALLER_FULL);
+			log.error (new RuntimeException ("expected"), "failed");
+			assertTrue ("unexpected error: " + lc.getErrors ().get (0), lc.getErrors ().get (0).matches (".* de\\.binfalse\\.bflog\\.TestLogger@\\d+: failed \\(throwing .*"));
+			
+			// level changes are applied to the loggers
+			assertFalse ("debug shouldn't be enabled", log.isDebugEnabled ());
+			LOGGER.setLevel ("de.binfalse", LOGGER.DEBUG);
+			assertTrue ("debug should be enabled", log.isDebugEnabled ());
+			assertFalse ("warn shouldn't be enabled", log.isWarnEnabled ());
+			assertTrue ("warn should be enabled for another class", other.isWarnEnabled ());
+			LOGGER.resetLevels ();
+			LOGGER.addLevel (LOGGER.INFO);
+			assertTrue ("info should be enabled", log.isInfoEnabled ());
+			assertTrue ("info should be enabled", other.isInfoEnabled ());
+			assertFalse ("debug shouldn't be enabled", log.isDebugEnabled ());
+		}
+		finally
+		{
+			LOGGER.rmCallBack (lc);
+			LOGGER.resetLevels ();
+			LOGGER.setCallerLocation (LOGGER.CALLER_FULL);
+		}
+	}
+	
+	/**
+	 * Test the events passed to event callbacks.
+	 */
+	@Test
+	public void testEventCallback ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		final List<LogEvent> events = new ArrayList<LogEvent> ();
+		final List<String> lines = new ArrayList<String> ();
+		LogEventCallback ecb = event -> events.add (event);
+		LogCallback lcb = (lvl, msg) -> lines.add (msg);
+		LOGGER.addCallback (ecb, LOGGER.ERROR | LOGGER.INFO);
+		LOGGER.addCallback (lcb);
+		try
+		{
+			long before = System.currentTimeMillis ();
+			Exception e = new IllegalStateException ("expected");
+			LOGGER.error (e, "failed {} times", 3);
+			LOGGER.warn ("not for the event callback");
+			LOGGER.setCallerLocation (LOGGER.CALLER_OFF);
+			LOGGER.info ("no caller");
+			LOGGER.forClass (String.class).info ("class logger");
+			LOGGER.setAsync (true);
+			LOGGER.info ("async");
+			LOGGER.setAsync (false);
+			
+			assertEquals ("unexpected events", 4, events.size ());
+			assertEquals ("unexpected lines", 5, lines.size ());
+			LogEvent error = events.get (0);
+			assertEquals ("unexpected level", LOGGER.ERROR, error.getLevel ());
+			assertEquals ("unexpected caller", TestLogger.class.getName (), error.getCaller ());
+			assertSame ("unexpected exception", e, error.getThrown ());
+			assertEquals ("unexpected thread", Thread.currentThread ().getName (), error.getThread ());
+			assertTrue ("unexpected time", error.getTimestamp () >= before && error.getTimestamp () <= System.currentTimeMillis ());
+			assertEquals ("unexpected time", error.getTimestamp (), error.getEpochNanos () / 1000000);
+			assertEquals ("unexpected message", "failed 3 times (throwing java.lang.IllegalStateException: expected)", error.getMessage ());
+			assertSame ("line should be rendered once", error.getLine (), lines.get (0));
+			
+			assertNull ("caller shouldn't be known", events.get (1).getCaller ());
+			assertNull ("unexpected exception", events.get (1).getThrown ());
+			assertEquals ("unexpected message", "no caller", events.get (1).getMessage ());
+			assertEquals ("unexpected caller", "java.lang.String", events.get (2).getCaller ());
+			assertEquals ("async event should know the logging thread", Thread.currentThread ().getName (), events.get (3).getThread ());
+		}
+		finally
+		{
+			LOGGER.rmEventCallBack (ecb);
+			LOGGER.rmCallBack (lcb);
+			LOGGER.setCallerLocation (LOGGER.CALLER_FULL);
+			LOGGER.closeLogger ();
+		}
+	}
+	
 	/**
 	 * Test levels.
 	 */
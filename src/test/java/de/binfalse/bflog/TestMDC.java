@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Test the mapped diagnostic context.
+ */
+public class TestMDC
+{
+	
+	/**
+	 * Clear the context.
+	 */
+	@After
+	public void tearDown ()
+	{
+		MDC.clear ();
+	}
+	
+	
+	/**
+	 * Test putting and removing keys.
+	 */
+	@Test
+	public void testContext ()
+	{
+		assertSame ("context should be empty", MDC.EMPTY, MDC.capture ());
+		MDC.put ("request", "1");
+		MDC.put ("user", "martin");
+		MDC.Context first = MDC.capture ();
+		assertEquals ("unexpected size", 2, first.size ());
+		assertEquals ("unexpected value", "1", MDC.get ("request"));
+		assertEquals ("unexpected entries", "{request=1, user=martin}", first.toString ());
+		
+		MDC.put ("user", "martin");
+		assertSame ("putting the same value shouldn't copy the context", first, MDC.capture ());
+		MDC.put ("request", "2");
+		assertEquals ("snapshot shouldn't change", "1", first.get ("request"));
+		assertEquals ("unexpected value", "2", MDC.get ("request"));
+		assertEquals ("order should be kept", "request", MDC.capture ().getKey (0));
+		
+		MDC.put ("request", null);
+		assertNull ("key should be removed", MDC.get ("request"));
+		assertEquals ("unexpected entries", "{user=martin}", MDC.capture ().toString ());
+		MDC.remove ("user");
+		assertSame ("context should be empty", MDC.EMPTY, MDC.capture ());
+		
+		MDC.Context previous = MDC.restore (first);
+		assertSame ("unexpected previous context", MDC.EMPTY, previous);
+		assertEquals ("unexpected map", "martin", MDC.capture ().toMap ().get ("user"));
+		
+		try
+		{
+			MDC.put (null, "x");
+			fail ("null key should be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+	
+	
+	/**
+	 * Test propagating the context into other threads.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testPropagation () throws Exception
+	{
+		MDC.put ("request", "42");
+		ExecutorService pool = Executors.newSingleThreadExecutor ();
+		try
+		{
+			assertNull ("context shouldn't be inherited", pool.submit (() -> MDC.get ("request")).get ());
+			Future<String> wrapped = pool.submit (MDC.wrap (() -> MDC.get ("request")));
+			assertEquals ("context should be propagated", "42", wrapped.get ());
+			assertNull ("context of the pool thread should be restored", pool.submit (() -> MDC.get ("request")).get ());
+			
+			final AtomicReference<String> seen = new AtomicReference<String> ();
+			MDC.wrapExecutor (pool).execute (() -> seen.set (MDC.get ("request")));
+			pool.shutdown ();
+			assertTrue ("pool should terminate", pool.awaitTermination (10, TimeUnit.SECONDS));
+			assertEquals ("context should be propagated", "42", seen.get ());
+		}
+		finally
+		{
+			pool.shutdownNow ();
+		}
+		
+		final AtomicReference<String> seen = new AtomicReference<String> ();
+		Thread thread = MDC.wrapThreadFactory (Executors.defaultThreadFactory ()).newThread (() -> seen.set (MDC.get ("request")));
+		MDC.put ("request", "43");
+		thread.start ();
+		thread.join ();
+		assertEquals ("thread should get the context of its creator", "42", seen.get ());
+	}
+	
+	
+	/**
+	 * Test the context in events and layouts.
+	 */
+	@Test
+	public void testLogging ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		final AtomicReference<LogEvent> event = new AtomicReference<LogEvent> ();
+		LogEventCallback callback = e -> event.set (e);
+		LOGGER.addCallback (callback);
+		try
+		{
+			LOGGER.info ("no context");
+			assertTrue ("context should be empty", event.get ().getContext ().isEmpty ());
+			
+			MDC.put ("request", "42");
+			MDC.put ("user", "m\"s");
+			LOGGER.setLayout ("[%X{request}|%X{unknown}] %msg {%X}");
+			LOGGER.info ("hello");
+			assertEquals ("unexpected line", "[42|] hello {request=42, user=m\"s}", event.get ().getLine ());
+			assertEquals ("unexpected context", "42", event.get ().getContext ().get ("request"));
+			
+			LOGGER.setJsonLayout ();
+			LOGGER.info ("hello");
+			assertTrue ("unexpected json", event.get ().getLine ().endsWith (",\"message\":\"hello\",\"mdc\":{\"request\":\"42\",\"user\":\"m\\\"s\"}}"));
+			
+			MDC.clear ();
+			LOGGER.info ("hello");
+			assertFalse ("empty context shouldn't be rendered", event.get ().getLine ().contains ("mdc"));
+		}
+		finally
+		{
+			LOGGER.rmEventCallBack (callback);
+			LOGGER.setLayout (null);
+			LOGGER.closeLogger ();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.binfalse.bflog.samplecallbacks.LogCollector;
+
+
+/**
+ * Test the metrics.
+ */
+public class TestMetrics
+{
+	
+	/** The metrics. */
+	private LogMetrics	metrics;
+	
+	
+	/**
+	 * Log to nowhere and reset the metrics.
+	 */
+	@Before
+	public void setUp ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setMinLevel (LOGGER.DEBUG);
+		metrics = LOGGER.getMetrics ();
+		metrics.reset ();
+	}
+	
+	
+	/**
+	 * Reset the logger.
+	 */
+	@After
+	public void tearDown ()
+	{
+		metrics.setMeasuringLatency (false);
+		LOGGER.setSampleEvery (LOGGER.DEBUG, 1);
+		LOGGER.setRateLimit (0, 1);
+		LOGGER.setSuppressDuplicates (false);
+		LOGGER.unregisterMBean ();
+		LOGGER.closeLogger ();
+	}
+	
+	
+	/**
+	 * Count logged and dropped messages and the bytes written.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCounters () throws IOException
+	{
+		File logFile = File.createTempFile ("BFlogTest", "test");
+		logFile.deleteOnExit ();
+		LOGGER.setLogFile (logFile);
+		LOGGER.setLogToFile (true);
+		
+		LOGGER.error ("error");
+		for (int i = 0; i < 3; i++)
+			LOGGER.warn ("warning {}", i);
+		LOGGER.setSampleEvery (LOGGER.DEBUG, 10);
+		for (int i = 0; i < 100; i++)
+			LOGGER.debug ("debug {}", i);
+		LOGGER.setSuppressDuplicates (true);
+		for (int i = 0; i < 5; i++)
+			LOGGER.info ("same {}", "message");
+		LOGGER.closeLogger ();
+		
+		assertEquals ("unexpected errors", 1, metrics.getErrors ());
+		assertEquals ("unexpected warnings", 3, metrics.getWarnings ());
+		assertEquals ("unexpected debugs", 10, metrics.getLogged (LOGGER.DEBUG));
+		// the message and the report of its repetitions when closing
+		assertEquals ("unexpected infos", 2, metrics.getInfos ());
+		assertEquals ("unexpected sampled out", 90, metrics.getSampledOut ());
+		assertEquals ("unexpected duplicates", 4, metrics.getDuplicates ());
+		assertEquals ("unexpected dropped", 94, metrics.getDropped ());
+		assertEquals ("unexpected bytes written", logFile.length (), metrics.getBytesWritten ());
+		
+		metrics.reset ();
+		assertEquals ("counters not reset", 0, metrics.getErrors () + metrics.getDropped () + metrics.getBytesWritten ());
+	}
+	
+	
+	/**
+	 * Measure the latencies of a slow callback.
+	 */
+	@Test
+	public void testLatency ()
+	{
+		LogCallback slow = (lvl, msg) -> {
+			long until = System.nanoTime () + 1000000;
+			while (System.nanoTime () < until)
+				Thread.onSpinWait ();
+		};
+		LogCollector lc = new LogCollector ();
+		LOGGER.addCallback (slow);
+		LOGGER.addCallback (lc);
+		try
+		{
+			LOGGER.info ("not measured");
+			assertEquals ("latency measured", 0, metrics.getLatency (LogMetrics.CALLBACKS).getCount ());
+			
+			metrics.setMeasuringLatency (true);
+			for (int i = 0; i < 10; i++)
+				LOGGER.info ("measured {}", i);
+			LatencyHistogram all = metrics.getLatency (LogMetrics.CALLBACKS);
+			LatencyHistogram latency = metrics.getLatency (slow);
+			assertEquals ("unexpected count", 10, all.getCount ());
+			assertEquals ("unexpected count", 10, latency.getCount ());
+			assertTrue ("slow callback too fast: " + latency, latency.getPercentile (50) >= 1000000);
+			assertTrue ("fast callback too slow", metrics.getLatency (lc).getMax () < latency.getMax ());
+			assertTrue ("unexpected percentile", latency.getPercentile (100) == latency.getMax ());
+		}
+		finally
+		{
+			LOGGER.rmCallBack (slow);
+			LOGGER.rmCallBack (lc);
+		}
+		assertNull ("callback still registered", metrics.getLatency (slow));
+	}
+	
+	
+	/**
+	 * Test the precision of the histogram.
+	 */
+	@Test
+	public void testHistogram ()
+	{
+		LatencyHistogram histogram = new LatencyHistogram ();
+		for (long i = 1; i <= 100000; i++)
+			histogram.record (i * 1000);
+		assertEquals ("unexpected count", 100000, histogram.getCount ());
+		assertEquals ("unexpected max", 100000000, histogram.getMax ());
+		assertEquals ("unexpected mean", 50000500, histogram.getMean (), 1);
+		for (double p : new double [] {1, 50, 90, 99, 99.9})
+		{
+			double exact = p * 1000000;
+			long value = histogram.getPercentile (p);
+			assertTrue ("imprecise p" + p + ": " + value, value >= exact && value < exact * (1 + 1. / LatencyHistogram.SUB_BUCKETS));
+		}
+		for (long value : new long [] {0, 1, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE})
+		{
+			int bucket = LatencyHistogram.bucket (value);
+			assertTrue ("value out of its bucket: " + value, value <= LatencyHistogram.highestValue (bucket) && (bucket == 0 || value > LatencyHistogram.highestValue (bucket - 1)));
+		}
+	}
+	
+	
+	/**
+	 * Read the metrics through JMX.
+	 *
+	 * @throws JMException the JMX exception
+	 */
+	@Test
+	public void testMBean () throws JMException
+	{
+		assertTrue ("registration failed", LOGGER.registerMBean ());
+		LOGGER.error ("error");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+		ObjectName name = new ObjectName (LOGGER.MBEAN_NAME);
+		assertEquals ("unexpected errors", 1L, server.getAttribute (name, "Errors"));
+		server.invoke (name, "reset", null, null);
+		assertEquals ("metrics not reset", 0L, server.getAttribute (name, "Errors"));
+		assertTrue ("unregistration failed", LOGGER.unregisterMBean ());
+		assertFalse ("still registered", server.isRegistered (name));
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.binfalse.bflog.samplecallbacks.LogCollector;
+
+
+/**
+ * Test the rate limiter and the suppression of duplicates.
+ */
+public class TestRateLimiter
+{
+	
+	/** The collector. */
+	private LogCollector	lc;
+	
+	
+	/**
+	 * Log to a collector only.
+	 */
+	@Before
+	public void setUp ()
+	{
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setLogToFile (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		lc = new LogCollector ();
+		LOGGER.addCallback (lc);
+	}
+	
+	
+	/**
+	 * Reset the logger.
+	 */
+	@After
+	public void tearDown ()
+	{
+		LOGGER.rmCallBack (lc);
+		LOGGER.setRateLimit (0, 1);
+		LOGGER.setSuppressDuplicates (false);
+		LOGGER.setSampleRate (LOGGER.ERROR | LOGGER.WARN | LOGGER.INFO | LOGGER.DEBUG, 1);
+		LOGGER.setSampleEvery (LOGGER.ERROR | LOGGER.WARN | LOGGER.INFO | LOGGER.DEBUG, 1);
+		LOGGER.setSamplePerSite (false);
+		LOGGER.closeLogger ();
+	}
+	
+	
+	/**
+	 * Flood the logger from a single call site and make sure only the burst is
+	 * logged and the dropped messages are reported.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testRateLimit () throws InterruptedException
+	{
+		LOGGER.setRateLimit (5, 10);
+		Exception e = new IllegalStateException ("downstream failed");
+		for (int i = 0; i < 1000; i++)
+		{
+			LOGGER.error (e, "request {} failed", i);
+			LOGGER.info ("other site {}", i);
+		}
+		int errors = lc.getErrors ().size ();
+		assertTrue ("expected about 10 errors, got " + errors, errors >= 10 && errors <= 12);
+		int infos = lc.getInfos ().size ();
+		assertTrue ("other sites should have their own budget, got " + infos, infos >= 10 && infos <= 12);
+		
+		Thread.sleep (300);
+		LOGGER.error (e, "request {} failed", 1000);
+		List<String> last = lc.getStore (LOGGER.ERROR).last (2);
+		assertTrue ("expected a summary: " + last.get (0), last.get (0).endsWith (": " + (1000 - errors) + " similar messages were suppressed"));
+		assertTrue ("unexpected message: " + last.get (1), last.get (1).contains ("request 1000 failed"));
+	}
+	
+	
+	/**
+	 * Make sure repetitions are dropped and summarised.
+	 */
+	@Test
+	public void testSuppressDuplicates ()
+	{
+		LOGGER.setSuppressDuplicates (true);
+		for (int i = 0; i < 10; i++)
+			LOGGER.warn ("connection to {} lost", "db");
+		LOGGER.warn ("connection to {} lost", "cache");
+		LOGGER.warn ("connection to {} lost", "cache");
+		LOGGER.warn ("connection to {} lost", "db");
+		
+		List<String> warnings = lc.getWarnings ();
+		assertEquals ("unexpected warnings: " + warnings, 5, warnings.size ());
+		assertTrue (warnings.get (0).endsWith (": connection to db lost"));
+		assertTrue (warnings.get (1).endsWith (": last message repeated 9 times"));
+		assertTrue (warnings.get (2).endsWith (": connection to cache lost"));
+		assertTrue (warnings.get (3).endsWith (": last message repeated 1 time"));
+		assertTrue (warnings.get (4).endsWith (": connection to db lost"));
+	}
+	
+	
+	/**
+	 * Flood the logger with a constant message and make sure it is limited,
+	 * separately for every class of exception.
+	 */
+	@Test
+	public void testConstantMessage ()
+	{
+		LOGGER.setRateLimit (1, 1);
+		LOGGER.setSuppressDuplicates (true);
+		Exception e = new IllegalStateException ("downstream failed");
+		for (int i = 0; i < 1000; i++)
+			LOGGER.error (e, "downstream failed");
+		assertEquals ("unexpected errors: " + lc.getErrors (), 1, lc.getErrors ().size ());
+		
+		LOGGER.error (new IllegalArgumentException ("bad request"), "downstream failed");
+		LOGGER.error ("downstream failed");
+		assertEquals ("other exceptions should have their own site: " + lc.getErrors (), 3, lc.getErrors ().size ());
+		
+		// concatenated messages still take a site each
+		for (int i = 0; i < 10; i++)
+			LOGGER.error ("request " + i + " failed");
+		assertEquals ("unexpected errors: " + lc.getErrors (), 13, lc.getErrors ().size ());
+	}
+	
+	
+	/**
+	 * Make sure pending counts are reported when the logger is closed.
+	 */
+	@Test
+	public void testReportOnClose ()
+	{
+		LOGGER.setSuppressDuplicates (true);
+		for (int i = 0; i < 3; i++)
+			LOGGER.warn ("connection to {} lost", "db");
+		assertEquals ("unexpected warnings: " + lc.getWarnings (), 1, lc.getWarnings ().size ());
+		
+		LOGGER.closeLogger ();
+		List<String> warnings = lc.getWarnings ();
+		assertEquals ("unexpected warnings: " + warnings, 2, warnings.size ());
+		assertTrue ("unexpected report: " + warnings.get (1), warnings.get (1).endsWith (": 2 messages like \"connection to {} lost\" were suppressed"));
+	}
+	
+	
+	/**
+	 * Make sure only a sample of the messages of the sampled levels is logged.
+	 */
+	@Test
+	public void testSampling ()
+	{
+		LOGGER.setSampleEvery (LOGGER.INFO, 10);
+		for (int i = 0; i < 100; i++)
+		{
+			LOGGER.info ("sampled {}", i);
+			LOGGER.warn ("not sampled {}", i);
+		}
+		assertEquals ("unexpected number of infos", 10, lc.getInfos ().size ());
+		assertTrue ("unexpected first info", lc.getInfos ().get (0).endsWith ("sampled 0"));
+		assertEquals ("warnings should not be sampled", 100, lc.getWarnings ().size ());
+		
+		// per site, a busy site doesn't starve a quiet one
+		lc.clear ();
+		LOGGER.setSamplePerSite (true);
+		for (int i = 0; i < 100; i++)
+		{
+			LOGGER.info ("busy {}", i);
+			LOGGER.info ("busy again {}", i);
+			if (i % 10 == 0)
+				LOGGER.info ("quiet {}", i);
+		}
+		int quiet = 0;
+		for (String msg : lc.getInfos ())
+			if (msg.contains ("quiet"))
+				quiet++;
+		assertEquals ("unexpected number of infos", 21, lc.getInfos ().size ());
+		assertEquals ("unexpected number of quiet infos", 1, quiet);
+		
+		// random samples
+		lc.clear ();
+		LOGGER.setSampleEvery (LOGGER.INFO, 1);
+		LOGGER.setSampleRate (LOGGER.INFO, 0.25);
+		for (int i = 0; i < 4000; i++)
+			LOGGER.info ("random {}", i);
+		int infos = lc.getInfos ().size ();
+		assertTrue ("expected about 1000 infos, got " + infos, infos > 800 && infos < 1200);
+	}
+}
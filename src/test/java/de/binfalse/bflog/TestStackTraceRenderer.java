@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Test the rendering of stack traces.
+ */
+public class TestStackTraceRenderer
+{
+	
+	/**
+	 * Reset the renderer.
+	 */
+	@After
+	public void tearDown ()
+	{
+		LOGGER.setStackTraceDepth (0);
+		LOGGER.setStackTraceCacheSize (StackTraceRenderer.DEFAULT_CACHE_SIZE);
+	}
+	
+	
+	/**
+	 * Render an exception.
+	 *
+	 * @param e the exception
+	 * @return the rendered trace
+	 */
+	private static String render (Throwable e)
+	{
+		StringBuilder sb = new StringBuilder ();
+		StackTraceRenderer.append (sb, e);
+		return sb.toString ();
+	}
+	
+	
+	/**
+	 * Create an exception that was thrown a few frames deeper than the caller.
+	 *
+	 * @param depth the additional frames
+	 * @return the exception
+	 */
+	private static IOException deep (int depth)
+	{
+		if (depth > 0)
+			return deep (depth - 1);
+		return new IOException ("deep");
+	}
+	
+	
+	/**
+	 * Test causes, suppressed exceptions, and the elision of common frames.
+	 */
+	@Test
+	public void testCauses ()
+	{
+		IOException cause = deep (3);
+		IllegalStateException e = new IllegalStateException ("outer", cause);
+		e.addSuppressed (new IllegalArgumentException ("suppressed"));
+		String trace = render (e);
+		
+		int outer = trace.indexOf ("\tjava.lang.IllegalStateException: outer");
+		int suppressed = trace.indexOf ("\tSuppressed: java.lang.IllegalArgumentException: suppressed");
+		int caused = trace.indexOf ("\tCaused by: java.io.IOException: deep");
+		assertTrue ("missing exception: " + trace, outer >= 0 && suppressed > outer && caused > suppressed);
+		
+		// the cause shows the deep frames and elides the frames of the test
+		String causeTrace = trace.substring (caused);
+		assertEquals ("unexpected frames of the cause", 4, causeTrace.split ("\\.deep\\(", -1).length - 1);
+		int more = e.getStackTrace ().length - 1;
+		assertTrue ("common frames not elided: " + causeTrace, causeTrace.endsWith ("\t\t... " + more + " more"));
+		
+		// rendering again yields the same trace, now from the cache
+		assertEquals ("cached trace differs", trace, render (e));
+		LOGGER.setStackTraceCacheSize (0);
+		assertEquals ("uncached trace differs", trace, render (e));
+	}
+	
+	
+	/**
+	 * Test the truncation of deep traces.
+	 */
+	@Test
+	public void testDepth ()
+	{
+		IOException e = deep (10);
+		LOGGER.setStackTraceDepth (5);
+		String trace = render (e);
+		assertEquals ("unexpected number of frames", 5, trace.split ("\t\tat ", -1).length - 1);
+		int truncated = e.getStackTrace ().length - 5;
+		assertTrue ("missing truncation: " + trace, trace.endsWith ("\t\t... " + truncated + " frames truncated"));
+		
+		LOGGER.setStackTraceDepth (0);
+		assertEquals ("unexpected number of frames", e.getStackTrace ().length, render (e).split ("\t\tat ", -1).length - 1);
+	}
+	
+	
+	/**
+	 * Test that circular causes terminate.
+	 */
+	@Test
+	public void testCircular ()
+	{
+		IllegalStateException first = new IllegalStateException ("first");
+		IllegalStateException second = new IllegalStateException ("second", first);
+		first.initCause (second);
+		String trace = render (first);
+		assertTrue ("missing circular reference: " + trace, trace.contains ("\tCaused by: java.lang.IllegalStateException: second"));
+		assertTrue ("missing circular reference: " + trace, trace.contains ("\t[CIRCULAR REFERENCE] java.lang.IllegalStateException: first"));
+	}
+}
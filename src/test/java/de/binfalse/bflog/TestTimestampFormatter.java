@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Test the TimestampFormatter.
+ */
+public class TestTimestampFormatter
+{
+	
+	/** The patterns to test. */
+	private static final String [] PATTERNS = new String [] {
+		LOGGER.DATE_FORMAT_DEFAULT,
+		LOGGER.DATE_FORMAT_MILLIS,
+		LOGGER.DATE_FORMAT_ISO8601,
+		"yy/MM/dd HH:mm:ss,SSS Z",
+		"'at' HH 'o''clock' X",
+		"yyyy-MM-dd'T'HH:mm:ssXX"
+	};
+	
+	/** The zones to test. */
+	private static final String [] ZONES = new String [] {
+		"UTC", "Europe/Berlin", "America/New_York", "Asia/Kolkata"
+	};
+	
+	
+	/**
+	 * Compare the formatted time stamps with java.time.
+	 */
+	@Test
+	public void testPatterns ()
+	{
+		Random random = new Random (42);
+		for (String pattern : PATTERNS)
+			for (String zoneName : ZONES)
+			{
+				ZoneId zone = ZoneId.of (zoneName);
+				TimestampFormatter formatter = new TimestampFormatter (pattern, zone);
+				DateTimeFormatter reference = DateTimeFormatter.ofPattern (pattern).withZone (zone);
+				
+				// random jumps, as well as consecutive millis crossing seconds and minutes
+				long time = 1445968549000L;
+				for (int i = 0; i < 5000; i++)
+				{
+					time += i % 10 == 0 ? random.nextInt (1000000000) : random.nextInt (700);
+					assertEquals ("unexpected time stamp for pattern " + pattern + " in " + zoneName,
+						reference.format (Instant.ofEpochMilli (time)), formatter.format (time));
+				}
+			}
+	}
+	
+	
+	/**
+	 * Test that the time stamp is appended without touching the rest.
+	 */
+	@Test
+	public void testAppend ()
+	{
+		TimestampFormatter formatter = new TimestampFormatter (LOGGER.DATE_FORMAT_ISO8601, ZoneId.of ("UTC"));
+		StringBuilder sb = new StringBuilder ("prefix ");
+		formatter.format (1445968549123L, sb).append (" suffix");
+		assertEquals ("prefix 2015-10-27T17:55:49.123Z suffix", sb.toString ());
+		
+		sb.setLength (0);
+		formatter.format (1445968549007L, sb);
+		assertEquals ("2015-10-27T17:55:49.007Z", sb.toString ());
+	}
+	
+	
+	/**
+	 * Test that invalid patterns are rejected.
+	 */
+	@Test
+	public void testInvalidPatterns ()
+	{
+		for (String pattern : new String [] {"dd.MM.yyy", "EEE HH:mm", "H:mm", "'unterminated", "XXXX"})
+		{
+			try
+			{
+				new TimestampFormatter (pattern);
+				fail ("pattern should have been rejected: " + pattern);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+	}
+	
+	
+	/**
+	 * Test concurrent use of a single formatter.
+	 *
+	 * @throws InterruptedException the interrupted exception
+	 */
+	@Test
+	public void testConcurrency () throws InterruptedException
+	{
+		final TimestampFormatter formatter = new TimestampFormatter (LOGGER.DATE_FORMAT_ISO8601, ZoneId.of ("Europe/Berlin"));
+		final DateTimeFormatter reference = DateTimeFormatter.ofPattern (LOGGER.DATE_FORMAT_ISO8601).withZone (ZoneId.of ("Europe/Berlin"));
+		final String [] failure = new String [1];
+		Thread [] threads = new Thread [4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			final long offset = t * 1234567L;
+			threads[t] = new Thread ()
+			{
+				public void run ()
+				{
+					for (long time = 1445968549000L + offset; time < 1445968549000L + offset + 200000; time += 37)
+					{
+						String expected = reference.format (Instant.ofEpochMilli (time));
+						String actual = formatter.format (time);
+						if (!expected.equals (actual))
+							failure[0] = expected + " != " + actual;
+					}
+				}
+			};
+			threads[t].start ();
+		}
+		for (Thread t : threads)
+			t.join ();
+		assertNull ("garbled time stamp", failure[0]);
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2007-2015 Martin Scharm -- <software@binfalse.de>
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted (subject to the limitations in the
+ * disclaimer below) provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * 
+ * * Neither the name of <Owner Organization> nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ * 
+ * NO EXPRESS OR IMPLIED LICENSES TO ANY PARTY'S PATENT RIGHTS ARE
+ * GRANTED BY THIS LICENSE. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.binfalse.bflog;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+
+/**
+ * Test logging from virtual threads. Skipped if the JVM does not support
+ * virtual threads.
+ */
+public class TestVirtualThreads
+{
+	
+	/** The number of virtual threads. */
+	private static final int	THREADS		= 5000;
+	
+	/** The number of messages per thread. */
+	private static final int	MESSAGES	= 10;
+	
+	
+	/**
+	 * Reset the logger.
+	 */
+	@After
+	public void tearDown ()
+	{
+		LOGGER.closeLogger ();
+		LOGGER.setLogFileFlushPolicy (0, 0, 0);
+	}
+	
+	
+	/**
+	 * Let thousands of virtual threads log to a file and make sure no line is
+	 * lost and no carrier thread is pinned. A virtual thread blocking on a
+	 * contended monitor pins its carrier as well, without being reported as
+	 * pinned, so contended monitors of the logger count as pinning, too.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	public void testVirtualThreads () throws Exception
+	{
+		Method start = null;
+		try
+		{
+			start = Thread.class.getMethod ("startVirtualThread", Runnable.class);
+		}
+		catch (NoSuchMethodException e)
+		{
+			Assume.assumeTrue ("virtual threads not supported", false);
+		}
+		
+		File logFile = File.createTempFile ("BFlogTest", "test");
+		logFile.deleteOnExit ();
+		File jfrFile = File.createTempFile ("BFlogTest", "jfr");
+		jfrFile.deleteOnExit ();
+		
+		LOGGER.setLogToStdErr (false);
+		LOGGER.setLogToStdOut (false);
+		LOGGER.setMinLevel (LOGGER.INFO);
+		// commit every tenth line, so the threads contend for the commits as well
+		LOGGER.setLogFileFlushPolicy (10, 0, 0);
+		assertTrue ("cannot set log file", LOGGER.setLogFile (logFile));
+		LOGGER.setLogToFile (true);
+		Thread[] threads = new Thread[THREADS];
+		try (Recording recording = new Recording ())
+		{
+			recording.enable ("jdk.VirtualThreadPinned").withThreshold (Duration.ZERO);
+			recording.enable ("jdk.JavaMonitorEnter").withThreshold (Duration.ZERO).withStackTrace ();
+			recording.start ();
+			for (int t = 0; t < THREADS; t++)
+			{
+				final int thread = t;
+				threads[t] = (Thread) start.invoke (null, (Runnable) () -> {
+					for (int i = 0; i < MESSAGES; i++)
+					{
+						LOGGER.info ("thread {} message {}", thread, i);
+						if (i % 3 == 0)
+							// let other threads run while the locks are contended
+							Thread.yield ();
+					}
+				});
+			}
+			for (Thread thread : threads)
+				thread.join ();
+			recording.stop ();
+			recording.dump (jfrFile.toPath ());
+		}
+		LOGGER.closeLogger ();
+		
+		List<RecordedEvent> pinned = new ArrayList<RecordedEvent> ();
+		for (RecordedEvent event : RecordingFile.readAllEvents (jfrFile.toPath ()))
+			if (event.getEventType ().getName ().equals ("jdk.VirtualThreadPinned") || isLogger (event))
+				pinned.add (event);
+		assertEquals ("carrier threads were pinned: " + pinned, 0, pinned.size ());
+		
+		List<String> lines = Files.readAllLines (logFile.toPath (), Charset.defaultCharset ());
+		assertEquals ("lines were lost", THREADS * MESSAGES, lines.size ());
+		Set<String> messages = new HashSet<String> ();
+		for (String line : lines)
+			messages.add (line.substring (line.indexOf (": ") + 2));
+		assertEquals ("lines were duplicated", THREADS * MESSAGES, messages.size ());
+	}
+	
+	
+	/**
+	 * Did the logger cause an event? Monitors taken by the class loader, while
+	 * the classes of the logger are loaded, do not count.
+	 *
+	 * @param event the event
+	 * @return true, if the stack trace of the event contains a frame of the
+	 *         logger
+	 */
+	private static boolean isLogger (RecordedEvent event)
+	{
+		if (event.getStackTrace () == null)
+			return false;
+		for (RecordedFrame frame : event.getStackTrace ().getFrames ())
+		{
+			String type = frame.getMethod ().getType ().getName ();
+			if (type.equals ("java.lang.ClassLoader"))
+				return false;
+			if (type.startsWith ("de.binfalse.bflog.")
+				&& !type.startsWith ("de.binfalse.bflog.Test"))
+				return true;
+		}
+		return false;
+	}
+}